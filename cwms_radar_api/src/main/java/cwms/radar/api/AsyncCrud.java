@@ -0,0 +1,87 @@
+package cwms.radar.api;
+
+import java.sql.Connection;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import cwms.radar.data.LazyConnection;
+import cwms.radar.helpers.DatabaseExecutor;
+import io.javalin.apibuilder.ApiBuilder;
+import io.javalin.apibuilder.CrudFunction;
+import io.javalin.apibuilder.CrudFunctionHandler;
+import io.javalin.apibuilder.CrudHandler;
+import io.javalin.apibuilder.CrudHandlerKt;
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+
+/**
+ * Registers CrudHandlers like {@link ApiBuilder#crud(String, CrudHandler)}, but with getAll and
+ * getOne run on the threads of a {@link Bulkhead}, using connections of its share of the pool. The request is suspended with ctx.result(CompletableFuture)
+ * and the container thread returns right away; Javalin finishes the response, and runs the after
+ * handlers, once the handler is done.
+ *
+ * The routes keep the original CrudHandler, so the OpenApi annotations are still found. create,
+ * update and delete don't read anything and stay on the container thread, as does a getAll
+ * answered from the cache of a {@link CachedGetAll}.
+ */
+public final class AsyncCrud {
+
+    private AsyncCrud() {
+    }
+
+    /**
+     * @param bulkhead where getAll and getOne run, null to register the handler as is
+     */
+    public static void crud(String path, CrudHandler handler, Bulkhead bulkhead) {
+        if( bulkhead == null ){
+            ApiBuilder.crud(path, handler);
+            return;
+        }
+        String[] parts = path.split("/");
+        String resourceId = parts[parts.length - 1];
+        if( !resourceId.startsWith(":") ){
+            throw new IllegalArgumentException("CrudHandler requires a path-parameter at the end of the provided path, e.g. '/users/:user-id'");
+        }
+        String resourceBase = path.replace(resourceId, "");
+        Map<CrudFunction,Handler> functions = CrudHandlerKt.getCrudFunctions(handler, resourceId);
+        ApiBuilder.get(path, dispatched(CrudFunction.GET_ONE, handler, resourceId, functions, bulkhead));
+        ApiBuilder.get(resourceBase, dispatched(CrudFunction.GET_ALL, handler, resourceId, functions, bulkhead));
+        ApiBuilder.post(resourceBase, functions.get(CrudFunction.CREATE));
+        ApiBuilder.patch(path, functions.get(CrudFunction.UPDATE));
+        ApiBuilder.delete(path, functions.get(CrudFunction.DELETE));
+    }
+
+    private static Handler dispatched(CrudFunction function, CrudHandler handler, String resourceId,
+                                      Map<CrudFunction,Handler> functions, Bulkhead bulkhead) {
+        Handler direct = functions.get(function);
+        CachedGetAll cached = function == CrudFunction.GET_ALL && handler instanceof CachedGetAll
+                ? (CachedGetAll) handler : null;
+        return new CrudFunctionHandler(function, handler, resourceId, ctx -> {
+            if( cached != null && cached.getAllCached(ctx) ){
+                return;
+            }
+            // swap the shared pool for the bulkhead's share, the after handler closes the new one
+            Connection shared = ctx.attribute("database");
+            if( shared != null ){
+                shared.close();
+            }
+            ctx.attribute("database", LazyConnection.of(bulkhead.dataSource()));
+            ctx.attribute("data_source", bulkhead.fanOutDataSource());
+            ctx.attribute("fan_out", bulkhead.fanOut());
+            ctx.result(bulkhead.submit(() -> {
+                direct.handle(ctx);
+                return null;
+            }));
+        });
+    }
+
+    /**
+     * Exception handler for work the executor turned away.
+     */
+    public static void overloaded(DatabaseExecutor.Overloaded err, Context ctx) {
+        ctx.status(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        ctx.header("Retry-After", Integer.toString(err.getRetryAfterSeconds()));
+        ctx.json("Server busy, try again later");
+    }
+}
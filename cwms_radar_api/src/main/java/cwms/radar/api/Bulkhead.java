@@ -0,0 +1,142 @@
+package cwms.radar.api;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import com.codahale.metrics.MetricRegistry;
+
+import cwms.radar.data.QuotaDataSource;
+import cwms.radar.helpers.DatabaseExecutor;
+import cwms.radar.helpers.FanOut;
+
+/**
+ * A class of routes with its own threads and its own share of the connection pool, so a burst of
+ * one kind of request only queues behind itself. Offices, units and the like are answered in a few
+ * milliseconds and should stay that way while someone exports years of time series; with one
+ * executor and one pool for everything they wait for the same threads and connections as the export.
+ *
+ * The parts of a request that are read in parallel, the chunks of a long time series or the
+ * series of a batch, run on the class's own {@link #fanOut()} threads with connections set aside
+ * for them. A request holds its own connection while its parts are read, so if they came out of
+ * the same quota, requests that each hold one could leave none for the parts. With one fan-out
+ * thread per fan-out connection the parts queue for threads instead, and never for connections.
+ *
+ * Each class has its queue metrics under DatabaseExecutor.radar-&lt;name&gt; and its connection
+ * metrics under QuotaDataSource.&lt;name&gt; and QuotaDataSource.&lt;name&gt;-fan-out.
+ *
+ * Configuration, NAME being the upper case name of the class:
+ * <ul>
+ * <li>RADAR_BULKHEAD_NAME_CONNECTIONS, connections the class may hold at once, fan-out included (default its share of the pool)</li>
+ * <li>RADAR_BULKHEAD_NAME_FAN_OUT_CONNECTIONS, of those the ones set aside for parts read in parallel (see {@link #configured})</li>
+ * <li>RADAR_BULKHEAD_NAME_THREADS, requests of the class worked on at once (default one per connection left for requests)</li>
+ * <li>RADAR_BULKHEAD_CONNECTION_WAIT_MS, longest a request waits for one of its class's connections (default 10000)</li>
+ * </ul>
+ */
+public final class Bulkhead {
+    private static final Logger logger = Logger.getLogger(Bulkhead.class.getName());
+
+    /** Small lookup tables: offices, units, parameters, time zones, categories and groups. */
+    public static final String REFERENCE = "reference";
+    /** Listings that search the catalog: catalog, locations and clobs. */
+    public static final String CATALOG = "catalog";
+    /** Data retrieval that can run long: time series, levels and ratings. */
+    public static final String BULK = "bulk";
+
+    private static final long CONNECTION_WAIT_MILLIS = Long.parseLong(System.getProperty("RADAR_BULKHEAD_CONNECTION_WAIT_MS", "10000"));
+
+    private final String name;
+    private final DatabaseExecutor executor;
+    private final QuotaDataSource dataSource;
+    private final QuotaDataSource fanOutDataSource;
+    private final ExecutorService fanOut;
+
+    /**
+     * @param connections connections for the requests themselves
+     * @param fanOutConnections connections for the parts of requests read in parallel, 0 to read
+     *                          them on the requests' connections, for classes whose requests don't fan out
+     */
+    public Bulkhead(String name, int threads, int connections, int fanOutConnections, DataSource pool, MetricRegistry metrics) {
+        this.name = name;
+        this.executor = new DatabaseExecutor("radar-" + name, threads, metrics);
+        this.dataSource = new QuotaDataSource(pool, name, connections, CONNECTION_WAIT_MILLIS, TimeUnit.MILLISECONDS, metrics);
+        this.fanOutDataSource = fanOutConnections > 0
+                ? new QuotaDataSource(pool, name + "-fan-out", fanOutConnections, CONNECTION_WAIT_MILLIS, TimeUnit.MILLISECONDS, metrics)
+                : dataSource;
+        // each parallel read holds one of the connections, more threads would only wait for them
+        this.fanOut = FanOut.newExecutor("radar-" + name + "-fan-out", fanOutConnections > 0 ? fanOutConnections : connections);
+    }
+
+    /**
+     * Sizes the class from the system properties, or from its share of the pool if they are not set.
+     *
+     * Most requests hold a single connection, so by default every connection not set aside for
+     * fan-out gets a thread. A long time series read or a batch only takes more fan-out threads, its
+     * parts wait for them while single value requests carry on.
+     *
+     * @param percent of poolSize the class gets, at least one connection
+     * @param fanOutPercent of the class's connections set aside for fan-out, at least one, or 0 for a
+     *                      class whose requests don't fan out
+     */
+    public static Bulkhead configured(String name, int percent, int fanOutPercent, int poolSize, DataSource pool, MetricRegistry metrics) {
+        String prefix = "RADAR_BULKHEAD_" + name.toUpperCase(Locale.ROOT);
+        int connections = Integer.parseInt(System.getProperty(prefix + "_CONNECTIONS",
+                Integer.toString(Math.max(1, poolSize * percent / 100))));
+        int fanOutConnections = Integer.parseInt(System.getProperty(prefix + "_FAN_OUT_CONNECTIONS",
+                Integer.toString(fanOutPercent > 0 ? Math.max(1, connections * fanOutPercent / 100) : 0)));
+        int requestConnections = Math.max(1, connections - fanOutConnections);
+        int threads = Integer.parseInt(System.getProperty(prefix + "_THREADS",
+                Integer.toString(requestConnections)));
+        if( threads < 2 ){
+            logger.warning(() -> "The " + name + " routes are handled one at a time, " + connections
+                    + " connections leave " + requestConnections + " for requests after " + fanOutConnections
+                    + " for fan-out; raise " + prefix + "_CONNECTIONS or the pool size");
+        }
+        return new Bulkhead(name, threads, requestConnections, fanOutConnections, pool, metrics);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the class's share of the pool, for the requests' "database" attribute
+     */
+    public DataSource dataSource() {
+        return dataSource;
+    }
+
+    /**
+     * @return connections for the parts of a request read in parallel, for the request's "data_source" attribute
+     */
+    public DataSource fanOutDataSource() {
+        return fanOutDataSource;
+    }
+
+    /**
+     * @return threads for the parts of a request read in parallel, for the request's "fan_out" attribute
+     */
+    public ExecutorService fanOut() {
+        return fanOut;
+    }
+
+    /**
+     * @see DatabaseExecutor#submit(Callable)
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> work) {
+        return executor.submit(work);
+    }
+
+    /**
+     * Stops taking work, what is queued still runs.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        fanOut.shutdown();
+    }
+}
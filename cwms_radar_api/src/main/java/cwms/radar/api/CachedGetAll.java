@@ -0,0 +1,22 @@
+package cwms.radar.api;
+
+import java.io.IOException;
+
+import cwms.radar.helpers.ResponseCache;
+import io.javalin.http.Context;
+
+/**
+ * A CrudHandler whose getAll is mostly answered from a {@link ResponseCache}.
+ *
+ * {@link AsyncCrud} asks it first, on the container thread, and only hands the request to the
+ * bulkhead when the response isn't cached, so a hit never waits for a thread or a connection.
+ */
+public interface CachedGetAll {
+
+    /**
+     * Sends the cached response for the request, if there is one.
+     *
+     * @return false if nothing was sent and getAll has to run
+     */
+    boolean getAllCached(Context ctx) throws IOException;
+}
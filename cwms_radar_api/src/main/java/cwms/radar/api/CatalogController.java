@@ -1,7 +1,11 @@
 package cwms.radar.api;
 
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -22,6 +26,7 @@ import cwms.radar.data.dto.Catalog;
 import cwms.radar.data.dto.Office;
 import cwms.radar.formatters.ContentType;
 import cwms.radar.formatters.Formats;
+import cwms.radar.helpers.SingleFlight;
 
 import static com.codahale.metrics.MetricRegistry.*;
 
@@ -40,6 +45,8 @@ public class CatalogController implements CrudHandler{
     private final Meter getOneRequest;
     private final Timer getOneRequestTime;
     private final Histogram requestResultSize;
+    // identical location catalog pages asked for at the same time share one query
+    private final SingleFlight<List<Object>,Catalog> locationFlights;
 
     public CatalogController(MetricRegistry metrics){
         this.metrics=metrics;
@@ -49,6 +56,7 @@ public class CatalogController implements CrudHandler{
         getOneRequest = this.metrics.meter(name(className,"getOne","count"));
         getOneRequestTime = this.metrics.timer(name(className,"getOne","time"));
         requestResultSize = this.metrics.histogram((name(className,"results","size")));
+        locationFlights = new SingleFlight<>("catalog.locations", metrics, SingleFlight.TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     @OpenApi(tags = {"Catalog"},ignore = true)
@@ -103,6 +111,7 @@ public class CatalogController implements CrudHandler{
                                            @OpenApiContent(from = Catalog.class, type=Formats.XML)
                                        }
                       ),
+                      @OpenApiResponse(status="304", description = "The page has not changed since the version identified by If-None-Match"),
                       @OpenApiResponse(status="501",description = "The format requested is not implemented"),
                       @OpenApiResponse(status="400", description = "Invalid Parameter combination")
                     },
@@ -131,20 +140,35 @@ public class CatalogController implements CrudHandler{
                 cat = cdm.getTimeSeriesCatalog(cursor, pageSize, office );
             } else if ("locations".equalsIgnoreCase(valDataSet)){
                 LocationsDao dao = new LocationsDao(dsl);
-                cat = dao.getLocationCatalog(cursor, pageSize, unitSystem, office );
+                List<Object> key = Arrays.asList(ctx.attribute("office_id"), cursor, pageSize, unitSystem,
+                        office.map(String::toUpperCase).orElse(null));
+                cat = locationFlights.execute(key, () -> dao.getLocationCatalog(cursor, pageSize, unitSystem, office ));
                 //cat = cdm.getLocationCatalog(cursor, pageSize, unitSystem, office );
             }
             if( cat != null ){
+                // Tagged by what is sent, every field of an entry is part of the page
                 String data = Formats.format(contentType, cat);
+                if( ConditionalRequest.notModified(ctx, ConditionalRequest.etag(contentType.toString(), data), null) ){
+                    return;
+                }
                 ctx.result(data).contentType(contentType.toString());
                 requestResultSize.update(data.length());
             } else {
                 ctx.result("Cannot create catalog of requested information").status(HttpServletResponse.SC_BAD_REQUEST);
             }
 
+        } catch( IllegalArgumentException er) {
+            logger.log(Level.FINE, "bad catalog request", er);
+            ctx.status(HttpServletResponse.SC_BAD_REQUEST).result("Invalid cursor");
         } catch( SQLException er) {
             logger.log(Level.SEVERE, "failed to process catalog request", er);
             ctx.status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR).result("Failed to process request");
+        } catch( InterruptedException er) {
+            Thread.currentThread().interrupt();
+            ctx.status(HttpServletResponse.SC_SERVICE_UNAVAILABLE).result("Failed to process request");
+        } catch( TimeoutException er) {
+            logger.log(Level.WARNING, er.getMessage());
+            ctx.status(HttpServletResponse.SC_SERVICE_UNAVAILABLE).result("Failed to process request");
         }
 
     }
@@ -1,8 +1,11 @@
 package cwms.radar.api;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.servlet.http.HttpServletResponse;
@@ -18,6 +21,7 @@ import cwms.radar.data.dto.Clobs;
 import cwms.radar.formatters.ContentType;
 import cwms.radar.formatters.Formats;
 import cwms.radar.formatters.FormattingException;
+import cwms.radar.helpers.SingleFlight;
 import io.javalin.apibuilder.CrudHandler;
 import io.javalin.core.util.Header;
 import io.javalin.http.Context;
@@ -42,6 +46,8 @@ public class ClobController implements CrudHandler {
     private final Meter getOneRequest;
     private final Timer getOneRequestTime;
     private final Histogram requestResultSize;
+    // identical listings asked for at the same time share one query
+    private final SingleFlight<List<Object>,Clobs> clobFlights;
 
     public ClobController(MetricRegistry metrics){
         this.metrics=metrics;
@@ -51,6 +57,7 @@ public class ClobController implements CrudHandler {
         getOneRequest = this.metrics.meter(name(className,"getOne","count"));
         getOneRequestTime = this.metrics.timer(name(className,"getOne","time"));
         requestResultSize = this.metrics.histogram((name(className,"results","size")));
+        clobFlights = new SingleFlight<>("clobs", metrics, SingleFlight.TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     protected DSLContext getDslContext(Context ctx)
@@ -116,13 +123,23 @@ public class ClobController implements CrudHandler {
             ContentType contentType = Formats.parseHeaderAndQueryParm(formatHeader, formatParm);
 
             ClobDao dao = new ClobDao(dsl);
-            Clobs clobs = dao.getClobs(cursor, pageSize, officeOpt, includeValues, like);
+            List<Object> key = Arrays.asList(ctx.attribute("office_id"), cursor, pageSize,
+                    office == null ? null : office.toUpperCase(), includeValues, like);
+            Clobs clobs = clobFlights.execute(key, () -> dao.getClobs(cursor, pageSize, officeOpt, includeValues, like));
             String result = Formats.format(contentType,clobs);
 
             ctx.result(result);
             ctx.contentType(contentType.toString());
             requestResultSize.update(result.length());
 
+        } catch ( InterruptedException ex ){
+            Thread.currentThread().interrupt();
+            ctx.status(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            ctx.result("Failed to process request");
+        } catch ( TimeoutException ex ){
+            logger.log(Level.WARNING, ex.getMessage());
+            ctx.status(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            ctx.result("Failed to process request");
         } catch ( FormattingException fe ){
             logger.log(Level.SEVERE,"failed to format data",fe);
             if( fe.getCause() instanceof IOException ){
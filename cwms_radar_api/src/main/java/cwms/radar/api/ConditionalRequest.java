@@ -0,0 +1,102 @@
+package cwms.radar.api;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.Locale;
+
+import javax.servlet.http.HttpServletResponse;
+
+import io.javalin.core.util.Header;
+import io.javalin.http.Context;
+
+/**
+ * Conditional GET support: ETag and Last-Modified headers, and 304 answers for
+ * If-None-Match and If-Modified-Since.
+ */
+final class ConditionalRequest {
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+
+    private ConditionalRequest() {
+    }
+
+    /**
+     * @param parts everything the response depends on
+     * @return a quoted strong entity tag
+     */
+    static String etag(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for( String part: parts ){
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            byte[] hash = digest.digest();
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(hash).substring(0, 22) + "\"";
+        } catch( NoSuchAlgorithmException err ){
+            // every Java platform has SHA-256
+            throw new IllegalStateException(err);
+        }
+    }
+
+    /**
+     * Sets the validators on the response and answers 304 if the client already has this version.
+     * @param lastModified null if unknown
+     * @return true if the response is complete and nothing else should be sent
+     */
+    static boolean notModified(Context ctx, String etag, Instant lastModified) {
+        ctx.header(Header.ETAG, etag);
+        if( lastModified != null ){
+            ctx.header(Header.LAST_MODIFIED, HTTP_DATE.format(lastModified));
+        }
+        String ifNoneMatch = ctx.header(Header.IF_NONE_MATCH);
+        // If-Modified-Since only counts when there is no If-None-Match (RFC 7232 section 6)
+        boolean unchanged = ifNoneMatch != null
+                ? matches(ifNoneMatch, etag)
+                : notModifiedSince(ctx.header(Header.IF_MODIFIED_SINCE), lastModified);
+        if( unchanged ){
+            ctx.status(HttpServletResponse.SC_NOT_MODIFIED);
+        }
+        return unchanged;
+    }
+
+    /**
+     * Weak comparison, as If-None-Match requires.
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        String tag = opaque(etag);
+        for( String candidate: ifNoneMatch.split(",") ){
+            candidate = candidate.trim();
+            if( candidate.equals("*") || opaque(candidate).equals(tag) ){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean notModifiedSince(String ifModifiedSince, Instant lastModified) {
+        if( ifModifiedSince == null || lastModified == null ){
+            return false;
+        }
+        try {
+            Instant since = DateTimeFormatter.RFC_1123_DATE_TIME.parse(ifModifiedSince, Instant::from);
+            // HTTP dates only have whole seconds
+            return !lastModified.truncatedTo(ChronoUnit.SECONDS).isAfter(since);
+        } catch( DateTimeParseException err ){
+            // invalid dates are ignored
+            return false;
+        }
+    }
+
+    private static String opaque(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+}
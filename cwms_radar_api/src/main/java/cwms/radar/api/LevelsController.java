@@ -1,5 +1,9 @@
 package cwms.radar.api;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.text.Format;
 import java.util.logging.Level;
@@ -15,11 +19,14 @@ import com.codahale.metrics.Timer;
 
 import cwms.radar.data.CwmsDataManager;
 import cwms.radar.formatters.Formats;
+import cwms.radar.helpers.CountingOutputStream;
+import cwms.radar.helpers.ErrorResponse;
 import io.javalin.apibuilder.CrudHandler;
 import io.javalin.http.Context;
 import io.javalin.plugin.openapi.annotations.OpenApi;
 import io.javalin.plugin.openapi.annotations.OpenApiParam;
 import io.javalin.plugin.openapi.annotations.OpenApiResponse;
+import org.jooq.exception.DataAccessException;
 
 public class LevelsController implements CrudHandler {
     private static final Logger logger = Logger.getLogger(UnitsController.class.getName());
@@ -106,14 +113,20 @@ public class LevelsController implements CrudHandler {
                 }
             }
 
-            String results = cdm.getLocationLevels(format,names,office,unit,datum,begin,end,timezone);
             ctx.status(HttpServletResponse.SC_OK);
-            ctx.result(results);
-            requestResultSize.update(results.length());
-        } catch (SQLException ex) {
+            // Copied as the CLOB is read, legacy documents can be several megabytes
+            CountingOutputStream out = new CountingOutputStream(ctx.res.getOutputStream());
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            cdm.getLocationLevels(writer, format, names, office, unit, datum, begin, end, timezone);
+            writer.flush();
+            requestResultSize.update(out.getCount());
+        } catch (SQLException | IOException | DataAccessException ex) {
             logger.log(Level.SEVERE, null, ex);
-            ctx.status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            ctx.result("Failed to process request");
+            // the document is copied as it is read, part of it may already be sent
+            if( ErrorResponse.canSend(ctx.res) ){
+                ctx.status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                ctx.result("Failed to process request");
+            }
         }
     }
 
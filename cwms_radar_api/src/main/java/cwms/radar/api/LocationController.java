@@ -1,6 +1,9 @@
 package cwms.radar.api;
 
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.logging.Level;
@@ -11,12 +14,13 @@ import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import cwms.radar.data.dao.LocationsDao;
 import cwms.radar.formatters.ContentType;
 import cwms.radar.formatters.Formats;
 import cwms.radar.formatters.FormattingException;
+import cwms.radar.helpers.CountingOutputStream;
+import cwms.radar.helpers.ErrorResponse;
 import io.javalin.apibuilder.CrudHandler;
 import io.javalin.core.util.Header;
 import io.javalin.http.Context;
@@ -27,6 +31,7 @@ import io.javalin.plugin.openapi.annotations.OpenApiParam;
 import io.javalin.plugin.openapi.annotations.OpenApiResponse;
 import org.geojson.FeatureCollection;
 import org.jooq.DSLContext;
+import org.jooq.exception.DataAccessException;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static cwms.radar.data.dao.JooqDao.getDslContext;
@@ -98,29 +103,36 @@ public class LocationController implements CrudHandler {
             ContentType contentType = Formats.parseHeaderAndQueryParm(formatHeader, formatParm);
             ctx.contentType(contentType.toString());
 
-            final String results;
+            ctx.status(HttpServletResponse.SC_OK);
             if(contentType.getType().equals(Formats.GEOJSON))
             {
                 logger.info("units:" + units);
                 FeatureCollection collection = cdm.buildFeatureCollection(names, units, office);
                 ObjectMapper mapper = JavalinJackson.getObjectMapper();
-                results = mapper.writeValueAsString(collection);
+                String results = mapper.writeValueAsString(collection);
+                ctx.result(results);
+                requestResultSize.update(results.length());
             }
             else
             {
                 String format = getFormatFromContent(contentType);
-                results = cdm.getLocations(names, format, units, datum, office);
+                // Copied as the CLOB is read, legacy documents can be several megabytes
+                CountingOutputStream out = new CountingOutputStream(ctx.res.getOutputStream());
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                cdm.getLocations(writer, names, format, units, datum, office);
+                writer.flush();
+                requestResultSize.update(out.getCount());
             }
-
-            ctx.status(HttpServletResponse.SC_OK);
-            ctx.result(results);
-            requestResultSize.update(results.length());
         }
-        catch( JsonProcessingException ex)
+        catch(IOException | DataAccessException ex)
         {
             logger.log(Level.SEVERE, null, ex);
-            ctx.status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            ctx.result("Failed to process request");
+            // the document is copied as it is read, part of it may already be sent
+            if(ErrorResponse.canSend(ctx.res))
+            {
+                ctx.status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                ctx.result("Failed to process request");
+            }
         }
         catch(FormattingException fe)
         {
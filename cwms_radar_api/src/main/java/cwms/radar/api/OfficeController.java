@@ -1,6 +1,7 @@
 package cwms.radar.api;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -18,6 +19,7 @@ import cwms.radar.formatters.FormattingException;
 import cwms.radar.formatters.OfficeFormatV1;
 import cwms.radar.formatters.csv.CsvV1Office;
 import cwms.radar.formatters.tab.TabV1Office;
+import cwms.radar.helpers.ResponseCache;
 import io.javalin.apibuilder.CrudHandler;
 import io.javalin.core.util.Header;
 import io.javalin.http.Context;
@@ -27,6 +29,7 @@ import io.javalin.plugin.openapi.annotations.OpenApiContent;
 import io.javalin.plugin.openapi.annotations.OpenApiParam;
 import io.javalin.plugin.openapi.annotations.OpenApiResponse;
 import org.jooq.DSLContext;
+import org.jooq.exception.DataAccessException;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static cwms.radar.data.dao.JooqDao.getDslContext;
@@ -34,7 +37,7 @@ import static cwms.radar.data.dao.JooqDao.getDslContext;
 /**
  *
  */
-public class OfficeController implements CrudHandler {
+public class OfficeController implements CrudHandler, CachedGetAll {
     private static final Logger logger = Logger.getLogger(OfficeController.class.getName());
     private final MetricRegistry metrics;
     private final Meter getAllRequests;
@@ -42,7 +45,8 @@ public class OfficeController implements CrudHandler {
     private final Meter getOneRequest;
     private final Timer getOneRequestTime;
     private final Histogram requestResultSize;
-    
+    private final ResponseCache cache;
+
 
     public OfficeController(MetricRegistry metrics){
         this.metrics=metrics;
@@ -52,6 +56,7 @@ public class OfficeController implements CrudHandler {
         getOneRequest = this.metrics.meter(name(className,"getOne","count"));
         getOneRequestTime = this.metrics.timer(name(className,"getOne","time"));
         requestResultSize = this.metrics.histogram((name(className,"results","size")));
+        cache = new ResponseCache("offices", metrics);
     }
     
 
@@ -88,20 +93,27 @@ public class OfficeController implements CrudHandler {
         getAllRequests.mark();
         
         try (
-                final Timer.Context timeContext  = getAllRequestsTime.time();
-                DSLContext dsl = getDslContext(ctx))
+                final Timer.Context timeContext  = getAllRequestsTime.time())
         {
-                OfficeDao dao = new OfficeDao(dsl);
-                List<Office> offices = dao.getOffices();
                 String formatParm = ctx.queryParam("format","");
                 String formatHeader = ctx.header(Header.ACCEPT);
                 ContentType contentType = Formats.parseHeaderAndQueryParm(formatHeader, formatParm);
-                
-                String result = Formats.format(contentType,offices);
-                
-                ctx.result(result).contentType(contentType.toString());
-                requestResultSize.update(result.length());
 
+                // offices are next to never added, a hit never checks out a connection
+                String key = ResponseCache.key("offices", ctx.attribute("office_id"), contentType.toString());
+                long size = cache.send(ctx.req, ctx.res, key, contentType.toString(), out -> {
+                    try (DSLContext dsl = getDslContext(ctx)) {
+                        OfficeDao dao = new OfficeDao(dsl);
+                        List<Office> offices = dao.getOffices();
+                        out.write(Formats.format(contentType,offices).getBytes(StandardCharsets.UTF_8));
+                    }
+                });
+                requestResultSize.update(size);
+
+        } catch ( IOException | DataAccessException ex ){
+            logger.log(Level.SEVERE, null, ex);
+            ctx.status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            ctx.result("Failed to process request");
         } catch ( FormattingException fe ){
             logger.log(Level.SEVERE,"failed to format data",fe);
             if( fe.getCause() instanceof IOException ){
@@ -114,6 +126,25 @@ public class OfficeController implements CrudHandler {
         }
     }
 
+    @Override
+    public boolean getAllCached(Context ctx) throws IOException {
+        ContentType contentType;
+        try {
+            contentType = Formats.parseHeaderAndQueryParm(ctx.header(Header.ACCEPT), ctx.queryParam("format",""));
+        } catch ( FormattingException fe ){
+            // getAll explains what is wrong with it
+            return false;
+        }
+        String key = ResponseCache.key("offices", ctx.attribute("office_id"), contentType.toString());
+        long size = cache.sendCached(ctx.req, ctx.res, key);
+        if( size < 0 ){
+            return false;
+        }
+        getAllRequests.mark();
+        requestResultSize.update(size);
+        return true;
+    }
+
     @OpenApi(
         pathParams = @OpenApiParam(name="office", description = "The 3 letter office ID you want more information for", type = String.class),
         queryParams = @OpenApiParam(name="format",
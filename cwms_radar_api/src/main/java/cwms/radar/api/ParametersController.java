@@ -1,6 +1,9 @@
 package cwms.radar.api;
 
-import java.sql.SQLException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -14,13 +17,15 @@ import com.codahale.metrics.Timer;
 
 import cwms.radar.data.CwmsDataManager;
 import cwms.radar.formatters.Formats;
+import cwms.radar.helpers.ResponseCache;
 import io.javalin.apibuilder.CrudHandler;
 import io.javalin.http.Context;
 import io.javalin.plugin.openapi.annotations.OpenApi;
 import io.javalin.plugin.openapi.annotations.OpenApiParam;
 import io.javalin.plugin.openapi.annotations.OpenApiResponse;
+import org.jooq.exception.DataAccessException;
 
-public class ParametersController implements CrudHandler {
+public class ParametersController implements CrudHandler, CachedGetAll {
     private static final Logger logger = Logger.getLogger(UnitsController.class.getName());
     private final MetricRegistry metrics;// = new MetricRegistry();
     private final Meter getAllRequests;// = metrics.meter(OfficeController.class.getName()+"."+"getAll.count");
@@ -28,6 +33,7 @@ public class ParametersController implements CrudHandler {
     private final Meter getOneRequest;
     private final Timer getOneRequestTime;
     private final Histogram requestResultSize;
+    private final ResponseCache cache;
 
     public ParametersController(MetricRegistry metrics){
         this.metrics=metrics;
@@ -37,6 +43,7 @@ public class ParametersController implements CrudHandler {
         getOneRequest = this.metrics.meter(name(className,"getOne","count"));
         getOneRequestTime = this.metrics.timer(name(className,"getOne","time"));
         requestResultSize = this.metrics.histogram((name(className,"results","size")));
+        cache = new ResponseCache("parameters", metrics);
     }
 
     @OpenApi(ignore = true)
@@ -67,31 +74,59 @@ public class ParametersController implements CrudHandler {
         getAllRequests.mark();
         try (
             final Timer.Context time_context = getAllRequestsTime.time();
-            CwmsDataManager cdm = new CwmsDataManager(ctx);
         ) {
             String format = ctx.queryParam("format","json");
-
-
-            switch(format){
-                case "json": {ctx.contentType(Formats.JSON); break;}
-                case "tab": {ctx.contentType(Formats.TAB); break;}
-                case "csv": {ctx.contentType(Formats.CSV); break;}
-                case "xml": {ctx.contentType(Formats.XML); break;}
-                case "wml2": {ctx.contentType(Formats.WML2); break;}
-                default: throw new UnsupportedOperationException("Format " +  format + " is not implemented for this end point");
+            String contentType = contentType(format);
+            if( contentType == null ){
+                throw new UnsupportedOperationException("Format " +  format + " is not implemented for this end point");
             }
 
-            String results = cdm.getParameters(format);
-            ctx.status(HttpServletResponse.SC_OK);
-            ctx.result(results);
-            requestResultSize.update(results.length());
-        } catch (SQLException ex) {
+            // the list only changes with a schema update, a hit never checks out a connection
+            String key = ResponseCache.key("parameters", ctx.attribute("office_id"), contentType);
+            long size = cache.send(ctx.req, ctx.res, key, contentType, out -> {
+                try (CwmsDataManager cdm = new CwmsDataManager(ctx)) {
+                    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                    cdm.getParameters(writer, format);
+                    writer.flush();
+                }
+            });
+            requestResultSize.update(size);
+        } catch (IOException | DataAccessException ex) {
             logger.log(Level.SEVERE, null, ex);
             ctx.status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             ctx.result("Failed to process request");
         }
     }
 
+    @Override
+    public boolean getAllCached(Context ctx) throws IOException {
+        String contentType = contentType(ctx.queryParam("format","json"));
+        if( contentType == null ){
+            return false;
+        }
+        long size = cache.sendCached(ctx.req, ctx.res, ResponseCache.key("parameters", ctx.attribute("office_id"), contentType));
+        if( size < 0 ){
+            return false;
+        }
+        getAllRequests.mark();
+        requestResultSize.update(size);
+        return true;
+    }
+
+    /**
+     * @return the content type of format, null if it isn't supported
+     */
+    private static String contentType(String format) {
+        switch(format){
+            case "json": return Formats.JSON;
+            case "tab": return Formats.TAB;
+            case "csv": return Formats.CSV;
+            case "xml": return Formats.XML;
+            case "wml2": return Formats.WML2;
+            default: return null;
+        }
+    }
+
     @OpenApi(ignore = true)
     @Override
     public void getOne(Context ctx, String id) {
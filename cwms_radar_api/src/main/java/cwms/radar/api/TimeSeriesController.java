@@ -1,17 +1,32 @@
 package cwms.radar.api;
 
 import static com.codahale.metrics.MetricRegistry.name;
+import static cwms.radar.data.dao.JooqDao.getDslContext;
 
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
 
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
@@ -19,10 +34,19 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 
 import cwms.radar.data.CwmsDataManager;
+import cwms.radar.data.Downsampler;
+import cwms.radar.data.LazyConnection;
+import cwms.radar.data.TimeSeriesVersion;
+import cwms.radar.data.dao.TimeSeriesGroupDao;
+import cwms.radar.data.dto.AssignedTimeSeries;
 import cwms.radar.data.dto.TimeSeries;
 import cwms.radar.formatters.ContentType;
 import cwms.radar.formatters.Formats;
 import cwms.radar.formatters.FormattingException;
+import cwms.radar.helpers.CountingOutputStream;
+import cwms.radar.helpers.ErrorResponse;
+import cwms.radar.helpers.FanOut;
+import cwms.radar.helpers.SingleFlight;
 import io.javalin.apibuilder.CrudHandler;
 import io.javalin.core.util.Header;
 import io.javalin.http.Context;
@@ -30,6 +54,8 @@ import io.javalin.plugin.openapi.annotations.OpenApi;
 import io.javalin.plugin.openapi.annotations.OpenApiContent;
 import io.javalin.plugin.openapi.annotations.OpenApiParam;
 import io.javalin.plugin.openapi.annotations.OpenApiResponse;
+import io.javalin.plugin.json.JavalinJson;
+import org.jooq.exception.DataAccessException;
 
 public class TimeSeriesController implements CrudHandler {
     private static final Logger logger = Logger.getLogger(UnitsController.class.getName());
@@ -41,7 +67,21 @@ public class TimeSeriesController implements CrudHandler {
     private final Meter getOneRequest;
     private final Timer getOneRequestTime;
     private final Histogram requestResultSize;
+    private final Histogram batchSize;
     private final int defaultPageSize = 500;
+    private final int defaultMaxPoints = 1000;
+    // Check whether values changed before retrieving them, so polling clients can get a 304
+    private final boolean conditionalGet = Boolean.parseBoolean(System.getProperty("RADAR_TS_CONDITIONAL_GET", "true"));
+    // JSON v2 pages larger than this are written as rows arrive from the database instead of being collected first
+    private final int streamingPageSize = Integer.parseInt(System.getProperty("RADAR_TS_STREAM_PAGE_SIZE", "10000"));
+    // Batch retrievals run on the bulkhead's threads, or else on a shared pool, each series holds its own pooled connection while it is read
+    private static final ExecutorService batchExecutor = FanOut.newExecutor("radar-ts-batch",
+            Integer.parseInt(System.getProperty("RADAR_TS_BATCH_THREADS", "4")));
+    // series of a single batch request read at the same time
+    public static final int BATCH_CONCURRENCY = Integer.parseInt(System.getProperty("RADAR_TS_BATCH_CONCURRENCY", "4"));
+    private final int maxBatchSize = Integer.parseInt(System.getProperty("RADAR_TS_BATCH_MAX_SERIES", "500"));
+    // identical page requests arriving together, e.g. a popular gauge page, share one retrieval
+    private final SingleFlight<List<Object>,TimeSeries> timeseriesFlights;
 
     public TimeSeriesController(MetricRegistry metrics){
         this.metrics=metrics;
@@ -51,6 +91,8 @@ public class TimeSeriesController implements CrudHandler {
         getOneRequest = this.metrics.meter(name(className,"getOne","count"));
         getOneRequestTime = this.metrics.timer(name(className,"getOne","time"));
         requestResultSize = this.metrics.histogram((name(className,"results","size")));
+        batchSize = this.metrics.histogram(name(className,"batch","series"));
+        timeseriesFlights = new SingleFlight<>("timeseries", metrics, SingleFlight.TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     @OpenApi(tags = {"TimeSeries"}, ignore = true)
@@ -68,14 +110,16 @@ public class TimeSeriesController implements CrudHandler {
 
     @OpenApi(
         queryParams = {
-            @OpenApiParam(name="name", required=true, description="Specifies the name(s) of the time series whose data is to be included in the response. A case insensitive comparison is used to match names."),
+            @OpenApiParam(name="name", required=true, description="Specifies the name(s) of the time series whose data is to be included in the response. A case insensitive comparison is used to match names. Repeat the parameter to retrieve several time series at once, see group."),
+            @OpenApiParam(name="group", required=false, description="Retrieve every time series assigned to this time series group instead of name, office selects the assignments of one office. Several time series are only available as " + Formats.JSONV2 + ", as an object with a time-series array, in the order they were read, and an errors array listing the time series that could not be retrieved."),
+            @OpenApiParam(name="category", required=false, description="The category of group, if group names are not unique."),
             @OpenApiParam(name="office", required=false, description="Specifies the owning office of the location level(s) whose data is to be included in the response. If this field is not specified, matching location level information from all offices shall be returned."),
             @OpenApiParam(name="unit", required=false, description="Specifies the unit or unit system of the response. Valid values for the unit field are:\r\n 1. EN.   (default) Specifies English unit system.  Location level values will be in the default English units for their parameters.\r\n2. SI.   Specifies the SI unit system.  Location level values will be in the default SI units for their parameters.\r\n3. Other. Any unit returned in the response to the units URI request that is appropriate for the requested parameters."),
             @OpenApiParam(name="datum", required=false, description="Specifies the elevation datum of the response. This field affects only elevation location levels. Valid values for this field are:\r\n1. NAVD88.  The elevation values will in the specified or default units above the NAVD-88 datum.\r\n2. NGVD29.  The elevation values will be in the specified or default units above the NGVD-29 datum."),
             @OpenApiParam(name="begin", required=false, description="Specifies the start of the time window for data to be included in the response. If this field is not specified, any required time window begins 24 hours prior to the specified or default end time. The format for this field is ISO 8601 extended, with optional offset and timezone, i.e., 'YYYY-MM-dd'T'hh:mm:ss[Z'['VV']']', e.g., '2021-06-10T13:00:00-0700[PST8PDT]'."),
             @OpenApiParam(name="end", required=false, description="Specifies the end of the time window for data to be included in the response. If this field is not specified, any required time window ends at the current time. The format for this field is ISO 8601 extended, with optional timezone, i.e., 'YYYY-MM-dd'T'hh:mm:ss[Z'['VV']']', e.g., '2021-06-10T13:00:00-0700[PST8PDT]'."),
             @OpenApiParam(name="timezone", required=false, description="Specifies the time zone of the values of the begin and end fields (unless otherwise specified), as well as the time zone of any times in the response. If this field is not specified, the default time zone of UTC shall be used.\r\nIgnored if begin was specified with offset and timezone."),
-            @OpenApiParam(name="format", required=false, description="Specifies the encoding format of the response. Valid values for the format field for this URI are:\r\n1.    tab\r\n2.    csv\r\n3.    xml\r\n4.  wml2 (only if name field is specified)\r\n5.    json (default)"),
+            @OpenApiParam(name="format", required=false, description="Specifies the encoding format of the response. Valid values for the format field for this URI are:\r\n1.    tab\r\n2.    csv\r\n3.    xml\r\n4.  wml2 (only if name field is specified)\r\n5.    json (default)\r\n6.    cwms-ts (compact binary, application/x-cwms-ts)"),
             @OpenApiParam(name="page",
                           required = false,
                           description = "This end point can return a lot of data, this identifies where in the request you are. This is an opaque value, and can be obtained from the 'next-page' value in the response."
@@ -83,16 +127,27 @@ public class TimeSeriesController implements CrudHandler {
             @OpenApiParam(name="pageSize",
                           required=false,
                           type=Integer.class,
-                          description = "How many entries per page returned. Default " + defaultPageSize + "."
+                          description = "How many entries per page returned. Default " + defaultPageSize + ". Long windows requested with a large or negative (unlimited) page size are read in parallel chunks and report no total."
+            ),
+            @OpenApiParam(name="downsample",
+                          required=false,
+                          description = "Reduce the values to at most maxPoints for plotting, only for version 2 and cwms-ts formats. Valid values are:\r\n1. LTTB (default) Largest-Triangle-Three-Buckets, keeps the shape of the line.\r\n2. M4 First, smallest, largest and last value of each time bucket.\r\n3. MINMAX Smallest and largest value of each time bucket.\r\nThe reduced values are returned as a single page, total is the number of values before reduction."
+            ),
+            @OpenApiParam(name="maxPoints",
+                          required=false,
+                          type=Integer.class,
+                          description = "The most values to return when downsampling, at least " + Downsampler.MIN_POINTS + ". Default " + defaultMaxPoints + ". Implies downsample if given alone."
             )
         },
         responses = { @OpenApiResponse(status="200",
                                        description = "A list of elements of the data set you've selected.",
                                        content = {
                                            @OpenApiContent(from = TimeSeries.class, type=Formats.JSONV2),
-                                           @OpenApiContent(from = TimeSeries.class, type=Formats.XML)
+                                           @OpenApiContent(from = TimeSeries.class, type=Formats.XML),
+                                           @OpenApiContent(type=Formats.CWMS_TS)
                                        }
                       ),
+                      @OpenApiResponse(status="304", description = "The values have not changed since the version identified by If-None-Match or If-Modified-Since, only for requests with both begin and end"),
                       @OpenApiResponse(status="400", description = "Invalid parameter combination"),
                       @OpenApiResponse(status="404", description = "The provided combination of parameters did not find a timeseries."),
                       @OpenApiResponse(status="501",description = "Requested format is not implemented")
@@ -117,16 +172,73 @@ public class TimeSeriesController implements CrudHandler {
             // The following parameters are only used for jsonv2 and xmlv2
             String cursor = ctx.queryParam("cursor",String.class,ctx.queryParam("page",String.class,"").getValue()).getValue();
             int pageSize = ctx.queryParam("pageSize",Integer.class,ctx.queryParam("pagesize",String.class,Integer.toString(defaultPageSize)).getValue()).getValue();
+            String downsample = ctx.queryParam("downsample");
+            Integer maxPoints = ctx.queryParam("maxPoints",Integer.class).getOrNull();
 
             String acceptHeader = ctx.header(Header.ACCEPT);
             ContentType contentType = Formats.parseHeaderAndQueryParm(acceptHeader, format);
 
-            String results;
+            List<String> nameList = ctx.queryParams("name");
+            String group = ctx.queryParam("group");
+            if(group != null || nameList.size() > 1) {
+                if(downsample != null || maxPoints != null) {
+                    throw new IllegalArgumentException("downsample is not available when retrieving several time series");
+                }
+                List<AssignedTimeSeries> series;
+                if(group != null) {
+                    series = new TimeSeriesGroupDao(getDslContext(ctx)).getAssignedTimeSeries(office, ctx.queryParam("category"), group);
+                } else {
+                    series = nameList.stream()
+                        .map(n -> new AssignedTimeSeries(n, office, null, null, null, null))
+                        .collect(Collectors.toList());
+                }
+                getBatch(ctx, contentType, series, pageSize, unit, datum, begin, end, timezone);
+                return;
+            }
+
             String version = contentType.getParameters().get("version");
-            if(version != null && version.equals("2")) {
-                TimeSeries ts = cdm.getTimeseries(cursor, pageSize, names, office, unit, datum, begin, end, timezone);
+            boolean binary = Formats.CWMS_TS.equals(contentType.getType());
+            if((version != null && version.equals("2")) || binary) {
+                // Without an explicit window it moves with the clock and its tag could never match again,
+                // so the version query would only add a round trip
+                String etag = null;
+                if(conditionalGet && begin != null && end != null) {
+                    // For a window served from memory the tag describes the values in memory, and those are sent
+                    TimeSeriesVersion current = cdm.getTimeSeriesVersion(names, office, unit, begin, end, timezone);
+                    etag = ConditionalRequest.etag(contentType.toString(), ctx.queryString(), current.getKey());
+                    if(ConditionalRequest.notModified(ctx, etag, current.getLastModified())) {
+                        return;
+                    }
+                }
+
+                TimeSeries ts;
+                if(downsample != null || maxPoints != null) {
+                    Downsampler.Mode mode = downsample == null ? Downsampler.Mode.LTTB : Downsampler.Mode.of(downsample);
+                    int points = maxPoints == null ? defaultMaxPoints : maxPoints;
+                    if(points < Downsampler.MIN_POINTS) {
+                        throw new IllegalArgumentException("maxPoints must be at least " + Downsampler.MIN_POINTS);
+                    }
+                    // Reduced as the values stream from the database; buckets span the whole window so it is a single page
+                    TimeSeries full = cdm.getTimeseriesLazy(null, -1, names, office, unit, datum, begin, end, timezone, CwmsDataManager.DEFAULT_FETCH_SIZE);
+                    // a window read in chunks doesn't know its total until every value went through
+                    full.transformPendingValues(values -> Downsampler.downsample(values, mode,
+                            full.getBegin().toInstant().toEpochMilli(), full.getEnd().toInstant().toEpochMilli(), points,
+                            read -> {
+                                if(full.getTotal() == null) {
+                                    full.setTotal(read);
+                                }
+                            }));
+                    ts = full;
+                } else if((binary || Formats.JSONV2.equals(contentType.toString())) && (pageSize < 0 || pageSize > streamingPageSize)) {
+                    // The next page is only known after the values are written, so it is only reported in the body
+                    ts = cdm.getTimeseriesLazy(cursor, pageSize, names, office, unit, datum, begin, end, timezone, CwmsDataManager.DEFAULT_FETCH_SIZE);
+                } else {
+                    // only requests that were tagged alike share a body, so each gets the values its tag describes
+                    List<Object> key = Arrays.asList(ctx.attribute("office_id"), cursor, pageSize, names,
+                            office == null ? null : office.toUpperCase(), unit, datum, begin, end, timezone, etag);
+                    ts = timeseriesFlights.execute(key, () -> cdm.getTimeseries(cursor, pageSize, names, office, unit, datum, begin, end, timezone));
+                }
 
-                results = Formats.format(contentType, ts);
                 ctx.status(HttpServletResponse.SC_OK);
 
                 // Send back the link to the next page in the response header
@@ -139,34 +251,113 @@ public class TimeSeriesController implements CrudHandler {
                 }
 
                 ctx.header("Link", linkValue.toString());
-                ctx.result(results).contentType(contentType.toString());
+                ctx.contentType(contentType.toString());
+
+                // Write straight to the response, time series can be far too large to hold as a String
+                CountingOutputStream out = new CountingOutputStream(ctx.res.getOutputStream());
+                Formats.format(contentType, ts, out);
+                requestResultSize.update(out.getCount());
             }
             else {
-                results = cdm.getTimeseries(format == null || format.isEmpty() ? "json" : format,names,office,unit,datum,begin,end,timezone);
+                if(downsample != null || maxPoints != null) {
+                    throw new IllegalArgumentException("downsample is only available for version 2 and cwms-ts formats");
+                }
                 ctx.status(HttpServletResponse.SC_OK);
-                ctx.result(results);
+                // Copied as the CLOB is read, legacy documents can be several megabytes
+                CountingOutputStream out = new CountingOutputStream(ctx.res.getOutputStream());
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                cdm.getTimeseries(writer, format == null || format.isEmpty() ? "json" : format, names, office, unit, datum, begin, end, timezone);
+                writer.flush();
+                requestResultSize.update(out.getCount());
             }
-            requestResultSize.update(results.length());
         } catch (IllegalArgumentException ex) {
             logger.log(Level.SEVERE, null, ex);
-            ctx.status(HttpServletResponse.SC_BAD_REQUEST);
-            ctx.result("Invalid arguments supplied");
-        } catch (SQLException ex) {
+            fail(ctx, HttpServletResponse.SC_BAD_REQUEST, "Invalid arguments supplied");
+        } catch (SQLException | IOException | DataAccessException ex) {
             logger.log(Level.SEVERE, null, ex);
-            ctx.status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            ctx.result("Failed to process request");
+            fail(ctx, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Failed to process request");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            logger.log(Level.WARNING, "Interrupted while retrieving time series", ex);
+            fail(ctx, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Failed to process request");
+        } catch (TimeoutException ex) {
+            logger.log(Level.WARNING, ex.getMessage());
+            fail(ctx, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Failed to process request");
         } catch( FormattingException fe ){
             logger.log(Level.SEVERE,"failed to format data", fe);
             if( fe.getCause() instanceof IOException ){
-                ctx.status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-                ctx.result("server error");
+                fail(ctx, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "server error");
             } else {
-                ctx.status(HttpServletResponse.SC_BAD_REQUEST);
-                ctx.result("Invalid Format Options");
+                fail(ctx, HttpServletResponse.SC_BAD_REQUEST, "Invalid Format Options");
             }
         }
     }
 
+    /**
+     * Sets the error status and message, unless the values are already being streamed to the
+     * client; then the response is left to end where the failure stopped it.
+     */
+    private static void fail(Context ctx, int status, String message) {
+        if(ErrorResponse.canSend(ctx.res)) {
+            ctx.status(status);
+            ctx.result(message);
+        } else {
+            logger.log(Level.WARNING, "Response to " + ctx.req.getRequestURI() + " already started, ending it early");
+        }
+    }
+
+    /**
+     * Retrieves several time series at once. They are read in parallel, each with its own
+     * pooled connection, and written as soon as they are ready so the response starts with
+     * whichever series comes back first. A series that fails is listed under errors, the
+     * others are still returned.
+     */
+    private void getBatch(Context ctx, ContentType contentType, List<AssignedTimeSeries> series, int pageSize, String unit, String datum, String begin, String end, String timezone)
+            throws IOException, InterruptedException {
+        if(!Formats.JSONV2.equals(contentType.toString())) {
+            throw new IllegalArgumentException("Several time series can only be retrieved as " + Formats.JSONV2);
+        }
+        if(series.size() > maxBatchSize) {
+            throw new IllegalArgumentException("At most " + maxBatchSize + " time series can be retrieved at once");
+        }
+        DataSource dataSource = ctx.attribute("data_source");
+        if(dataSource == null) {
+            throw new IllegalStateException("No data source available for batch retrieval");
+        }
+        String sessionOffice = ctx.attribute("office_id");
+        Executor fanOut = ctx.attribute("fan_out");
+        batchSize.update(series.size());
+
+        ctx.status(HttpServletResponse.SC_OK);
+        ctx.contentType(contentType.toString());
+        CountingOutputStream out = new CountingOutputStream(ctx.res.getOutputStream());
+        List<Map<String,String>> errors = new ArrayList<>();
+        AtomicInteger written = new AtomicInteger();
+        out.write("{\"time-series\":[".getBytes(StandardCharsets.UTF_8));
+        FanOut.forEachCompleted(series, s -> {
+            try(CwmsDataManager cdm = new CwmsDataManager(LazyConnection.of(dataSource), sessionOffice)) {
+                return cdm.getTimeseries(null, pageSize, s.getTimeseriesId(), s.getOfficeId(), unit, datum, begin, end, timezone);
+            }
+        }, fanOut != null ? fanOut : batchExecutor, BATCH_CONCURRENCY, (s, ts, error) -> {
+            if(error != null) {
+                logger.log(Level.WARNING, "Failed to retrieve " + s.getTimeseriesId() + " in batch", error);
+                Map<String,String> entry = new LinkedHashMap<>();
+                entry.put("name", s.getTimeseriesId());
+                entry.put("office", s.getOfficeId());
+                entry.put("message", error instanceof IllegalArgumentException ? "Invalid arguments supplied" : "Failed to retrieve time series");
+                errors.add(entry);
+                return;
+            }
+            if(written.getAndIncrement() > 0) {
+                out.write(',');
+            }
+            Formats.format(contentType, ts, out);
+        });
+        out.write(("],\"errors\":" + JavalinJson.toJson(errors) + "}").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        requestResultSize.update(out.getCount());
+    }
+
     @OpenApi(tags = {"TimeSeries"}, ignore = true)
     @Override
     public void getOne(Context ctx, String id) {
@@ -0,0 +1,110 @@
+package cwms.radar.data;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import cwms.radar.data.dto.TimeSeries;
+import cwms.radar.data.dto.TimeSeriesValues;
+import cwms.radar.helpers.FanOut;
+
+/**
+ * Reads a long time window as a number of shorter ones.
+ *
+ * The window is split at multiples of a chunk length, so the boundaries fall on the same
+ * interval times whatever the requested window, and the chunks are read in parallel. Values
+ * are handed over in time order; only a few chunks are read ahead of the one being consumed,
+ * so a slow client holds back the reads instead of chunks piling up in memory.
+ */
+public final class ChunkedValues {
+
+    /**
+     * Reads the values of one chunk.
+     */
+    @FunctionalInterface
+    public interface ChunkFetcher {
+        /**
+         * @param from first date time, milliseconds since the Unix epoch
+         * @param to last date time, milliseconds since the Unix epoch
+         * @return the values between from and to, inclusive, in time order
+         */
+        TimeSeriesValues fetch(long from, long to) throws Exception;
+    }
+
+    private ChunkedValues() {
+    }
+
+    /**
+     * @param intervalMinutes interval of the time series, 0 if irregular
+     * @param valuesPerChunk values a chunk should hold for a regular time series
+     * @param irregularSpan chunk length for irregular time series, in milliseconds
+     * @return chunk length in milliseconds
+     */
+    public static long span(long intervalMinutes, int valuesPerChunk, long irregularSpan) {
+        return intervalMinutes > 0 ? intervalMinutes * 60_000L * valuesPerChunk : irregularSpan;
+    }
+
+    /**
+     * Splits from to to, both inclusive, at every multiple of span since the epoch.
+     * @return from and to of each chunk, in time order, a single chunk if span is not positive
+     */
+    public static List<long[]> split(long from, long to, long span) {
+        List<long[]> chunks = new ArrayList<>();
+        if(span <= 0) {
+            chunks.add(new long[]{from, to});
+            return chunks;
+        }
+        long start = from;
+        while(start <= to) {
+            long boundary = Math.floorDiv(start, span) * span + span;
+            long last = Math.min(boundary - 1, to);
+            chunks.add(new long[]{start, last});
+            start = boundary;
+        }
+        return chunks;
+    }
+
+    /**
+     * Reads the chunks on the executor, at most window of them at a time.
+     * @return the values of all chunks in time order, closing it cancels the reads still running
+     */
+    public static Stream<TimeSeries.Record> stream(List<long[]> chunks, ChunkFetcher fetcher, Executor executor, int window) {
+        FanOut.Ordered<long[],TimeSeriesValues> ordered = FanOut.ordered(chunks.iterator(),
+            chunk -> fetcher.fetch(chunk[0], chunk[1]), executor, window);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new Records(ordered), Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(ordered::close);
+    }
+
+    private static final class Records implements Iterator<TimeSeries.Record> {
+        private final Iterator<TimeSeriesValues> chunks;
+        private TimeSeriesValues current = null;
+        private int index = 0;
+
+        Records(Iterator<TimeSeriesValues> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while((current == null || index >= current.size()) && chunks.hasNext()) {
+                current = chunks.next();
+                index = 0;
+            }
+            return current != null && index < current.size();
+        }
+
+        @Override
+        public TimeSeries.Record next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.get(index++);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package cwms.radar.data;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import org.jooq.ConnectionProvider;
+import org.jooq.DSLContext;
+import org.jooq.exception.DataAccessException;
+
+/**
+ * Calls the legacy retrieval functions that return a whole document as a CLOB, e.g.
+ * CWMS_TS.RETRIEVE_TIME_SERIES_F, and copies the document to a writer as it is read.
+ *
+ * The generated routines hand the CLOB back as a String, so the whole document sits in memory,
+ * often several times over, before the first byte is sent. Here the result is bound as a
+ * java.sql.Clob and its character stream is copied through a fixed size buffer.
+ */
+public final class ClobCall {
+    // characters copied per read
+    static final int BUFFER_SIZE = 16 * 1024;
+
+    private ClobCall() {
+    }
+
+    /**
+     * @param function qualified name of the function
+     * @param arguments the arguments of the function in declaration order
+     */
+    public static void write(DSLContext dsl, Writer out, String function, String... arguments) throws IOException {
+        ConnectionProvider provider = dsl.configuration().connectionProvider();
+        Connection connection = provider.acquire();
+        try {
+            write(connection, out, function, arguments);
+        } finally {
+            provider.release(connection);
+        }
+    }
+
+    public static void write(Connection connection, Writer out, String function, String... arguments) throws IOException {
+        String sql = sql(function, arguments.length);
+        try(QueryMetrics.Statement timed = QueryMetrics.statement(name(function), sql)) {
+            try(CallableStatement call = connection.prepareCall(sql)) {
+                call.registerOutParameter(1, Types.CLOB);
+                for(int i = 0; i < arguments.length; i++) {
+                    call.setString(i + 2, arguments[i]);
+                }
+                timed.prepared();
+                call.execute();
+                timed.executed();
+                Clob clob = call.getClob(1);
+                if(clob == null) {
+                    timed.fetched(0);
+                    return;
+                }
+                try(Reader reader = clob.getCharacterStream()) {
+                    char[] buffer = new char[BUFFER_SIZE];
+                    int read;
+                    while((read = reader.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                } finally {
+                    clob.free();
+                }
+                timed.fetched(1);
+            } catch(SQLException err) {
+                timed.failed();
+                throw new DataAccessException("Failed to call " + function, err);
+            }
+        }
+    }
+
+    /**
+     * @return package.function, as QueryMetrics names the calls jOOQ renders
+     */
+    static String name(String function) {
+        int last = function.lastIndexOf('.');
+        int previous = last > 0 ? function.lastIndexOf('.', last - 1) : -1;
+        return function.substring(previous + 1);
+    }
+
+    static String sql(String function, int argumentCount) {
+        StringBuilder sql = new StringBuilder("begin ? := ").append(function).append('(');
+        for(int i = 0; i < argumentCount; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append("); end;").toString();
+    }
+}
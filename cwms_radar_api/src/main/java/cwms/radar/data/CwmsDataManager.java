@@ -1,5 +1,7 @@
 package cwms.radar.data;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -16,36 +18,40 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import javax.sql.DataSource;
+
+import cwms.radar.data.dao.JooqDao;
 import cwms.radar.data.dto.Catalog;
 import cwms.radar.data.dto.TimeSeries;
-import cwms.radar.data.dto.catalog.CatalogEntry;
+import cwms.radar.data.dto.TimeSeriesValues;
 import cwms.radar.data.dto.catalog.LocationAlias;
 import cwms.radar.data.dto.catalog.LocationCatalogEntry;
 import cwms.radar.data.dto.catalog.TimeseriesCatalogEntry;
+import cwms.radar.helpers.FanOut;
+import cwms.radar.helpers.TtlCache;
 import io.javalin.http.Context;
+import org.jooq.Condition;
+import org.jooq.Cursor;
 import org.jooq.DSLContext;
 import org.jooq.Field;
 import org.jooq.Record;
 import org.jooq.Record1;
+import org.jooq.Record2;
 import org.jooq.Record3;
-import org.jooq.Record5;
-import org.jooq.Result;
-import org.jooq.SQL;
-import org.jooq.SQLDialect;
+import org.jooq.Record4;
 import org.jooq.SelectConditionStep;
 import org.jooq.SelectJoinStep;
-import org.jooq.SelectSelectStep;
 import org.jooq.Table;
-import org.jooq.conf.ParamType;
+import org.jooq.exception.DataAccessException;
 import org.jooq.impl.DSL;
 
-import usace.cwms.db.jooq.codegen.packages.CWMS_CAT_PACKAGE;
-import usace.cwms.db.jooq.codegen.packages.CWMS_ENV_PACKAGE;
-import usace.cwms.db.jooq.codegen.packages.CWMS_LEVEL_PACKAGE;
-import usace.cwms.db.jooq.codegen.packages.CWMS_RATING_PACKAGE;
 import usace.cwms.db.jooq.codegen.packages.CWMS_ROUNDING_PACKAGE;
 import usace.cwms.db.jooq.codegen.packages.CWMS_TS_PACKAGE;
 import usace.cwms.db.jooq.codegen.packages.CWMS_UTIL_PACKAGE;
@@ -62,79 +68,155 @@ public class CwmsDataManager implements AutoCloseable {
     private static final Logger logger = Logger.getLogger("CwmsDataManager");
     public static final String FAILED = "Failed to process database request";
 
+    // Rows per round trip for time series values, the Oracle driver default of 10 is far too small for bulk reads
+    public static final int DEFAULT_FETCH_SIZE = Integer.parseInt(System.getProperty("RADAR_TS_FETCH_SIZE", "1000"));
+
+    private static final TtlCache<String,Integer> tsCatalogCounts = new TtlCache<>(
+            Long.parseLong(System.getProperty("RADAR_CATALOG_COUNT_TTL", "300")), TimeUnit.SECONDS, 1000);
+
+    // Recent values of frequently requested time series, a budget or span of 0 turns it off
+    private static final RecentValuesCache recentValues = new RecentValuesCache(
+            TimeUnit.DAYS.toMillis(Long.parseLong(System.getProperty("RADAR_TS_RECENT_DAYS", "7"))),
+            TimeUnit.SECONDS.toMillis(Long.parseLong(System.getProperty("RADAR_TS_RECENT_REFRESH", "15"))),
+            TimeUnit.MINUTES.toMillis(Long.parseLong(System.getProperty("RADAR_TS_RECENT_OVERLAP", "60"))),
+            TimeUnit.MINUTES.toMillis(Long.parseLong(System.getProperty("RADAR_TS_RECENT_RELOAD", "15"))),
+            Long.parseLong(System.getProperty("RADAR_TS_RECENT_BUDGET_MB", "64")) << 20);
+
+    // Long windows are read in parallel chunks of about this many values, each on a pooled connection of its own, 0 turns it off
+    private static final int CHUNK_VALUES = Integer.parseInt(System.getProperty("RADAR_TS_CHUNK_VALUES", "50000"));
+    // chunk length for irregular time series
+    private static final long IRREGULAR_CHUNK = TimeUnit.DAYS.toMillis(Long.parseLong(System.getProperty("RADAR_TS_CHUNK_DAYS", "365")));
+    // chunks of one request being read or waiting to be written
+    public static final int CHUNK_WINDOW = Integer.parseInt(System.getProperty("RADAR_TS_CHUNK_WINDOW", "3"));
+    // where chunks are read for a request that doesn't bring its bulkhead's threads
+    private static final ExecutorService chunkExecutor = FanOut.newExecutor("radar-ts-chunk",
+            Integer.parseInt(System.getProperty("RADAR_TS_CHUNK_THREADS", "8")));
+
+    private static final Field<Timestamp> DATE_TIME = DSL.field("DATE_TIME", Timestamp.class).as("DATE_TIME");
+    private static final Field<Double> VALUE = CWMS_ROUNDING_PACKAGE.call_ROUND_DD_F(DSL.field("VALUE", Double.class), DSL.inline("5567899996"), DSL.inline('T')).as("VALUE");
+    private static final Field<BigDecimal> QUALITY_CODE = CWMS_TS_PACKAGE.call_NORMALIZE_QUALITY(DSL.nvl(DSL.field("QUALITY_CODE", Integer.class), DSL.inline(5))).as("QUALITY_CODE");
+
     private Connection conn;
     private DSLContext dsl;
+    private final String sessionOfficeId;
+    // where long retrievals get connections for their chunks, null to read everything on conn
+    private final DataSource dataSource;
+    // where the chunks are read, null for the shared chunk threads
+    private final Executor fanOut;
+    // lazily read values that may not have been consumed when the request ends
+    private final List<AutoCloseable> openCursors = new ArrayList<>();
+    // the window a version was taken for and the recent values it was taken from, null if it was
+    // taken from the database, so the response sends the values its tag describes
+    private String versionKey;
+    private TimeSeriesValues versionValues;
 
     public CwmsDataManager(Context ctx) throws SQLException{
-        this(ctx.attribute("database"), ctx.attribute("office_id"));
+        this(ctx.attribute("database"), ctx.attribute("office_id"), ctx.attribute("data_source"), ctx.attribute("fan_out"));
     }
 
     public CwmsDataManager(Connection conn, String officeId) throws SQLException{
+        this(conn, officeId, null);
+    }
+
+    /**
+     * @param dataSource lets long time series retrievals read chunks on connections of their own, may be null
+     */
+    public CwmsDataManager(Connection conn, String officeId, DataSource dataSource) throws SQLException{
+        this(conn, officeId, dataSource, null);
+    }
+
+    /**
+     * @param fanOut where the chunks are read, null for threads shared by all requests
+     */
+    public CwmsDataManager(Connection conn, String officeId, DataSource dataSource, Executor fanOut) throws SQLException{
         this.conn = conn;
-        dsl = DSL.using(conn, SQLDialect.ORACLE11G);
+        this.sessionOfficeId = officeId;
+        this.dataSource = dataSource;
+        this.fanOut = fanOut;
+        dsl = JooqDao.using(conn);
 
         setOfficeId(officeId);
     }
 
-    private void setOfficeId(String officeId)
+    private void setOfficeId(String officeId) throws SQLException
     {
-        CWMS_ENV_PACKAGE.call_SET_SESSION_OFFICE_ID(dsl.configuration(), officeId);
+        LazyConnection.whenAcquired(conn, c -> JooqDao.setSessionOfficeId(c, officeId));
     }
 
     @Override
     public void close() throws SQLException {
+        for( AutoCloseable cursor: openCursors ){
+            try {
+                cursor.close();
+            } catch( Exception err ){
+                logger.log(Level.WARNING, "Failed to close time series cursor", err);
+            }
+        }
+        openCursors.clear();
         conn.close();
     }
 
 
 
-	public String getRatings(String names, String format, String unit, String datum, String office, String start,
-			String end, String timezone, String size) {
-        return CWMS_RATING_PACKAGE.call_RETRIEVE_RATINGS_F(dsl.configuration(),
+    /*
+     * The legacy retrievals that return a whole document, copied to out as the CLOB is read,
+     * see ClobCall.
+     */
+
+    public void getRatings(Writer out, String names, String format, String unit, String datum, String office, String start,
+            String end, String timezone) throws IOException {
+        ClobCall.write(conn, out, "CWMS_20.CWMS_RATING.RETRIEVE_RATINGS_F",
                 names, format, unit, datum, start, end, timezone, office);
-	}
+    }
 
-	public String getUnits(String format) {
-        return CWMS_CAT_PACKAGE.call_RETRIEVE_UNITS_F(dsl.configuration(), format);
-	}
+    public void getUnits(Writer out, String format) throws IOException {
+        ClobCall.write(conn, out, "CWMS_20.CWMS_CAT.RETRIEVE_UNITS_F", format);
+    }
 
-	public String getParameters(String format){
-        return CWMS_CAT_PACKAGE.call_RETRIEVE_PARAMETERS_F(dsl.configuration(), format);
+    public void getParameters(Writer out, String format) throws IOException {
+        ClobCall.write(conn, out, "CWMS_20.CWMS_CAT.RETRIEVE_PARAMETERS_F", format);
     }
 
-	public String getTimeZones(String format) {
-            return CWMS_CAT_PACKAGE.call_RETRIEVE_TIME_ZONES_F(dsl.configuration(), format);
+    public void getTimeZones(Writer out, String format) throws IOException {
+        ClobCall.write(conn, out, "CWMS_20.CWMS_CAT.RETRIEVE_TIME_ZONES_F", format);
     }
 
-	public String getLocationLevels(String format, String names, String office, String unit, String datum, String begin,
-			String end, String timezone) {
-        return CWMS_LEVEL_PACKAGE.call_RETRIEVE_LOCATION_LEVELS_F(dsl.configuration(),
-                names, format, office,unit,datum, begin, end, timezone);
+    public void getLocationLevels(Writer out, String format, String names, String office, String unit, String datum, String begin,
+            String end, String timezone) throws IOException {
+        ClobCall.write(conn, out, "CWMS_20.CWMS_LEVEL.RETRIEVE_LOCATION_LEVELS_F",
+                names, format, office, unit, datum, begin, end, timezone);
     }
 
-	public String getTimeseries(String format, String names, String office, String units, String datum, String begin,
-			String end, String timezone) {
-        return CWMS_TS_PACKAGE.call_RETRIEVE_TIME_SERIES_F(dsl.configuration(),
-                names, format, units,datum, begin, end, timezone, office);
-	}
+    public void getTimeseries(Writer out, String format, String names, String office, String units, String datum, String begin,
+            String end, String timezone) throws IOException {
+        ClobCall.write(conn, out, "CWMS_20.CWMS_TS.RETRIEVE_TIME_SERIES_F",
+                names, format, units, datum, begin, end, timezone, office);
+    }
 
     public TimeSeries getTimeseries(String page, int pageSize, String names, String office, String units, String datum, String begin, String end, String timezone) {
+        TimeSeries timeseries = getTimeseriesLazy(page, pageSize, names, office, units, datum, begin, end, timezone, DEFAULT_FETCH_SIZE);
+        timeseries.loadPendingValues();
+        return timeseries;
+    }
+
+    /**
+     * Retrieves the time series metadata, but leaves the values in an open database cursor.
+     * Values are read fetchSize rows at a time as the returned object is consumed,
+     * see {@link TimeSeries#forEachPendingValue}, so no intermediate result list is built.
+     * Any cursor not consumed is closed along with this manager.
+     * @param fetchSize number of rows the driver transfers per round trip
+     */
+    public TimeSeries getTimeseriesLazy(String page, int pageSize, String names, String office, String units, String datum, String begin, String end, String timezone, int fetchSize) {
         String cursor = null;
         Timestamp tsCursor = null;
         Integer total = null;
 
-        if(begin == null)
-            begin = ZonedDateTime.now().minusDays(1).toLocalDateTime().toString();
-        if(end == null)
-            end = ZonedDateTime.now().toLocalDateTime().toString();
-
         if(page != null && !page.isEmpty())
         {
             String[] parts = TimeSeries.decodeCursor(page);
 
-            logger.info("Decoded cursor");
-            for( String p: parts){
-                logger.info(p);
+            if(logger.isLoggable(Level.FINE)) {
+                logger.fine("Decoded cursor: " + String.join("||", parts));
             }
 
             if(parts.length > 1)
@@ -142,7 +224,8 @@ public class CwmsDataManager implements AutoCloseable {
                 cursor = parts[0];
                 tsCursor = Timestamp.from(Instant.ofEpochMilli(Long.parseLong(parts[0])));
 
-                if(parts.length > 2)
+                // chunked retrievals don't know the total
+                if(parts.length > 2 && !"null".equals(parts[1]))
                     total = Integer.parseInt(parts[1]);
 
                 // Use the pageSize from the original cursor, for consistent paging
@@ -150,6 +233,215 @@ public class CwmsDataManager implements AutoCloseable {
             }
         }
 
+        ZonedDateTime[] window = timeWindow(begin, end, timezone);
+        ZonedDateTime beginTime = window[0];
+        ZonedDateTime endTime = window[1];
+
+        TimeSeriesIdentity identity = resolveTimeSeries(names, office);
+        String unit = identity.unitsFor(units);
+
+        if(servesRecent(identity, unit, beginTime.toInstant().toEpochMilli(), endTime.toInstant().toEpochMilli())) {
+            return getRecentTimeseries(identity, names, unit, cursor, tsCursor, total, pageSize, beginTime, endTime);
+        }
+
+        if(dataSource != null && CHUNK_VALUES > 0 && (pageSize < 0 || pageSize > CHUNK_VALUES)) {
+            List<long[]> chunks = ChunkedValues.split(
+                tsCursor != null ? tsCursor.getTime() : beginTime.toInstant().toEpochMilli(),
+                endTime.toInstant().toEpochMilli(),
+                ChunkedValues.span(identity.getIntervalMinutes(), CHUNK_VALUES, IRREGULAR_CHUNK));
+            if(chunks.size() > 1) {
+                return getChunkedTimeseries(identity, unit, chunks, cursor, total, pageSize, beginTime, endTime);
+            }
+        }
+
+        Table<?> retrieveTable = retrieveTable(identity, unit, beginTime.toInstant().toEpochMilli(), endTime.toInstant().toEpochMilli());
+
+        try {
+            if(pageSize != 0) {
+                // Total and values in a single statement so the retrieval only runs once.
+                // The analytic count is taken before the page limit is applied.
+                SelectConditionStep<Record4<Integer,Timestamp,Double,BigDecimal>> query = dsl.select(
+                    // Total is only an estimate, as it can change if fetching current data, or the timeseries otherwise changes between queries.
+                    (total != null ? DSL.val(total) : DSL.count().over()).as("TOTAL"),
+                    DATE_TIME,
+                    VALUE,
+                    QUALITY_CODE
+                )
+                .from(retrieveTable)
+                .where(DSL.field("DATE_TIME", Timestamp.class)
+                    .greaterOrEqual(CWMS_UTIL_PACKAGE.call_TO_TIMESTAMP__2(
+                                        DSL.nvl(DSL.val(tsCursor == null ? null : tsCursor.toInstant().toEpochMilli()),
+                                                DSL.val(beginTime.toInstant().toEpochMilli())))))
+                .and(DSL.field("DATE_TIME", Timestamp.class)
+                    .lessOrEqual(CWMS_UTIL_PACKAGE.call_TO_TIMESTAMP__2(DSL.val(endTime.toInstant().toEpochMilli())))
+                );
+
+                if(pageSize > 0)
+                    query.limit(DSL.val(pageSize + 1));
+
+                Cursor<Record4<Integer,Timestamp,Double,BigDecimal>> rows = query.fetchSize(fetchSize).fetchLazy();
+                openCursors.add(rows);
+                Record first = rows.fetchNext();
+                if(first != null) {
+                    TimeSeries timeseries = toTimeSeries(identity, unit, first.getValue("TOTAL", Integer.class), cursor, pageSize, beginTime, endTime);
+                    timeseries.setPendingValues(Stream.<Record>concat(Stream.of(first), rows.stream())
+                        .map(CwmsDataManager::toTimeSeriesRecord));
+                    return timeseries;
+                }
+                // Nothing in range
+                rows.close();
+                openCursors.remove(rows);
+                if(total == null)
+                    total = 0;
+            }
+
+            if(total == null) {
+                // If we don't know the total, fetch it from the database (only for first fetch).
+                total = dsl.selectCount().from(retrieveTable).fetchOne(0, Integer.class);
+            }
+        } catch(DataAccessException err) {
+            // The series may have been renamed or deleted since it was resolved
+            TimeSeriesIdentity.invalidate(identity.getOfficeId(), names);
+            recentValues.invalidate(identity.getTsCode());
+            throw err;
+        }
+        return toTimeSeries(identity, unit, total, cursor, pageSize, beginTime, endTime);
+    }
+
+    /**
+     * Answers a request for recent values from memory, reading only what changed since the last
+     * request for the same time series, see {@link RecentValuesCache}.
+     */
+    private TimeSeries getRecentTimeseries(TimeSeriesIdentity identity, String names, String unit, String cursor, Timestamp tsCursor, Integer total, int pageSize, ZonedDateTime beginTime, ZonedDateTime endTime) {
+        long from = beginTime.toInstant().toEpochMilli();
+        long to = endTime.toInstant().toEpochMilli();
+        TimeSeriesValues values = readRecent(identity, names, unit, from, to);
+
+        TimeSeries timeseries = toTimeSeries(identity, unit, total != null ? total : values.size(), cursor, pageSize, beginTime, endTime);
+        if(pageSize != 0) {
+            setPendingValues(timeseries, values, tsCursor != null ? tsCursor.getTime() : from);
+        }
+        return timeseries;
+    }
+
+    /**
+     * @return true if the window is answered from the recent values; for the window of a version
+     *         the same answer as for the version, even if the clock has moved it in or out of them
+     */
+    private boolean servesRecent(TimeSeriesIdentity identity, String unit, long from, long to) {
+        if(identity.getTsCode() == null) {
+            return false;
+        }
+        if(recentKey(identity, unit, from, to).equals(versionKey)) {
+            return versionValues != null;
+        }
+        return recentValues.serves(from, to);
+    }
+
+    private static String recentKey(TimeSeriesIdentity identity, String unit, long from, long to) {
+        return identity.getTsCode().toPlainString() + "/" + unit + "/" + from + "/" + to;
+    }
+
+    /**
+     * Reads the window from the recent values, or takes what the version of the same window
+     * was taken from, see {@link #getTimeSeriesVersion}.
+     */
+    private TimeSeriesValues readRecent(TimeSeriesIdentity identity, String names, String unit, long from, long to) {
+        if(versionValues != null && recentKey(identity, unit, from, to).equals(versionKey)) {
+            return versionValues;
+        }
+        TimeSeriesValues values;
+        try {
+            values = recentValues.read(identity.getTsCode(), unit, from, to,
+                (f, t, sink) -> fetchValues(identity, unit, f, t, sink));
+        } catch(DataAccessException err) {
+            TimeSeriesIdentity.invalidate(identity.getOfficeId(), names);
+            throw err;
+        }
+        return values;
+    }
+
+    /**
+     * Hands the values from start on to the time series as pending values, so they are paged,
+     * downsampled and written the same way as values read from the database.
+     */
+    static void setPendingValues(TimeSeries timeseries, TimeSeriesValues values, long start) {
+        timeseries.setPendingValues(values.stream().filter(rec -> rec.getDateTime().getTime() >= start));
+    }
+
+    /**
+     * Reads a long window in chunks, in parallel on connections of their own, and hands the
+     * values over in time order as they are consumed, see {@link ChunkedValues}. The total is
+     * only known if the page cursor carries it.
+     */
+    private TimeSeries getChunkedTimeseries(TimeSeriesIdentity identity, String unit, List<long[]> chunks, String cursor, Integer total, int pageSize, ZonedDateTime beginTime, ZonedDateTime endTime) {
+        DataSource source = dataSource;
+        String officeId = sessionOfficeId;
+        Stream<TimeSeries.Record> values = ChunkedValues.stream(chunks, (from, to) -> {
+            try(CwmsDataManager chunk = new CwmsDataManager(LazyConnection.of(source), officeId)) {
+                TimeSeriesValues chunkValues = new TimeSeriesValues();
+                chunk.fetchValues(identity, unit, from, to, chunkValues::add);
+                return chunkValues;
+            }
+        }, fanOut != null ? fanOut : chunkExecutor, CHUNK_WINDOW);
+        openCursors.add(values);
+
+        TimeSeries timeseries = toTimeSeries(identity, unit, total, cursor, pageSize, beginTime, endTime);
+        timeseries.setPendingValues(values);
+        return timeseries;
+    }
+
+    /**
+     * Reads every value of the time series between from and to, inclusive.
+     */
+    private void fetchValues(TimeSeriesIdentity identity, String unit, long from, long to, RecentValuesCache.ValueSink sink) {
+        try(Cursor<Record3<Timestamp,Double,BigDecimal>> rows = dsl.select(DATE_TIME, VALUE, QUALITY_CODE)
+                .from(retrieveTable(identity, unit, from, to))
+                .fetchSize(DEFAULT_FETCH_SIZE)
+                .fetchLazy()) {
+            for(Record3<Timestamp,Double,BigDecimal> row: rows) {
+                sink.add(row.value1().getTime(), row.value2(), row.value3().intValue());
+            }
+        }
+    }
+
+    /**
+     * The retrieval function as a table, converted to unit.
+     * @param from start of the window, milliseconds since the Unix epoch
+     * @param to end of the window, milliseconds since the Unix epoch
+     */
+    private static Table<?> retrieveTable(TimeSeriesIdentity identity, String unit, long from, long to) {
+        // This code assumes the database timezone is in UTC (per Oracle recommendation)
+        // Wrap in table() so JOOQ can parse the result, the arguments stay bind values
+        return DSL.table("table({0})", CWMS_TS_PACKAGE.call_RETRIEVE_TS_OUT_TAB(
+            DSL.val(identity.getName()),
+            DSL.val(unit),
+            CWMS_UTIL_PACKAGE.call_TO_TIMESTAMP__2(DSL.val(from)),
+            CWMS_UTIL_PACKAGE.call_TO_TIMESTAMP__2(DSL.val(to)),
+            DSL.inline("UTC", String.class),    // All times are sent as UTC to the database, regardless of requested timezone.
+            null,
+            null,
+            null,
+            null,
+            null,
+            null,
+            null,
+            DSL.val(identity.getOfficeId()))
+        );
+    }
+
+    /**
+     * Parses the requested time window the way the time series retrieval does.
+     * @param begin defaults to 24 hours before now
+     * @param end defaults to now
+     * @return begin and end
+     */
+    private static ZonedDateTime[] timeWindow(String begin, String end, String timezone) {
+        if(begin == null)
+            begin = ZonedDateTime.now().minusDays(1).toLocalDateTime().toString();
+        if(end == null)
+            end = ZonedDateTime.now().toLocalDateTime().toString();
+
         ZoneId zone = timezone == null ? ZoneOffset.UTC.normalized() : ZoneId.of(timezone);
 
         // Parse the date time in the best format it can find. Timezone is optional, but use it if it's found.
@@ -163,145 +455,190 @@ public class CwmsDataManager implements AutoCloseable {
         if(timezone == null) {
             if(beginTime.getZone().equals(beginTime.getOffset()))
                 throw new IllegalArgumentException("Time cannot contain only an offset without the timezone.");
-            // If no timezone was found, get it from begin_time
-            zone = beginTime.getZone();
         }
+        return new ZonedDateTime[]{beginTime, endTime};
+    }
+
+    /**
+     * A cheap summary of what would be returned for the time series in the window: the
+     * number of values and when the latest of them was stored. Either changes when values
+     * are added, updated or deleted, without running the retrieval itself.
+     *
+     * A window answered from the recent values in memory, which can lag the database, is
+     * summarized by a hash of those values instead, and a later retrieval of the same window
+     * on this manager sends exactly them. Its last modified time is unknown.
+     */
+    public TimeSeriesVersion getTimeSeriesVersion(String names, String office, String units, String begin, String end, String timezone) {
+        ZonedDateTime[] window = timeWindow(begin, end, timezone);
+        TimeSeriesIdentity identity = resolveTimeSeries(names, office);
+
+        long from = window[0].toInstant().toEpochMilli();
+        long to = window[1].toInstant().toEpochMilli();
+        String unit = identity.unitsFor(units);
+        if(servesRecent(identity, unit, from, to)) {
+            TimeSeriesValues values = readRecent(identity, names, unit, from, to);
+            versionKey = recentKey(identity, unit, from, to);
+            versionValues = values;
+            return new TimeSeriesVersion(identity, window[0].toInstant(), window[1].toInstant(), null, values.size(), values.fingerprint());
+        }
+        if(identity.getTsCode() != null) {
+            versionKey = recentKey(identity, unit, from, to);
+            versionValues = null;
+        }
+
+        Field<Timestamp> dateTime = DSL.field(DSL.name("DATE_TIME"), Timestamp.class);
+        Field<Timestamp> entryDate = DSL.field(DSL.name("DATA_ENTRY_DATE"), Timestamp.class);
+        Record2<Timestamp,Integer> version = dsl.select(DSL.max(entryDate), DSL.count())
+            .from(DSL.table(DSL.name("CWMS_20", "AV_TSV")))
+            .where(DSL.field(DSL.name("TS_CODE"), BigDecimal.class).eq(identity.getTsCode()))
+            .and(dateTime.between(
+                CWMS_UTIL_PACKAGE.call_TO_TIMESTAMP__2(DSL.val(window[0].toInstant().toEpochMilli())),
+                CWMS_UTIL_PACKAGE.call_TO_TIMESTAMP__2(DSL.val(window[1].toInstant().toEpochMilli()))))
+            .fetchOne();
+
+        // stored in UTC like every other date in the database
+        Timestamp latest = version.value1();
+        return new TimeSeriesVersion(identity,
+            window[0].toInstant(),
+            window[1].toInstant(),
+            latest == null ? null : latest.toLocalDateTime().toInstant(ZoneOffset.UTC),
+            version.value2());
+    }
 
-        final String recordCursor = cursor;
-        final int recordPageSize = pageSize;
+    /**
+     * Resolves the office, identifier, code, interval and default units of a time series,
+     * from the cache when possible.
+     * @param office requested office, null for the session office
+     */
+    public TimeSeriesIdentity resolveTimeSeries(String names, String office) {
+        String key = TimeSeriesIdentity.key(office != null ? office : sessionOfficeId, names);
+        TimeSeriesIdentity identity = TimeSeriesIdentity.cached(key);
+        if(identity != null) {
+            return identity;
+        }
 
         Field<String> officeId = CWMS_UTIL_PACKAGE.call_GET_DB_OFFICE_ID(office != null ? DSL.val(office) : CWMS_UTIL_PACKAGE.call_USER_OFFICE_ID());
         Field<String> tsId = CWMS_TS_PACKAGE.call_GET_TS_ID__2(DSL.val(names), officeId);
         Field<BigDecimal> tsCode = CWMS_TS_PACKAGE.call_GET_TS_CODE__2(tsId, officeId);
-        Field<String> unit = units.compareToIgnoreCase("SI") == 0 || units.compareToIgnoreCase("EN") == 0 ?
-            CWMS_UTIL_PACKAGE.call_GET_DEFAULT_UNITS(CWMS_TS_PACKAGE.call_GET_BASE_PARAMETER_ID(tsCode), DSL.val(units, String.class)) :
-            DSL.val(units, String.class);
-
-        // This code assumes the database timezone is in UTC (per Oracle recommendation)
-        // Wrap in table() so JOOQ can parse the result
-        @SuppressWarnings("deprecated")
-        SQL retrieveTable = DSL.sql("table(" + CWMS_TS_PACKAGE.call_RETRIEVE_TS_OUT_TAB(
-            tsId,
-            unit,
-            CWMS_UTIL_PACKAGE.call_TO_TIMESTAMP__2(DSL.val(beginTime.toInstant().toEpochMilli())),
-            CWMS_UTIL_PACKAGE.call_TO_TIMESTAMP__2(DSL.val(endTime.toInstant().toEpochMilli())),
-            DSL.inline("UTC", String.class),    // All times are sent as UTC to the database, regardless of requested timezone.
-            null,
-            null,
-            null,
-            null,
-            null,
-            null,
-            null,
-            officeId) + ")"
-        );
+        Field<String> baseParameter = CWMS_TS_PACKAGE.call_GET_BASE_PARAMETER_ID(tsCode);
 
-        SelectSelectStep<Record5<String,String,String,BigDecimal,Integer>> metadataQuery = dsl.select(
-            tsId.as("NAME"),
+        identity = dsl.select(
             officeId.as("OFFICE_ID"),
-            unit.as("UNITS"),
+            tsId.as("NAME"),
+            tsCode.as("TS_CODE"),
             CWMS_TS_PACKAGE.call_GET_INTERVAL(tsId).as("INTERVAL"),
-            // If we don't know the total, fetch it from the database (only for first fetch).
-            // Total is only an estimate, as it can change if fetching current data, or the timeseries otherwise changes between queries.
-            total != null ? DSL.val(total).as("TOTAL") : DSL.selectCount().from(retrieveTable).asField("TOTAL")
-        );
-
-        logger.info( metadataQuery.getSQL(ParamType.INLINED));
-
-        TimeSeries timeseries = metadataQuery.fetchOne(tsMetadata ->
-                new TimeSeries(recordCursor,
-                    recordPageSize,
-                    tsMetadata.getValue("TOTAL", Integer.class),
-                    tsMetadata.getValue("NAME", String.class),
-                    tsMetadata.getValue("OFFICE_ID", String.class),
-                    beginTime,
-                    endTime,
-                    tsMetadata.getValue("UNITS", String.class),
-                    Duration.ofMinutes(tsMetadata.get("INTERVAL") == null ? 0 : tsMetadata.getValue("INTERVAL", Long.class)))
+            CWMS_UTIL_PACKAGE.call_GET_DEFAULT_UNITS(baseParameter, DSL.inline("SI", String.class)).as("SI_UNITS"),
+            CWMS_UTIL_PACKAGE.call_GET_DEFAULT_UNITS(baseParameter, DSL.inline("EN", String.class)).as("EN_UNITS")
+        ).fetchOne(r -> new TimeSeriesIdentity(
+            r.getValue("OFFICE_ID", String.class),
+            r.getValue("NAME", String.class),
+            r.getValue("TS_CODE", BigDecimal.class),
+            r.get("INTERVAL") == null ? 0 : r.getValue("INTERVAL", Long.class),
+            r.getValue("SI_UNITS", String.class),
+            r.getValue("EN_UNITS", String.class))
         );
 
-        if(pageSize != 0) {
-            SelectConditionStep<Record3<Timestamp, Double, BigDecimal>> query = dsl.select(
-                DSL.field("DATE_TIME", Timestamp.class).as("DATE_TIME"),
-                CWMS_ROUNDING_PACKAGE.call_ROUND_DD_F(DSL.field("VALUE", Double.class), DSL.inline("5567899996"), DSL.inline('T')).as("VALUE"),
-                CWMS_TS_PACKAGE.call_NORMALIZE_QUALITY(DSL.nvl(DSL.field("QUALITY_CODE", Integer.class), DSL.inline(5))).as("QUALITY_CODE")
-            )
-            .from(retrieveTable)
-            .where(DSL.field("DATE_TIME", Timestamp.class)
-                .greaterOrEqual(CWMS_UTIL_PACKAGE.call_TO_TIMESTAMP__2(
-                                    DSL.nvl(DSL.val(tsCursor == null ? null : tsCursor.toInstant().toEpochMilli()),
-                                            DSL.val(beginTime.toInstant().toEpochMilli())))))
-            .and(DSL.field("DATE_TIME", Timestamp.class)
-                .lessOrEqual(CWMS_UTIL_PACKAGE.call_TO_TIMESTAMP__2(DSL.val(endTime.toInstant().toEpochMilli())))
-            );
-
-            if(pageSize > 0)
-                query.limit(DSL.val(pageSize + 1));
-
-            logger.info( query.getSQL(ParamType.INLINED));
-
-            query.fetchInto(tsRecord -> {
-                    timeseries.addValue(
-                        tsRecord.getValue("DATE_TIME", Timestamp.class),
-                        tsRecord.getValue("VALUE", Double.class),
-                        tsRecord.getValue("QUALITY_CODE", Integer.class)
-                    );
-                }
-            );
+        TimeSeriesIdentity.store(key, identity);
+        if(office == null) {
+            // later requests for the resolved office can use it too
+            TimeSeriesIdentity.store(TimeSeriesIdentity.key(identity.getOfficeId(), names), identity);
         }
-        return timeseries;
+        return identity;
+    }
+
+    private static TimeSeries toTimeSeries(TimeSeriesIdentity identity, String units, Integer total, String cursor, int pageSize, ZonedDateTime beginTime, ZonedDateTime endTime) {
+        return new TimeSeries(cursor,
+            pageSize,
+            total,
+            identity.getName(),
+            identity.getOfficeId(),
+            beginTime,
+            endTime,
+            units,
+            Duration.ofMinutes(identity.getIntervalMinutes()));
+    }
+
+    private static TimeSeries.Record toTimeSeriesRecord(Record tsRecord) {
+        return new TimeSeries.Record(
+            tsRecord.getValue("DATE_TIME", Timestamp.class),
+            tsRecord.getValue("VALUE", Double.class),
+            tsRecord.getValue("QUALITY_CODE", Integer.class));
     }
 
+    /**
+     * Keyset paged catalog of time series identifiers, ordered by office then upper case identifier.
+     *
+     * The cursor holds the office and identifier of the last entry returned, so each page is a
+     * range scan that starts right after the previous one instead of skipping rows.
+     * @param page cursor from a previous page, null or empty for the first page
+     */
     public Catalog getTimeSeriesCatalog(String page, int pageSize, Optional<String> office){
-        int total = 0;
-        String tsCursor = "*";
-        if( page == null || page.isEmpty() ){
-            SelectJoinStep<Record1<Integer>> count = dsl.select(count(asterisk())).from(AV_CWMS_TS_ID2);
-            if( office.isPresent() ){
-                count.where(AV_CWMS_TS_ID2.DB_OFFICE_ID.eq(office.get()));
-            }
-            total = count.fetchOne().value1().intValue();
-        } else {
-            logger.info("getting non-default page");
-            // get totally from page
+        Optional<String> officeId = office.map(String::toUpperCase);
+        Integer total = null;
+        String lastOffice = null;
+        String lastTsId = null;
+        if( page != null && !page.isEmpty() ){
             String[] parts = Catalog.decodeCursor(page, "|||");
-
-            logger.info("decoded cursor: " + String.join("|||", parts));
-            for( String p: parts){
-                logger.info(p);
+            if( parts.length < 2 ){
+                throw new IllegalArgumentException("Invalid catalog cursor");
             }
-
-            if(parts.length > 1) {
-                tsCursor = parts[0].split("\\/")[1];
-                total = Integer.parseInt(parts[1]);
+            lastOffice = parts[0];
+            lastTsId = parts[1];
+            if( parts.length > 2 ){
+                total = Integer.valueOf(parts[2]);
             }
         }
+        if( total == null ){
+            total = timeSeriesCount(officeId);
+        }
+
+        // The same expressions are used to filter and to order, so the cursor comparison
+        // matches the sort order exactly and the database can walk an index on them.
+        Field<String> officeKey = AV_CWMS_TS_ID2.DB_OFFICE_ID;
+        Field<String> tsIdKey = AV_CWMS_TS_ID2.CWMS_TS_ID.upper();
 
-        SelectJoinStep<Record3<String, String, String>> query = dsl.select(
+        Condition condition = DSL.trueCondition();
+        if( officeId.isPresent() ){
+            condition = condition.and(officeKey.eq(officeId.get()));
+        }
+        if( lastTsId != null ){
+            condition = condition.and(DSL.row(officeKey, tsIdKey).gt(lastOffice, lastTsId));
+        }
+
+        List<TimeseriesCatalogEntry> entries = dsl.select(
                                         AV_CWMS_TS_ID2.DB_OFFICE_ID,
                                         AV_CWMS_TS_ID2.CWMS_TS_ID,
                                         AV_CWMS_TS_ID2.UNIT_ID
                                     )
-                                .from(AV_CWMS_TS_ID2);
-
-        if( office.isPresent() ){
-            query.where(AV_CWMS_TS_ID2.DB_OFFICE_ID.upper().eq(office.get().toUpperCase()))
-                 .and(AV_CWMS_TS_ID2.CWMS_TS_ID.upper().greaterThan(tsCursor));
-        } else {
-            query.where(AV_CWMS_TS_ID2.CWMS_TS_ID.upper().gt(tsCursor));
+                                .from(AV_CWMS_TS_ID2)
+                                .where(condition)
+                                .orderBy(officeKey, tsIdKey)
+                                .limit(pageSize)
+                                .fetch( e -> new TimeseriesCatalogEntry(e.get(AV_CWMS_TS_ID2.DB_OFFICE_ID),
+                                                                        e.get(AV_CWMS_TS_ID2.CWMS_TS_ID),
+                                                                        e.get(AV_CWMS_TS_ID2.UNIT_ID) )
+                                );
+
+        String nextPage = null;
+        if( entries.size() == pageSize ){
+            TimeseriesCatalogEntry last = entries.get(entries.size()-1);
+            nextPage = Catalog.encodeCursor("|||", last.getOffice(), last.getTsName().toUpperCase(), total);
         }
-        query.orderBy(AV_CWMS_TS_ID2.CWMS_TS_ID).limit(pageSize);
-        logger.info( query.getSQL(ParamType.INLINED));
-        Result<Record3<String, String, String>> result = query.fetch();
-        List<? extends CatalogEntry> entries = result.stream()
-                //.map( e -> e.into(usace.cwms.db.jooq.codegen.tables.records.AV_CWMS_TIMESERIES_ID2) )
-                .map( e -> new TimeseriesCatalogEntry(e.get(AV_CWMS_TS_ID2.DB_OFFICE_ID),
-                                                      e.get(AV_CWMS_TS_ID2.CWMS_TS_ID),
-                                                      e.get(AV_CWMS_TS_ID2.UNIT_ID) )
-                )
-                .collect(Collectors.toList());
-        Catalog cat = new Catalog(tsCursor,total,pageSize,entries);
-        return cat;
+        return new Catalog(page, total, pageSize, entries, nextPage);
+    }
+
+    /**
+     * Counting every time series is expensive and the number rarely changes, so it is cached
+     * for RADAR_CATALOG_COUNT_TTL seconds; 0 counts every time.
+     */
+    private Integer timeSeriesCount(Optional<String> officeId){
+        return tsCatalogCounts.get(officeId.orElse("*"), () -> {
+            SelectJoinStep<Record1<Integer>> count = dsl.select(count(asterisk())).from(AV_CWMS_TS_ID2);
+            if( officeId.isPresent() ){
+                count.where(AV_CWMS_TS_ID2.DB_OFFICE_ID.eq(officeId.get()));
+            }
+            return count.fetchOne().value1();
+        });
     }
 
 
@@ -0,0 +1,394 @@
+package cwms.radar.data;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import cwms.radar.data.dto.TimeSeries;
+
+/**
+ * Reduces time series values to at most a given number of points as they stream past.
+ *
+ * The requested window is divided into equal time buckets and only a few values per bucket
+ * are kept, so memory is proportional to the number of points returned rather than read.
+ * Values are passed on in time order, unchanged. Missing values are never chosen, but a bucket
+ * that only holds missing values keeps its first one so gaps still show up in a plot.
+ */
+public final class Downsampler {
+
+    public enum Mode {
+        /** smallest and largest value of each bucket, two points per bucket */
+        MINMAX(2),
+        /** first, smallest, largest and last value of each bucket, draws the same line as the full data at one bucket per pixel */
+        M4(4),
+        /** Largest-Triangle-Three-Buckets, one point per bucket that best preserves the shape of the line */
+        LTTB(1);
+
+        private final int pointsPerBucket;
+
+        Mode(int pointsPerBucket) {
+            this.pointsPerBucket = pointsPerBucket;
+        }
+
+        /**
+         * @return the mode named by value, ignoring case
+         * @throws IllegalArgumentException if there is no such mode
+         */
+        public static Mode of(String value) {
+            for( Mode mode: values() ){
+                if( mode.name().equalsIgnoreCase(value) ){
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("Unknown downsample mode " + value);
+        }
+    }
+
+    // room for one full M4 bucket
+    public static final int MIN_POINTS = 4;
+
+    private Downsampler() {
+    }
+
+    /**
+     * @param values records in time order; closed when the returned stream is closed
+     * @param begin start of the requested window, milliseconds since the Unix epoch
+     * @param end end of the requested window, milliseconds since the Unix epoch
+     * @param maxPoints the most points to return
+     * @return the reduced values, read lazily from values
+     */
+    public static Stream<TimeSeries.Record> downsample(Stream<TimeSeries.Record> values, Mode mode, long begin, long end, int maxPoints) {
+        return downsample(values, mode, begin, end, maxPoints, read -> { });
+    }
+
+    /**
+     * @param read receives the number of values read before reduction, once all of them were read
+     * @see #downsample(Stream, Mode, long, long, int)
+     */
+    public static Stream<TimeSeries.Record> downsample(Stream<TimeSeries.Record> values, Mode mode, long begin, long end, int maxPoints, IntConsumer read) {
+        if( maxPoints < MIN_POINTS ){
+            throw new IllegalArgumentException("maxPoints must be at least " + MIN_POINTS);
+        }
+        Reducer reducer;
+        if( mode == Mode.LTTB ){
+            // first and last value are kept on their own
+            reducer = new LargestTriangle(new Buckets(begin, end, maxPoints - 2));
+        } else {
+            reducer = new Extremes(new Buckets(begin, end, Math.max(1, maxPoints / mode.pointsPerBucket)), mode == Mode.M4);
+        }
+        Iterator<TimeSeries.Record> input = values.iterator();
+        Spliterator<TimeSeries.Record> output = new Spliterators.AbstractSpliterator<TimeSeries.Record>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            private final Deque<TimeSeries.Record> ready = new ArrayDeque<>();
+            private boolean finished = false;
+            private int count = 0;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super TimeSeries.Record> action) {
+                while( ready.isEmpty() && !finished ){
+                    if( input.hasNext() ){
+                        reducer.accept(input.next(), ready);
+                        count++;
+                    } else {
+                        reducer.finish(ready);
+                        finished = true;
+                        read.accept(count);
+                    }
+                }
+                if( ready.isEmpty() ){
+                    return false;
+                }
+                action.accept(ready.poll());
+                return true;
+            }
+        };
+        return StreamSupport.stream(output, false).onClose(values::close);
+    }
+
+    /**
+     * Equal width time buckets over the requested window, values outside of it go to the nearest end.
+     */
+    private static final class Buckets {
+        private final long begin;
+        private final double width;
+        private final int count;
+
+        Buckets(long begin, long end, int count) {
+            this.begin = begin;
+            this.count = count;
+            this.width = Math.max(1.0, (end - begin) / (double) count);
+        }
+
+        int indexOf(long dateTime) {
+            long index = (long) Math.floor((dateTime - begin) / width);
+            return (int) Math.max(0, Math.min(count - 1, index));
+        }
+    }
+
+    private abstract static class Reducer {
+        abstract void accept(TimeSeries.Record rec, Deque<TimeSeries.Record> out);
+
+        abstract void finish(Deque<TimeSeries.Record> out);
+    }
+
+    /**
+     * MINMAX and M4, each bucket is emitted as soon as a value from a later bucket arrives.
+     */
+    private static final class Extremes extends Reducer {
+        private final Buckets buckets;
+        private final boolean keepEnds;
+        private int index = -1;
+        private TimeSeries.Record first;
+        private TimeSeries.Record last;
+        private TimeSeries.Record min;
+        private TimeSeries.Record max;
+        private TimeSeries.Record firstMissing;
+
+        Extremes(Buckets buckets, boolean keepEnds) {
+            this.buckets = buckets;
+            this.keepEnds = keepEnds;
+        }
+
+        @Override
+        void accept(TimeSeries.Record rec, Deque<TimeSeries.Record> out) {
+            int i = buckets.indexOf(rec.getDateTime().getTime());
+            if( i != index ){
+                finish(out);
+                index = i;
+            }
+            Double value = rec.getValue();
+            if( value == null ){
+                if( firstMissing == null ){
+                    firstMissing = rec;
+                }
+                return;
+            }
+            if( first == null ){
+                first = rec;
+            }
+            last = rec;
+            if( min == null || value < min.getValue() ){
+                min = rec;
+            }
+            if( max == null || value > max.getValue() ){
+                max = rec;
+            }
+        }
+
+        @Override
+        void finish(Deque<TimeSeries.Record> out) {
+            if( first == null ){
+                if( firstMissing != null ){
+                    out.add(firstMissing);
+                }
+            } else {
+                List<TimeSeries.Record> kept = new ArrayList<>(4);
+                if( keepEnds ){
+                    kept.add(first);
+                }
+                kept.add(min);
+                kept.add(max);
+                if( keepEnds ){
+                    kept.add(last);
+                }
+                kept.sort((a, b) -> a.getDateTime().compareTo(b.getDateTime()));
+                TimeSeries.Record previous = null;
+                for( TimeSeries.Record rec: kept ){
+                    if( rec != previous ){
+                        out.add(rec);
+                    }
+                    previous = rec;
+                }
+            }
+            first = last = min = max = firstMissing = null;
+        }
+    }
+
+    /**
+     * Streaming Largest-Triangle-Three-Buckets.
+     *
+     * The point picked from a bucket is the one forming the largest triangle with the point
+     * picked before it and the average of the next bucket, so a bucket is decided once the next
+     * bucket holding values is complete. The triangle area is linear in the candidate for a
+     * fixed pair of other corners, so its largest magnitude is found on the convex hull of the
+     * bucket; only the hull is kept, built incrementally since values arrive in time order.
+     */
+    private static final class LargestTriangle extends Reducer {
+        private final Buckets buckets;
+        // closed buckets waiting for the next bucket with values
+        private final Deque<Bucket> waiting = new ArrayDeque<>();
+        private Bucket current;
+        private TimeSeries.Record firstValue;
+        private TimeSeries.Record lastValue;
+        private TimeSeries.Record previous;
+
+        LargestTriangle(Buckets buckets) {
+            this.buckets = buckets;
+        }
+
+        @Override
+        void accept(TimeSeries.Record rec, Deque<TimeSeries.Record> out) {
+            int i = buckets.indexOf(rec.getDateTime().getTime());
+            if( current == null || i != current.index ){
+                close(out);
+                current = new Bucket(i);
+            }
+            if( rec.getValue() == null ){
+                if( current.firstMissing == null ){
+                    current.firstMissing = rec;
+                }
+                return;
+            }
+            if( firstValue == null ){
+                firstValue = rec;
+                previous = rec;
+                current.anchor = rec;
+            }
+            current.add(rec);
+            lastValue = rec;
+        }
+
+        @Override
+        void finish(Deque<TimeSeries.Record> out) {
+            close(out);
+            Bucket last = waiting.pollFirst();
+            if( last != null ){
+                // the only bucket left with values, it ends at the last value
+                decide(last, new Point(lastValue.getDateTime().getTime(), lastValue.getValue(), lastValue), out);
+                if( lastValue != firstValue ){
+                    out.add(lastValue);
+                }
+            }
+            // anything still waiting only holds missing values
+            for( Bucket bucket: waiting ){
+                out.add(bucket.firstMissing);
+            }
+            waiting.clear();
+        }
+
+        private void close(Deque<TimeSeries.Record> out) {
+            if( current == null ){
+                return;
+            }
+            waiting.add(current);
+            current = null;
+            while( !waiting.isEmpty() ){
+                Bucket head = waiting.peekFirst();
+                if( !head.hasValues() ){
+                    out.add(waiting.pollFirst().firstMissing);
+                    continue;
+                }
+                Bucket next = null;
+                for( Bucket bucket: waiting ){
+                    if( bucket != head && bucket.hasValues() ){
+                        next = bucket;
+                        break;
+                    }
+                }
+                if( next == null ){
+                    break;
+                }
+                waiting.pollFirst();
+                decide(head, next.average(), out);
+            }
+        }
+
+        /**
+         * Emits the point of bucket with the largest triangle between the previous pick and next.
+         */
+        private void decide(Bucket bucket, Point next, Deque<TimeSeries.Record> out) {
+            if( bucket.anchor != null ){
+                out.add(bucket.anchor);
+            }
+            double ax = previous.getDateTime().getTime();
+            double ay = previous.getValue();
+            TimeSeries.Record best = null;
+            double bestArea = -1;
+            for( Point p: bucket.hull() ){
+                if( p.rec == firstValue || p.rec == lastValue ){
+                    continue;
+                }
+                double area = Math.abs((ax - next.x) * (p.y - ay) - (ax - p.x) * (next.y - ay));
+                if( area > bestArea ){
+                    bestArea = area;
+                    best = p.rec;
+                }
+            }
+            if( best != null ){
+                out.add(best);
+                previous = best;
+            }
+        }
+    }
+
+    private static final class Point {
+        final double x;
+        final double y;
+        final TimeSeries.Record rec;
+
+        Point(double x, double y, TimeSeries.Record rec) {
+            this.x = x;
+            this.y = y;
+            this.rec = rec;
+        }
+    }
+
+    private static final class Bucket {
+        final int index;
+        TimeSeries.Record anchor;
+        TimeSeries.Record firstMissing;
+        private final List<Point> upper = new ArrayList<>();
+        private final List<Point> lower = new ArrayList<>();
+        private double sumX = 0;
+        private double sumY = 0;
+        private int count = 0;
+
+        Bucket(int index) {
+            this.index = index;
+        }
+
+        boolean hasValues() {
+            return count > 0;
+        }
+
+        void add(TimeSeries.Record rec) {
+            Point p = new Point(rec.getDateTime().getTime(), rec.getValue(), rec);
+            sumX += p.x;
+            sumY += p.y;
+            count++;
+            // monotone chain, x never decreases
+            push(upper, p, 1);
+            push(lower, p, -1);
+        }
+
+        private static void push(List<Point> chain, Point p, int side) {
+            int n = chain.size();
+            while( n >= 2 && side * cross(chain.get(n - 2), chain.get(n - 1), p) >= 0 ){
+                chain.remove(--n);
+            }
+            chain.add(p);
+        }
+
+        private static double cross(Point o, Point a, Point b) {
+            return (a.x - o.x) * (b.y - o.y) - (a.y - o.y) * (b.x - o.x);
+        }
+
+        Point average() {
+            return new Point(sumX / count, sumY / count, null);
+        }
+
+        List<Point> hull() {
+            List<Point> points = new ArrayList<>(upper.size() + lower.size());
+            points.addAll(upper);
+            points.addAll(lower);
+            return points;
+        }
+    }
+}
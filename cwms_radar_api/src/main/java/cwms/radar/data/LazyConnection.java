@@ -0,0 +1,140 @@
+package cwms.radar.data;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+/**
+ * A Connection that only checks a connection out of the pool the first time it is used.
+ *
+ * Set as the "database" attribute of every request; requests that never reach the database,
+ * like static files or failed validation, never take a connection from the pool.
+ * Closing it returns the pooled connection if one was taken and does nothing otherwise.
+ */
+public final class LazyConnection implements InvocationHandler {
+
+    /**
+     * Work to do on the pooled connection right after it is checked out.
+     */
+    @FunctionalInterface
+    public interface Setup {
+        void apply(Connection connection) throws SQLException;
+    }
+
+    private final DataSource dataSource;
+    private final List<Setup> setup = new ArrayList<>();
+    private Connection connection = null;
+    private boolean closed = false;
+
+    private LazyConnection(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @param dataSource pool to check the connection out of on first use
+     * @return a Connection that can be handed out in place of a pooled one
+     */
+    public static Connection of(DataSource dataSource) {
+        return (Connection) Proxy.newProxyInstance(LazyConnection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new LazyConnection(dataSource));
+    }
+
+    /**
+     * @return true if the connection was created by {@link #of(DataSource)}
+     */
+    public static boolean isLazy(Connection connection) {
+        return connection != null && Proxy.isProxyClass(connection.getClass())
+            && Proxy.getInvocationHandler(connection) instanceof LazyConnection;
+    }
+
+    /**
+     * @return true if connection is lazy and has a pooled connection checked out right now
+     */
+    public static boolean isAcquired(Connection connection) {
+        return isLazy(connection) && handler(connection).connection != null;
+    }
+
+    /**
+     * Runs setup on the pooled connection once it is checked out, right away if it already is.
+     * For a connection that isn't lazy setup runs immediately.
+     */
+    public static void whenAcquired(Connection connection, Setup setup) throws SQLException {
+        if( !isLazy(connection) ){
+            setup.apply(connection);
+            return;
+        }
+        LazyConnection lazy = handler(connection);
+        synchronized(lazy) {
+            lazy.setup.add(setup);
+            if( lazy.connection != null ){
+                setup.apply(lazy.connection);
+            }
+        }
+    }
+
+    private static LazyConnection handler(Connection connection) {
+        return (LazyConnection) Proxy.getInvocationHandler(connection);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch(method.getName()) {
+            case "close":
+                close();
+                return null;
+            case "isClosed":
+                return isClosed();
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "LazyConnection[" + connection + "]";
+            default:
+                try {
+                    return method.invoke(acquire(), args);
+                } catch( InvocationTargetException err ){
+                    throw err.getCause();
+                }
+        }
+    }
+
+    private synchronized Connection acquire() throws SQLException {
+        if( closed ){
+            throw new SQLException("Connection is closed");
+        }
+        if( connection == null ){
+            Connection pooled = dataSource.getConnection();
+            try {
+                for( Setup s: setup ){
+                    s.apply(pooled);
+                }
+            } catch( SQLException | RuntimeException err ){
+                pooled.close();
+                throw err;
+            }
+            connection = pooled;
+        }
+        return connection;
+    }
+
+    private synchronized void close() throws SQLException {
+        closed = true;
+        if( connection != null ){
+            Connection pooled = connection;
+            connection = null;
+            pooled.close();
+        }
+    }
+
+    private synchronized boolean isClosed() throws SQLException {
+        return closed || (connection != null && connection.isClosed());
+    }
+}
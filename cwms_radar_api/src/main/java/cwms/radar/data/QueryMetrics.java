@@ -0,0 +1,297 @@
+package cwms.radar.data;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.codahale.metrics.MetricRegistry;
+
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteListenerProvider;
+import org.jooq.conf.ParamType;
+import org.jooq.impl.DefaultExecuteListener;
+import org.jooq.impl.DefaultExecuteListenerProvider;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Times the statements of every DSLContext it is installed in, see {@link #provider()}.
+ *
+ * Each statement is named after the PL/SQL call it reads from, e.g. CWMS_TS.RETRIEVE_TS_OUT_TAB,
+ * or else the first table or view it reads, or else the first call it makes. Per name there are
+ * prepare, execute, fetch and total timers, a row count histogram and an error meter. For lazily
+ * fetched results the fetch time includes whatever the caller does between rows, e.g. writing
+ * them to the client. The first statement on a lazy connection also pays for the pool checkout
+ * in its prepare time.
+ *
+ * Statements slower than RADAR_SLOW_QUERY_MS (1000, negative turns it off) are logged with their
+ * bind values inlined; nothing is rendered for the others.
+ */
+public final class QueryMetrics extends DefaultExecuteListener {
+    private static final long serialVersionUID = 1L;
+    private static final Logger logger = Logger.getLogger(QueryMetrics.class.getName());
+    private static final long SLOW_QUERY_MILLIS = Long.parseLong(System.getProperty("RADAR_SLOW_QUERY_MS", "1000"));
+
+    // distinct SQL strings remembered, and distinct names reported before the rest become "other"
+    private static final int MAX_STATEMENTS = 1000;
+    private static final int MAX_NAMES = 200;
+    private static final String OTHER = "other";
+
+    private static final String QUOTED = "\"(\\w+)\"";
+    // schema.package.function( as jOOQ renders calls to generated routines
+    private static final Pattern CALL = Pattern.compile(QUOTED + "\\." + QUOTED + "\\." + QUOTED + "\\s*\\(");
+    private static final Pattern FROM_CALL = Pattern.compile("\\bfrom\\s+table\\s*\\(\\s*" + QUOTED + "\\." + QUOTED + "\\." + QUOTED + "\\s*\\(", Pattern.CASE_INSENSITIVE);
+    private static final Pattern FROM_TABLE = Pattern.compile("\\bfrom\\s+(?:" + QUOTED + "\\.)?" + QUOTED, Pattern.CASE_INSENSITIVE);
+
+    private static final QueryMetrics INSTANCE = new QueryMetrics();
+    private static final ExecuteListenerProvider PROVIDER = new DefaultExecuteListenerProvider(INSTANCE);
+    private static final String TIMING = QueryMetrics.class.getName();
+
+    private static volatile MetricRegistry metrics = new MetricRegistry();
+    private static final Map<String,String> statementNames = new ConcurrentHashMap<>();
+    private static final Set<String> names = ConcurrentHashMap.newKeySet();
+
+    private QueryMetrics() {
+    }
+
+    public static ExecuteListenerProvider provider() {
+        return PROVIDER;
+    }
+
+    /**
+     * Reports into the application's registry from now on.
+     */
+    public static void setMetricRegistry(MetricRegistry registry) {
+        metrics = registry;
+    }
+
+    /**
+     * What is being measured for one execution, kept in its ExecuteContext.
+     */
+    private static final class Timing {
+        final long start = System.nanoTime();
+        long mark;
+        long rows = 0;
+        boolean fetched = false;
+        String name;
+    }
+
+    private static Timing timing(ExecuteContext ctx) {
+        return (Timing) ctx.data(TIMING);
+    }
+
+    @Override
+    public void start(ExecuteContext ctx) {
+        ctx.data(TIMING, new Timing());
+    }
+
+    @Override
+    public void prepareStart(ExecuteContext ctx) {
+        mark(ctx);
+    }
+
+    @Override
+    public void prepareEnd(ExecuteContext ctx) {
+        record(ctx, "prepare");
+    }
+
+    @Override
+    public void executeStart(ExecuteContext ctx) {
+        mark(ctx);
+    }
+
+    @Override
+    public void executeEnd(ExecuteContext ctx) {
+        record(ctx, "execute");
+    }
+
+    @Override
+    public void fetchStart(ExecuteContext ctx) {
+        Timing timing = timing(ctx);
+        if(timing != null) {
+            timing.fetched = true;
+        }
+        mark(ctx);
+    }
+
+    @Override
+    public void recordEnd(ExecuteContext ctx) {
+        Timing timing = timing(ctx);
+        if(timing != null) {
+            timing.rows++;
+        }
+    }
+
+    @Override
+    public void fetchEnd(ExecuteContext ctx) {
+        record(ctx, "fetch");
+    }
+
+    @Override
+    public void exception(ExecuteContext ctx) {
+        if(timing(ctx) != null) {
+            metrics.meter(name(QueryMetrics.class, nameOf(ctx), "errors")).mark();
+        }
+    }
+
+    @Override
+    public void end(ExecuteContext ctx) {
+        Timing timing = timing(ctx);
+        if(timing == null) {
+            return;
+        }
+        long rows = timing.fetched ? timing.rows : Math.max(ctx.rows(), 0);
+        total(nameOf(ctx), timing.start, rows, () -> inlined(ctx));
+    }
+
+    private static void total(String name, long start, long rows, Supplier<String> sql) {
+        long elapsed = System.nanoTime() - start;
+        metrics.timer(name(QueryMetrics.class, name, "total")).update(elapsed, TimeUnit.NANOSECONDS);
+        metrics.histogram(name(QueryMetrics.class, name, "rows")).update(rows);
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(elapsed);
+        if(SLOW_QUERY_MILLIS >= 0 && millis >= SLOW_QUERY_MILLIS && logger.isLoggable(Level.WARNING)) {
+            logger.warning(String.format("Slow query %s took %d ms for %d rows: %s", name, millis, rows, sql.get()));
+        }
+    }
+
+    /**
+     * Times a statement that doesn't go through jOOQ, e.g. a CallableStatement that streams a CLOB,
+     * under the same names as the listener, so it is reported and logged like the others.
+     *
+     * @param name what the listener would have called it, e.g. CWMS_TS.RETRIEVE_TIME_SERIES_F
+     * @param sql logged if the statement is slow
+     */
+    public static Statement statement(String name, String sql) {
+        return new Statement(limited(name), sql);
+    }
+
+    /**
+     * One execution of a statement timed by hand, from prepare until it is closed.
+     */
+    public static final class Statement implements AutoCloseable {
+        private final Timing timing = new Timing();
+        private final String sql;
+
+        private Statement(String name, String sql) {
+            this.sql = sql;
+            timing.name = name;
+            timing.mark = timing.start;
+        }
+
+        private void phase(String phase) {
+            long now = System.nanoTime();
+            metrics.timer(name(QueryMetrics.class, timing.name, phase)).update(now - timing.mark, TimeUnit.NANOSECONDS);
+            timing.mark = now;
+        }
+
+        public void prepared() {
+            phase("prepare");
+        }
+
+        public void executed() {
+            phase("execute");
+        }
+
+        /**
+         * @param rows read, for a CLOB 1 if there was a document
+         */
+        public void fetched(long rows) {
+            phase("fetch");
+            timing.rows = rows;
+        }
+
+        public void failed() {
+            metrics.meter(name(QueryMetrics.class, timing.name, "errors")).mark();
+        }
+
+        @Override
+        public void close() {
+            total(timing.name, timing.start, timing.rows, () -> sql);
+        }
+    }
+
+    private static void mark(ExecuteContext ctx) {
+        Timing timing = timing(ctx);
+        if(timing != null) {
+            timing.mark = System.nanoTime();
+        }
+    }
+
+    private static void record(ExecuteContext ctx, String phase) {
+        Timing timing = timing(ctx);
+        if(timing != null) {
+            metrics.timer(name(QueryMetrics.class, nameOf(ctx), phase)).update(System.nanoTime() - timing.mark, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static String nameOf(ExecuteContext ctx) {
+        Timing timing = timing(ctx);
+        if(timing.name == null) {
+            // calls to stored procedures render as schema.package.procedure too
+            timing.name = limited(statementName(ctx.sql()));
+        }
+        return timing.name;
+    }
+
+    /**
+     * @return name, or "other" once there are too many distinct names
+     */
+    private static String limited(String name) {
+        if(!names.contains(name)) {
+            if(names.size() < MAX_NAMES) {
+                names.add(name);
+            } else {
+                return OTHER;
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Names a statement after the PL/SQL call or the table it reads from.
+     */
+    static String statementName(String sql) {
+        if(sql == null) {
+            return OTHER;
+        }
+        String name = statementNames.get(sql);
+        if(name != null) {
+            return name;
+        }
+        Matcher m;
+        if((m = FROM_CALL.matcher(sql)).find()) {
+            name = m.group(2) + "." + m.group(3);
+        } else if((m = FROM_TABLE.matcher(sql)).find()) {
+            name = m.group(2);
+        } else if((m = CALL.matcher(sql)).find()) {
+            name = m.group(2) + "." + m.group(3);
+        } else {
+            String trimmed = sql.trim();
+            int end = 0;
+            while(end < trimmed.length() && Character.isLetter(trimmed.charAt(end))) {
+                end++;
+            }
+            name = end > 0 ? trimmed.substring(0, end).toLowerCase() : OTHER;
+        }
+        if(statementNames.size() < MAX_STATEMENTS) {
+            statementNames.put(sql, name);
+        }
+        return name;
+    }
+
+    private static String inlined(ExecuteContext ctx) {
+        try {
+            return ctx.query() != null ? ctx.query().getSQL(ParamType.INLINED) : ctx.sql();
+        } catch(RuntimeException err) {
+            // the SQL with placeholders still says which statement it was
+            return ctx.sql();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package cwms.radar.data;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Hands out connections of a shared pool, but never more than a fixed number at once.
+ *
+ * Gives a group of requests its own share of the pool, so one kind of request can't take every
+ * connection and leave the others waiting. A connection counts against the quota from when it is
+ * checked out until it is closed; wrapped in a {@link LazyConnection} that is only once it is used.
+ * If none is free within the wait limit getConnection fails with SQLTransientConnectionException.
+ */
+public final class QuotaDataSource implements DataSource {
+    private final DataSource dataSource;
+    private final String name;
+    private final int quota;
+    private final Semaphore permits;
+    private final long maxWaitNanos;
+    private final Timer waitTime;
+    private final Meter exhausted;
+
+    /**
+     * @param name used in the metrics and errors
+     * @param quota most connections checked out at once
+     * @param maxWait longest getConnection waits for one of the quota to be returned
+     */
+    public QuotaDataSource(DataSource dataSource, String name, int quota, long maxWait, TimeUnit unit, MetricRegistry metrics) {
+        this.dataSource = dataSource;
+        this.name = name;
+        this.quota = quota;
+        this.permits = new Semaphore(quota, true);
+        this.maxWaitNanos = unit.toNanos(maxWait);
+        this.waitTime = metrics.timer(name(QuotaDataSource.class, name, "wait"));
+        this.exhausted = metrics.meter(name(QuotaDataSource.class, name, "exhausted"));
+        metrics.gauge(name(QuotaDataSource.class, name, "in-use"), () -> (Gauge<Integer>) this::inUse);
+    }
+
+    /**
+     * @return connections of the quota checked out right now
+     */
+    public int inUse() {
+        return quota - permits.availablePermits();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        acquire();
+        try {
+            return release(dataSource.getConnection());
+        } catch( SQLException | RuntimeException err ){
+            permits.release();
+            throw err;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        acquire();
+        try {
+            return release(dataSource.getConnection(username, password));
+        } catch( SQLException | RuntimeException err ){
+            permits.release();
+            throw err;
+        }
+    }
+
+    private void acquire() throws SQLException {
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch( InterruptedException err ){
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a " + name + " connection", err);
+        } finally {
+            waitTime.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        if( !acquired ){
+            exhausted.mark();
+            throw new SQLTransientConnectionException("All " + quota + " " + name + " connections are in use");
+        }
+    }
+
+    /**
+     * @return connection, giving its permit back when it is closed
+     */
+    private Connection release(Connection connection) {
+        AtomicBoolean open = new AtomicBoolean(true);
+        InvocationHandler handler = (proxy, method, args) -> {
+            if( "close".equals(method.getName()) ){
+                if( !open.compareAndSet(true, false) ){
+                    return null;
+                }
+                try {
+                    connection.close();
+                } finally {
+                    permits.release();
+                }
+                return null;
+            }
+            try {
+                return method.invoke(connection, args);
+            } catch( InvocationTargetException err ){
+                throw err.getCause();
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(QuotaDataSource.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, handler);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return dataSource.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        dataSource.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        dataSource.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return dataSource.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return dataSource.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? iface.cast(this) : dataSource.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || dataSource.isWrapperFor(iface);
+    }
+}
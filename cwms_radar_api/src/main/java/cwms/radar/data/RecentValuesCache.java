@@ -0,0 +1,349 @@
+package cwms.radar.data;
+
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import cwms.radar.data.dto.TimeSeriesValues;
+
+/**
+ * Keeps the most recent values of frequently requested time series in memory.
+ *
+ * Each time series and unit gets a ring buffer of primitive columns covering a window that ends
+ * at the last refresh and starts no earlier than span before it. Requests whose window falls
+ * inside it are answered from memory. Once a tail is older than the refresh interval only values
+ * newer than its high-water mark, less a small overlap for late or revised values, are read again;
+ * the whole tail is reloaded every reload interval to pick up older revisions. Answers can
+ * therefore be up to the refresh interval behind the database.
+ *
+ * The memory held by all tails is limited by a budget, the least recently used tails are
+ * dropped first.
+ */
+public final class RecentValuesCache {
+    // epoch millis, double, quality code and null flag
+    private static final int BYTES_PER_VALUE = 8 + 8 + 4 + 1;
+    // object headers, array headers and the bookkeeping fields of a tail
+    private static final int BYTES_PER_TAIL = 256;
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Reads values from the database.
+     */
+    @FunctionalInterface
+    public interface Fetcher {
+        /**
+         * @param from first date time, milliseconds since the Unix epoch
+         * @param to last date time, milliseconds since the Unix epoch
+         * @param sink receives the values in time order
+         */
+        void fetch(long from, long to, ValueSink sink);
+    }
+
+    @FunctionalInterface
+    public interface ValueSink {
+        void add(long dateTime, Double value, int qualityCode);
+    }
+
+    private final long span;
+    private final long refresh;
+    private final long overlap;
+    private final long reload;
+    private final long budget;
+    private final LongSupplier clock;
+    // access ordered, so iteration starts at the least recently used tail
+    private final LinkedHashMap<String,Tail> tails = new LinkedHashMap<>(16, 0.75f, true);
+    private long used = 0;
+
+    /**
+     * @param span longest window kept per time series, in milliseconds
+     * @param refresh how old a tail may get before newer values are read, in milliseconds
+     * @param overlap how far before the high-water mark values are read again on refresh, in milliseconds
+     * @param reload how old a tail may get before it is read again completely, in milliseconds
+     * @param budget most bytes held by all tails together
+     */
+    public RecentValuesCache(long span, long refresh, long overlap, long reload, long budget) {
+        this(span, refresh, overlap, reload, budget, System::currentTimeMillis);
+    }
+
+    RecentValuesCache(long span, long refresh, long overlap, long reload, long budget, LongSupplier clock) {
+        this.span = span;
+        this.refresh = refresh;
+        this.overlap = overlap;
+        this.reload = reload;
+        this.budget = budget;
+        this.clock = clock;
+    }
+
+    /**
+     * @param from start of the requested window, milliseconds since the Unix epoch
+     * @param to end of the requested window, milliseconds since the Unix epoch
+     * @return true if the window is recent enough to be answered from the cache
+     */
+    public boolean serves(long from, long to) {
+        long now = clock.getAsLong();
+        return budget > 0 && span > 0 && from <= to && to <= now && from >= now - span;
+    }
+
+    /**
+     * Returns the values of the time series in the window, loading or refreshing the cached
+     * tail first if needed. Only one request per tail talks to the database at a time, the
+     * others wait for it and use what it read.
+     * @param from start of the window, see {@link #serves}
+     * @param to end of the window
+     * @param fetcher reads values from the database, called while the tail is locked
+     * @return a copy of the values in the window
+     */
+    public TimeSeriesValues read(BigDecimal tsCode, String unit, long from, long to, Fetcher fetcher) {
+        String key = key(tsCode, unit);
+        Tail tail;
+        synchronized(tails) {
+            tail = tails.computeIfAbsent(key, k -> new Tail());
+        }
+        TimeSeriesValues values;
+        try {
+            values = tail.read(from, to, clock.getAsLong(), fetcher);
+        } catch(RuntimeException err) {
+            remove(key, tail);
+            throw err;
+        }
+        account(key, tail);
+        return values;
+    }
+
+    /**
+     * Drops everything cached for the time series, in every unit.
+     */
+    public void invalidate(BigDecimal tsCode) {
+        String prefix = tsCode.toPlainString() + "/";
+        synchronized(tails) {
+            Iterator<Map.Entry<String,Tail>> it = tails.entrySet().iterator();
+            while(it.hasNext()) {
+                Map.Entry<String,Tail> entry = it.next();
+                if(entry.getKey().startsWith(prefix)) {
+                    used -= entry.getValue().accounted;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized(tails) {
+            tails.clear();
+            used = 0;
+        }
+    }
+
+    /**
+     * @return bytes currently held by all tails, as counted against the budget
+     */
+    public long usedBytes() {
+        synchronized(tails) {
+            return used;
+        }
+    }
+
+    /**
+     * @return number of time series and unit combinations held
+     */
+    public int size() {
+        synchronized(tails) {
+            return tails.size();
+        }
+    }
+
+    private static String key(BigDecimal tsCode, String unit) {
+        return tsCode.toPlainString() + "/" + unit;
+    }
+
+    private void remove(String key, Tail tail) {
+        synchronized(tails) {
+            if(tails.remove(key, tail)) {
+                used -= tail.accounted;
+            }
+        }
+    }
+
+    /**
+     * Counts the current size of the tail against the budget and evicts the least recently
+     * used tails until it fits.
+     */
+    private void account(String key, Tail tail) {
+        synchronized(tails) {
+            if(tails.get(key) != tail) {
+                // dropped while it was being read
+                return;
+            }
+            long bytes = tail.bytes;
+            used += bytes - tail.accounted;
+            tail.accounted = bytes;
+            Iterator<Tail> eldest = tails.values().iterator();
+            while(used > budget && eldest.hasNext()) {
+                used -= eldest.next().accounted;
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Values of one time series in one unit, oldest first, in a ring of primitive arrays.
+     */
+    private final class Tail implements ValueSink {
+        private long[] dateTimes = new long[0];
+        private double[] values = new double[0];
+        private int[] qualityCodes = new int[0];
+        private boolean[] nulls = new boolean[0];
+        private int head = 0;
+        private int size = 0;
+
+        private boolean loaded = false;
+        // the tail holds every value from low to high
+        private long low;
+        private long high;
+        private long loadedAt;
+        private long refreshedAt;
+        // lower bound of the values being fetched, anything earlier is ignored
+        private long accepting;
+
+        // memory in use, read when accounting
+        volatile long bytes = 0;
+        // what the budget currently counts for this tail, guarded by tails
+        long accounted = 0;
+
+        synchronized TimeSeriesValues read(long from, long to, long now, Fetcher fetcher) {
+            if(!loaded || from < low || now - loadedAt >= reload) {
+                load(from, now, fetcher);
+            } else if(now - refreshedAt >= refresh) {
+                long cut = Math.max(low, high - overlap);
+                truncate(cut);
+                accepting = cut;
+                fetch(cut, now, fetcher);
+                high = now;
+                refreshedAt = now;
+            }
+            trim(now - span);
+            bytes = BYTES_PER_TAIL + (long) BYTES_PER_VALUE * dateTimes.length;
+            return copy(from, to);
+        }
+
+        private void load(long from, long now, Fetcher fetcher) {
+            dateTimes = new long[INITIAL_CAPACITY];
+            values = new double[INITIAL_CAPACITY];
+            qualityCodes = new int[INITIAL_CAPACITY];
+            nulls = new boolean[INITIAL_CAPACITY];
+            head = 0;
+            size = 0;
+            accepting = from;
+            fetch(from, now, fetcher);
+            low = from;
+            high = now;
+            loadedAt = now;
+            refreshedAt = now;
+            loaded = true;
+        }
+
+        private void fetch(long from, long to, Fetcher fetcher) {
+            loaded = false;
+            fetcher.fetch(from, to, this);
+            loaded = true;
+        }
+
+        @Override
+        public void add(long dateTime, Double value, int qualityCode) {
+            if(dateTime < accepting || (size > 0 && dateTime <= dateTimeAt(size - 1))) {
+                return;
+            }
+            if(size == dateTimes.length) {
+                resize(Math.max(INITIAL_CAPACITY, dateTimes.length * 2));
+            }
+            int i = physical(size);
+            dateTimes[i] = dateTime;
+            values[i] = value == null ? Double.NaN : value;
+            qualityCodes[i] = qualityCode;
+            nulls[i] = value == null;
+            size++;
+        }
+
+        /**
+         * Drops the values at and after dateTime.
+         */
+        private void truncate(long dateTime) {
+            size = indexOf(dateTime);
+        }
+
+        /**
+         * Drops the values before dateTime and gives back memory once most of it is unused.
+         */
+        private void trim(long dateTime) {
+            if(dateTime <= low) {
+                return;
+            }
+            int drop = indexOf(dateTime);
+            head = physical(drop);
+            size -= drop;
+            low = dateTime;
+            if(dateTimes.length > INITIAL_CAPACITY && size < dateTimes.length / 4) {
+                resize(Math.max(INITIAL_CAPACITY, dateTimes.length / 2));
+            }
+        }
+
+        private TimeSeriesValues copy(long from, long to) {
+            TimeSeriesValues copy = new TimeSeriesValues();
+            for(int index = indexOf(from); index < size; index++) {
+                int i = physical(index);
+                if(dateTimes[i] > to) {
+                    break;
+                }
+                copy.add(dateTimes[i], nulls[i] ? null : values[i], qualityCodes[i]);
+            }
+            return copy;
+        }
+
+        /**
+         * @return index of the first value at or after dateTime, size if there is none
+         */
+        private int indexOf(long dateTime) {
+            int lo = 0;
+            int hi = size;
+            while(lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if(dateTimeAt(mid) < dateTime) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        private long dateTimeAt(int index) {
+            return dateTimes[physical(index)];
+        }
+
+        private int physical(int index) {
+            int i = head + index;
+            return i < dateTimes.length ? i : i - dateTimes.length;
+        }
+
+        private void resize(int capacity) {
+            long[] newDateTimes = new long[capacity];
+            double[] newValues = new double[capacity];
+            int[] newQualityCodes = new int[capacity];
+            boolean[] newNulls = new boolean[capacity];
+            for(int index = 0; index < size; index++) {
+                int i = physical(index);
+                newDateTimes[index] = dateTimes[i];
+                newValues[index] = values[i];
+                newQualityCodes[index] = qualityCodes[i];
+                newNulls[index] = nulls[i];
+            }
+            dateTimes = newDateTimes;
+            values = newValues;
+            qualityCodes = newQualityCodes;
+            nulls = newNulls;
+            head = 0;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package cwms.radar.data;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import cwms.radar.helpers.TtlCache;
+
+/**
+ * What the database resolves a requested time series name to: the office, the correctly
+ * cased identifier, its code, interval and default units.
+ *
+ * These almost never change, so they are cached by office and upper case name instead of
+ * being looked up again inside every retrieval query.
+ */
+public final class TimeSeriesIdentity {
+    private static final TtlCache<String,TimeSeriesIdentity> cache = new TtlCache<>(
+            Long.parseLong(System.getProperty("RADAR_TS_IDENTITY_TTL", "600")), TimeUnit.SECONDS,
+            Integer.parseInt(System.getProperty("RADAR_TS_IDENTITY_CACHE_SIZE", "10000")));
+
+    private final String officeId;
+    private final String name;
+    private final BigDecimal tsCode;
+    private final long intervalMinutes;
+    private final String siUnits;
+    private final String enUnits;
+
+    public TimeSeriesIdentity(String officeId, String name, BigDecimal tsCode, long intervalMinutes, String siUnits, String enUnits) {
+        this.officeId = officeId;
+        this.name = name;
+        this.tsCode = tsCode;
+        this.intervalMinutes = intervalMinutes;
+        this.siUnits = siUnits;
+        this.enUnits = enUnits;
+    }
+
+    public String getOfficeId() {
+        return officeId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public BigDecimal getTsCode() {
+        return tsCode;
+    }
+
+    public long getIntervalMinutes() {
+        return intervalMinutes;
+    }
+
+    /**
+     * @param units a unit system, "SI" or "EN", or a specific unit
+     * @return the default unit of the unit system, or units itself if it isn't one
+     */
+    public String unitsFor(String units) {
+        if( "SI".equalsIgnoreCase(units) ){
+            return siUnits;
+        } else if( "EN".equalsIgnoreCase(units) ){
+            return enUnits;
+        }
+        return units;
+    }
+
+    /**
+     * @param office office the name was requested for
+     * @return cache key, or null if office is unknown
+     */
+    static String key(String office, String name) {
+        if( office == null || name == null ){
+            return null;
+        }
+        return office.toUpperCase() + "/" + name.toUpperCase();
+    }
+
+    static TimeSeriesIdentity cached(String key) {
+        return key == null ? null : cache.get(key);
+    }
+
+    static void store(String key, TimeSeriesIdentity identity) {
+        if( key != null ){
+            cache.put(key, identity);
+        }
+    }
+
+    /**
+     * Forget a resolved time series, for instance after it was renamed or deleted.
+     */
+    public static void invalidate(String office, String name) {
+        String key = key(office, name);
+        if( key != null ){
+            cache.invalidate(key);
+        }
+    }
+
+    public static void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public String toString() {
+        return officeId + "/" + name;
+    }
+}
@@ -0,0 +1,53 @@
+package cwms.radar.data;
+
+import java.time.Instant;
+
+/**
+ * Identifies the state of a time series over a time window, see
+ * {@link CwmsDataManager#getTimeSeriesVersion}.
+ */
+public final class TimeSeriesVersion {
+    private final TimeSeriesIdentity identity;
+    private final Instant begin;
+    private final Instant end;
+    private final Instant lastModified;
+    private final int count;
+    // hash of the values themselves when they come from memory, null when read from the database
+    private final Long fingerprint;
+
+    public TimeSeriesVersion(TimeSeriesIdentity identity, Instant begin, Instant end, Instant lastModified, int count) {
+        this(identity, begin, end, lastModified, count, null);
+    }
+
+    /**
+     * @param fingerprint see {@link cwms.radar.data.dto.TimeSeriesValues#fingerprint}, null if unknown
+     */
+    public TimeSeriesVersion(TimeSeriesIdentity identity, Instant begin, Instant end, Instant lastModified, int count, Long fingerprint) {
+        this.identity = identity;
+        this.begin = begin;
+        this.end = end;
+        this.lastModified = lastModified;
+        this.count = count;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * @return when the most recently stored value in the window was stored, null if there are none
+     */
+    public Instant getLastModified() {
+        return lastModified;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return a string that changes whenever the values in the window may have changed
+     */
+    public String getKey() {
+        return identity.getTsCode() + "|" + begin.toEpochMilli() + "|" + end.toEpochMilli() + "|"
+            + (lastModified == null ? "" : Long.toString(lastModified.toEpochMilli())) + "|" + count
+            + (fingerprint == null ? "" : "|" + Long.toHexString(fingerprint));
+    }
+}
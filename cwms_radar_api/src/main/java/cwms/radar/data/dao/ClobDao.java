@@ -22,7 +22,6 @@ import org.jooq.SelectJoinStep;
 import org.jooq.SelectLimitPercentStep;
 import org.jooq.Table;
 import org.jooq.TableField;
-import org.jooq.conf.ParamType;
 import org.jooq.impl.DSL;
 import org.jooq.impl.SQLDataType;
 
@@ -161,7 +160,6 @@ public class ClobDao extends JooqDao<Clob>
 									   ;
 
 		Clobs.Builder builder = new Clobs.Builder(clobCursor,pageSize, total);
-		logger.info(query.getSQL(ParamType.INLINED));
 		query.fetch().forEach( row -> {
 			usace.cwms.db.jooq.codegen.tables.records.AV_CLOB clob = row.into(v_clob);
 			usace.cwms.db.jooq.codegen.tables.records.AV_OFFICE clobOffice = row.into(v_office);
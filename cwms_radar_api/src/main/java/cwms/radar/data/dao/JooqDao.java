@@ -1,18 +1,32 @@
 package cwms.radar.data.dao;
 
 import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.WeakHashMap;
 
+import cwms.radar.data.LazyConnection;
+import cwms.radar.data.QueryMetrics;
 import io.javalin.http.Context;
 import org.jooq.DSLContext;
 import org.jooq.SQLDialect;
+import org.jooq.exception.DataAccessException;
 import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
 
 import usace.cwms.db.jooq.codegen.packages.CWMS_ENV_PACKAGE;
 
 public abstract class JooqDao<T> extends Dao<T>
 {
+	// Only safe when nothing but this application uses the pool, see setSessionOfficeId
+	private static final boolean CACHE_SESSION_OFFICE = Boolean.parseBoolean(System.getProperty("RADAR_CACHE_SESSION_OFFICE", "false"));
+	private static final Class<?> ORACLE_CONNECTION = findOracleConnection();
+	// session office last set on each physical connection, dropped with the connection
+	private static final Map<Connection, String> sessionOffices = Collections.synchronizedMap(new WeakHashMap<>());
+
 	protected JooqDao(DSLContext dsl)
 	{
 		super(dsl);
@@ -27,11 +41,78 @@ public abstract class JooqDao<T> extends Dao<T>
 
 	public static DSLContext getDslContext(Connection database, String officeId)
 	{
-		DSLContext dsl =  DSL.using(database, SQLDialect.ORACLE11G);
-		CWMS_ENV_PACKAGE.call_SET_SESSION_OFFICE_ID(dsl.configuration(), officeId);
+		DSLContext dsl =  using(database);
+		try
+		{
+			// For a lazy connection this waits until a query actually needs the database
+			LazyConnection.whenAcquired(database, c -> setSessionOfficeId(c, officeId));
+		}
+		catch(SQLException e)
+		{
+			throw new DataAccessException("Unable to set session office", e);
+		}
 		return dsl;
 	}
 
+	/**
+	 * A DSLContext on the connection with statement timing installed, see {@link QueryMetrics}.
+	 */
+	public static DSLContext using(Connection database)
+	{
+		return DSL.using(new DefaultConfiguration()
+			.set(database)
+			.set(SQLDialect.ORACLE11G)
+			.set(QueryMetrics.provider()));
+	}
+
+	/**
+	 * Sets the CWMS session office on the connection.
+	 *
+	 * With RADAR_CACHE_SESSION_OFFICE=true the database call is skipped when this application
+	 * last set the pooled connection underneath to that office. Anything else that changes the
+	 * session, another webapp on the same pool, a pool reset or a call that resets package state,
+	 * makes the remembered office wrong and queries run for another office, so it is off by default.
+	 */
+	public static void setSessionOfficeId(Connection database, String officeId) throws SQLException
+	{
+		Connection physical = physicalConnection(database);
+		if(CACHE_SESSION_OFFICE && officeId != null && officeId.equals(sessionOffices.get(physical)))
+		{
+			return;
+		}
+		sessionOffices.remove(physical);
+		CWMS_ENV_PACKAGE.call_SET_SESSION_OFFICE_ID(using(database).configuration(), officeId);
+		if(officeId != null)
+		{
+			sessionOffices.put(physical, officeId);
+		}
+	}
+
+	/**
+	 * Pools hand out a new wrapper on every checkout, the driver connection underneath is
+	 * what holds the session state.
+	 */
+	private static Connection physicalConnection(Connection database) throws SQLException
+	{
+		if(ORACLE_CONNECTION != null && database.isWrapperFor(ORACLE_CONNECTION))
+		{
+			return (Connection) database.unwrap(ORACLE_CONNECTION);
+		}
+		return database;
+	}
+
+	private static Class<?> findOracleConnection()
+	{
+		try
+		{
+			return Class.forName("oracle.jdbc.OracleConnection");
+		}
+		catch(ClassNotFoundException e)
+		{
+			return null;
+		}
+	}
+
 	@Override
 	public List<T> getAll(Optional<String> limitToOffice)
 	{
@@ -1,8 +1,9 @@
 package cwms.radar.data.dao;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,29 +11,30 @@ import java.util.Optional;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
+import cwms.radar.data.ClobCall;
 import cwms.radar.data.dto.Catalog;
 import cwms.radar.data.dto.Location;
-import cwms.radar.data.dto.catalog.CatalogEntry;
 import cwms.radar.data.dto.catalog.LocationAlias;
 import cwms.radar.data.dto.catalog.LocationCatalogEntry;
 
 import org.geojson.Feature;
 import org.geojson.FeatureCollection;
 import org.geojson.Point;
+import org.jooq.Condition;
+import org.jooq.Cursor;
 import org.jooq.DSLContext;
+import org.jooq.Field;
 import org.jooq.Record;
 import org.jooq.Record1;
+import org.jooq.ResultQuery;
 import org.jooq.SelectConditionStep;
 import org.jooq.SelectJoinStep;
 import org.jooq.Table;
-import org.jooq.conf.ParamType;
-
-import usace.cwms.db.jooq.codegen.packages.CWMS_LOC_PACKAGE;
+import org.jooq.impl.DSL;
 
 import static org.jooq.impl.DSL.asterisk;
 import static org.jooq.impl.DSL.count;
 import static usace.cwms.db.jooq.codegen.tables.AV_LOC.AV_LOC;
-import static usace.cwms.db.jooq.codegen.tables.AV_LOC_ALIAS.AV_LOC_ALIAS;
 import static usace.cwms.db.jooq.codegen.tables.AV_LOC_GRP_ASSGN.AV_LOC_GRP_ASSGN;
 
 public class LocationsDao extends JooqDao<Location> {
@@ -43,9 +45,12 @@ public class LocationsDao extends JooqDao<Location> {
     }
 
 
-    public String getLocations(String names,String format, String units, String datum, String officeId) {
-
-        return CWMS_LOC_PACKAGE.call_RETRIEVE_LOCATIONS_F(dsl.configuration(),
+    /**
+     * Retrieves the locations in the given format with CWMS_LOC.RETRIEVE_LOCATIONS_F, copied to
+     * out as it is read from the database.
+     */
+    public void getLocations(Writer out, String names, String format, String units, String datum, String officeId) throws IOException {
+        ClobCall.write(dsl, out, "CWMS_20.CWMS_LOC.RETRIEVE_LOCATIONS_F",
                 names, format, units, datum, officeId);
     }
 
@@ -122,103 +127,136 @@ public class LocationsDao extends JooqDao<Location> {
     }
 
 
+    /**
+     * Keyset paged catalog of locations with their aliases.
+     *
+     * One page of locations is picked in a subquery and joined with its alias assignments.
+     * Both levels order by office then upper case location id, so the rows of each location
+     * arrive together and in page order; they are folded into entries as they stream by.
+     * @param cursor cursor from a previous page, null or empty for the first page
+     */
     public Catalog getLocationCatalog(String cursor, int pageSize, String unitSystem, Optional<String> office) {
-        int total = 0;
-        String locCursor = "*";
-        if( cursor == null || cursor.isEmpty() ){
-            SelectJoinStep<Record1<Integer>> count = dsl.select(count(asterisk())).from(AV_LOC);
-            if( office.isPresent() ){
-                count.where(AV_LOC.DB_OFFICE_ID.upper().eq(office.get().toUpperCase()));
-            }
-            total = count.fetchOne().value1().intValue();
-        } else {
-            logger.info("getting non-default page");
-            // get totally from page
+        Optional<String> officeId = office.map(String::toUpperCase);
+        Integer total = null;
+        String lastOffice = null;
+        String lastLocation = null;
+        if( cursor != null && !cursor.isEmpty() ){
             String[] parts = Catalog.decodeCursor(cursor, "|||");
-
-            logger.info("decoded cursor: " + String.join("|||", parts));
-            for( String p: parts){
-                logger.info(p);
+            if( parts.length < 2 ){
+                throw new IllegalArgumentException("Invalid catalog cursor");
             }
-
-            if(parts.length > 1) {
-                locCursor = parts[0].split("\\/")[1];
-                total = Integer.parseInt(parts[1]);
+            lastOffice = parts[0];
+            lastLocation = parts[1];
+            if( parts.length > 2 ){
+                total = Integer.valueOf(parts[2]);
             }
         }
+        if( total == null ){
+            SelectJoinStep<Record1<Integer>> count = dsl.select(count(asterisk())).from(AV_LOC);
+            Condition countCondition = AV_LOC.UNIT_SYSTEM.eq(unitSystem);
+            if( officeId.isPresent() ){
+                countCondition = countCondition.and(AV_LOC.DB_OFFICE_ID.eq(officeId.get()));
+            }
+            total = count.where(countCondition).fetchOne().value1();
+        }
+
+        Field<String> officeKey = AV_LOC.DB_OFFICE_ID;
+        Field<String> locationKey = AV_LOC.LOCATION_ID.upper();
 
-        SelectConditionStep<Record1<String>> tmp = dsl.select(AV_LOC.LOCATION_ID)
-                               .from(AV_LOC)
-                               .where(AV_LOC.LOCATION_ID.greaterThan(locCursor))
-                               .and(AV_LOC.UNIT_SYSTEM.eq(unitSystem));
-        if( office.isPresent()){
-            tmp = tmp.and(AV_LOC.DB_OFFICE_ID.upper().eq(office.get().toUpperCase()));
+        Condition pageCondition = AV_LOC.UNIT_SYSTEM.eq(unitSystem);
+        if( officeId.isPresent() ){
+            pageCondition = pageCondition.and(officeKey.eq(officeId.get()));
         }
-        Table<?> forLimit = tmp.orderBy(AV_LOC.BASE_LOCATION_ID).limit(pageSize).asTable();
-        SelectConditionStep<Record> query = dsl.select(
-                                    AV_LOC.asterisk(),
-                                    AV_LOC_GRP_ASSGN.asterisk()
-                                )
-                                .from(AV_LOC)
-                                .innerJoin(forLimit).on(forLimit.field(AV_LOC.LOCATION_ID).eq(AV_LOC.LOCATION_ID))
-                                .leftJoin(AV_LOC_GRP_ASSGN).on(AV_LOC_GRP_ASSGN.LOCATION_ID.eq(AV_LOC.LOCATION_ID))
-                                .where(AV_LOC.UNIT_SYSTEM.eq(unitSystem))
-                                .and(AV_LOC.LOCATION_ID.upper().greaterThan(locCursor));
-
-        if( office.isPresent() ){
-            query.and(AV_LOC.DB_OFFICE_ID.upper().eq(office.get().toUpperCase()));
+        if( lastLocation != null ){
+            pageCondition = pageCondition.and(DSL.row(officeKey, locationKey).gt(lastOffice, lastLocation));
         }
-        query.orderBy(AV_LOC.LOCATION_ID);
-        HashMap<usace.cwms.db.jooq.codegen.tables.records.AV_LOC, ArrayList<usace.cwms.db.jooq.codegen.tables.records.AV_LOC_ALIAS>> theMap = new HashMap<>();
-        //Result<?> result = query.fetch();
-        query.fetch().forEach( row -> {
-            usace.cwms.db.jooq.codegen.tables.records.AV_LOC loc = row.into(AV_LOC);
-            if( !theMap.containsKey(loc)){
-                theMap.put(loc, new ArrayList<>() );
+        Table<?> page = dsl.select(AV_LOC.DB_OFFICE_ID, AV_LOC.LOCATION_ID)
+                           .from(AV_LOC)
+                           .where(pageCondition)
+                           .orderBy(officeKey, locationKey)
+                           .limit(pageSize)
+                           .asTable("page");
+
+        List<Field<?>> fields = new ArrayList<>(Arrays.asList(AV_LOC.fields()));
+        fields.add(AV_LOC_GRP_ASSGN.CATEGORY_ID);
+        fields.add(AV_LOC_GRP_ASSGN.GROUP_ID);
+        fields.add(AV_LOC_GRP_ASSGN.ALIAS_ID);
+        ResultQuery<Record> query = dsl.select(fields)
+                .from(AV_LOC)
+                .join(page).on(page.field(AV_LOC.DB_OFFICE_ID).eq(AV_LOC.DB_OFFICE_ID)
+                          .and(page.field(AV_LOC.LOCATION_ID).eq(AV_LOC.LOCATION_ID)))
+                .leftJoin(AV_LOC_GRP_ASSGN).on(AV_LOC_GRP_ASSGN.DB_OFFICE_ID.eq(AV_LOC.DB_OFFICE_ID)
+                          .and(AV_LOC_GRP_ASSGN.LOCATION_ID.eq(AV_LOC.LOCATION_ID))
+                          .and(AV_LOC_GRP_ASSGN.ALIAS_ID.isNotNull()))
+                .where(AV_LOC.UNIT_SYSTEM.eq(unitSystem))
+                .orderBy(officeKey, locationKey, AV_LOC_GRP_ASSGN.CATEGORY_ID, AV_LOC_GRP_ASSGN.GROUP_ID);
+
+        List<LocationCatalogEntry> entries = new ArrayList<>(pageSize);
+        try(Cursor<Record> rows = query.fetchLazy()) {
+            Record current = null;
+            List<LocationAlias> aliases = new ArrayList<>();
+            for(Record row : rows) {
+                if( current == null || !sameLocation(current, row) ){
+                    if( current != null ){
+                        entries.add(buildCatalogEntry(current, aliases));
+                    }
+                    current = row;
+                    aliases = new ArrayList<>();
+                }
+                String aliasId = row.get(AV_LOC_GRP_ASSGN.ALIAS_ID);
+                if( aliasId != null ){
+                    aliases.add(new LocationAlias(row.get(AV_LOC_GRP_ASSGN.CATEGORY_ID) + "-" + row.get(AV_LOC_GRP_ASSGN.GROUP_ID), aliasId));
+                }
             }
-            usace.cwms.db.jooq.codegen.tables.records.AV_LOC_ALIAS alias = row.into(AV_LOC_ALIAS);
-            usace.cwms.db.jooq.codegen.tables.records.AV_LOC_GRP_ASSGN group = row.into(AV_LOC_GRP_ASSGN);
-            if( group.getALIAS_ID() != null ){
-                theMap.get(loc).add(alias);
+            if( current != null ){
+                entries.add(buildCatalogEntry(current, aliases));
             }
-        });
-
-        List<? extends CatalogEntry> entries =
-        theMap.entrySet().stream().map( e -> {
-            LocationCatalogEntry ce = new LocationCatalogEntry(
-                e.getKey().getDB_OFFICE_ID(),
-                e.getKey().getLOCATION_ID(),
-                e.getKey().getNEAREST_CITY(),
-                e.getKey().getPUBLIC_NAME(),
-                e.getKey().getLONG_NAME(),
-                e.getKey().getDESCRIPTION(),
-                e.getKey().getLOCATION_KIND_ID(),
-                e.getKey().getLOCATION_TYPE(),
-                e.getKey().getTIME_ZONE_NAME(),
-                e.getKey().getLATITUDE() != null ? e.getKey().getLATITUDE().doubleValue() : null,
-                e.getKey().getLONGITUDE() != null ? e.getKey().getLONGITUDE().doubleValue() : null,
-                e.getKey().getPUBLISHED_LATITUDE() != null ? e.getKey().getPUBLISHED_LATITUDE().doubleValue() : null,
-                e.getKey().getPUBLISHED_LONGITUDE() != null ? e.getKey().getPUBLISHED_LONGITUDE().doubleValue() : null,
-                e.getKey().getHORIZONTAL_DATUM(),
-                e.getKey().getELEVATION(),
-                e.getKey().getUNIT_ID(),
-                e.getKey().getVERTICAL_DATUM(),
-                e.getKey().getNATION_ID(),
-                e.getKey().getSTATE_INITIAL(),
-                e.getKey().getCOUNTY_NAME(),
-                e.getKey().getBOUNDING_OFFICE_ID(),
-                e.getKey().getMAP_LABEL(),
-                e.getKey().getACTIVE_FLAG().equalsIgnoreCase("T") ? true : false,
-                e.getValue().stream().map( a -> {
-                    return new LocationAlias(a.getCATEGORY_ID()+"-"+a.getGROUP_ID(),a.getALIAS_ID());
-                }).collect(Collectors.toList())
-            );
-
-            return ce;
-        }).collect(Collectors.toList());
-
-        Catalog cat = new Catalog(cursor,total,pageSize,entries);
-        return cat;
+        }
+
+        String nextPage = null;
+        if( entries.size() == pageSize ){
+            LocationCatalogEntry last = entries.get(entries.size()-1);
+            nextPage = Catalog.encodeCursor("|||", last.getOffice(), last.getName().toUpperCase(), total);
+        }
+        return new Catalog(cursor, total, pageSize, entries, nextPage);
+    }
+
+    private static boolean sameLocation(Record a, Record b) {
+        return a.get(AV_LOC.LOCATION_ID).equals(b.get(AV_LOC.LOCATION_ID))
+            && a.get(AV_LOC.DB_OFFICE_ID).equals(b.get(AV_LOC.DB_OFFICE_ID));
+    }
+
+    private static LocationCatalogEntry buildCatalogEntry(Record loc, List<LocationAlias> aliases) {
+        return new LocationCatalogEntry(
+            loc.get(AV_LOC.DB_OFFICE_ID),
+            loc.get(AV_LOC.LOCATION_ID),
+            loc.get(AV_LOC.NEAREST_CITY),
+            loc.get(AV_LOC.PUBLIC_NAME),
+            loc.get(AV_LOC.LONG_NAME),
+            loc.get(AV_LOC.DESCRIPTION),
+            loc.get(AV_LOC.LOCATION_KIND_ID),
+            loc.get(AV_LOC.LOCATION_TYPE),
+            loc.get(AV_LOC.TIME_ZONE_NAME),
+            toDouble(loc.get(AV_LOC.LATITUDE)),
+            toDouble(loc.get(AV_LOC.LONGITUDE)),
+            toDouble(loc.get(AV_LOC.PUBLISHED_LATITUDE)),
+            toDouble(loc.get(AV_LOC.PUBLISHED_LONGITUDE)),
+            loc.get(AV_LOC.HORIZONTAL_DATUM),
+            toDouble(loc.get(AV_LOC.ELEVATION)),
+            loc.get(AV_LOC.UNIT_ID),
+            loc.get(AV_LOC.VERTICAL_DATUM),
+            loc.get(AV_LOC.NATION_ID),
+            loc.get(AV_LOC.STATE_INITIAL),
+            loc.get(AV_LOC.COUNTY_NAME),
+            loc.get(AV_LOC.BOUNDING_OFFICE_ID),
+            loc.get(AV_LOC.MAP_LABEL),
+            "T".equalsIgnoreCase(loc.get(AV_LOC.ACTIVE_FLAG)),
+            aliases
+        );
+    }
+
+    private static Double toDouble(Number value) {
+        return value != null ? value.doubleValue() : null;
     }
 
 
@@ -2,6 +2,7 @@ package cwms.radar.data.dao;
 
 import java.util.List;
 
+import cwms.radar.data.dto.AssignedTimeSeries;
 import cwms.radar.data.dto.TimeSeriesGroup;
 import org.jooq.Condition;
 import org.jooq.DSLContext;
@@ -10,8 +11,10 @@ import org.jooq.Select;
 import org.jooq.SelectJoinStep;
 import org.jooq.SelectWhereStep;
 import org.jooq.TableField;
+import org.jooq.impl.DSL;
 
 import usace.cwms.db.jooq.codegen.tables.AV_TS_CAT_GRP;
+import usace.cwms.db.jooq.codegen.tables.AV_TS_GRP_ASSGN;
 
 public class TimeSeriesGroupDao extends JooqDao<TimeSeriesGroup>
 {
@@ -75,6 +78,31 @@ public class TimeSeriesGroupDao extends JooqDao<TimeSeriesGroup>
 		return select.fetch().into(TimeSeriesGroup.class);
 	}
 
+	/**
+	 * The time series assigned to a group, ordered by attribute then identifier.
+	 * @param officeId office of the assignments, any office if null
+	 */
+	public List<AssignedTimeSeries> getAssignedTimeSeries(String officeId, String categoryId, String groupId)
+	{
+		AV_TS_GRP_ASSGN atga = AV_TS_GRP_ASSGN.AV_TS_GRP_ASSGN;
+
+		Condition whereCondition = atga.GROUP_ID.eq(groupId);
+		if ( categoryId != null && !categoryId.isEmpty())
+		{
+			whereCondition = whereCondition.and(atga.CATEGORY_ID.eq(categoryId));
+		}
+		if ( officeId != null && !officeId.isEmpty())
+		{
+			whereCondition = whereCondition.and(atga.DB_OFFICE_ID.eq(DSL.upper(officeId)));
+		}
+
+		return dsl.select(atga.TS_ID, atga.DB_OFFICE_ID, atga.ALIAS_ID, atga.ATTRIBUTE, atga.TS_CODE, atga.REF_TS_ID)
+				.from(atga)
+				.where(whereCondition)
+				.orderBy(atga.ATTRIBUTE, atga.TS_ID)
+				.fetch(r -> new AssignedTimeSeries(r.value1(), r.value2(), r.value3(), r.value4(), r.value5(), r.value6()));
+	}
+
 	private Condition buildWhereCondition(String officeId, String categoryId, String groupId, AV_TS_CAT_GRP table)
 	{
 		Condition whereCondition = null;
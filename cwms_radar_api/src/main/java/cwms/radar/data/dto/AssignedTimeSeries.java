@@ -0,0 +1,52 @@
+package cwms.radar.data.dto;
+
+public class AssignedTimeSeries implements CwmsDTO
+{
+	private String timeseriesId;
+	private String officeId;
+	private String aliasId;
+	private Number attribute;
+	private Number tsCode;
+	private String refTsId;
+
+	public AssignedTimeSeries(String timeseriesId, String officeId, String aliasId, Number attribute,
+							  Number tsCode, String refTsId)
+	{
+		this.timeseriesId = timeseriesId;
+		this.officeId = officeId;
+		this.aliasId = aliasId;
+		this.attribute = attribute;
+		this.tsCode = tsCode;
+		this.refTsId = refTsId;
+	}
+
+	public String getTimeseriesId()
+	{
+		return timeseriesId;
+	}
+
+	public String getOfficeId()
+	{
+		return officeId;
+	}
+
+	public String getAliasId()
+	{
+		return aliasId;
+	}
+
+	public Number getAttribute()
+	{
+		return attribute;
+	}
+
+	public Number getTsCode()
+	{
+		return tsCode;
+	}
+
+	public String getRefTsId()
+	{
+		return refTsId;
+	}
+}
@@ -35,12 +35,29 @@ public class Catalog extends CwmsDTOPaginated {
         Objects.requireNonNull(entries, "List of catalog entries must be a valid list, even if empty");
         this.entries = entries;
         if( entries.size() == pageSize){
-            nextPage = encodeCursor(entries.get(entries.size()-1).toString().toUpperCase(), total, "|||");
+            nextPage = encodeCursor("|||", entries.get(entries.size()-1).toString().toUpperCase(), total);
         } else {
             nextPage = null;
         }
     }
 
+    /**
+     * For catalogs where the caller builds the cursors, e.g. keyset pagination.
+     * @param page cursor used to retrieve this page, null or empty for the first page
+     * @param total number of entries overall, null if not known
+     * @param pageSize requested number of entries per page
+     * @param entries entries of this page
+     * @param nextPage cursor for the following page, null if this is the last one
+     */
+    public Catalog(String page, Integer total, int pageSize, List<? extends CatalogEntry> entries, String nextPage){
+        Objects.requireNonNull(entries, "List of catalog entries must be a valid list, even if empty");
+        this.page = page == null || page.isEmpty() ? null : page;
+        this.total = total;
+        this.pageSize = pageSize;
+        this.entries = entries;
+        this.nextPage = nextPage;
+    }
+
     /**
      * @return List<? extends CatalogEntry> return the entries
      */
@@ -1,5 +1,11 @@
 package cwms.radar.data.dto;
 
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlRootElement;
+
+@XmlRootElement(name="clob")
+@XmlAccessorType(XmlAccessType.FIELD)
 public class Clob implements CwmsDTO
 {
 	private String office;
@@ -7,6 +13,9 @@ public class Clob implements CwmsDTO
 	private String description;
 	private String value;
 
+	@SuppressWarnings("unused") // for JAXB to handle marshalling
+	private Clob(){}
+
 	public Clob(String office, String id, String description, String value)
 	{
 		this.office = office;
@@ -6,7 +6,11 @@ import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 
 import javax.xml.bind.annotation.*;
 import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
@@ -17,6 +21,7 @@ import com.fasterxml.jackson.annotation.JsonFormat.Shape;
 import cwms.radar.data.dto.TimeSeries.Record;
 import cwms.radar.formatters.xml.adapters.DurationAdapter;
 import cwms.radar.formatters.xml.adapters.TimestampAdapter;
+import cwms.radar.formatters.xml.adapters.ValuesAdapter;
 import cwms.radar.formatters.xml.adapters.ZonedDateTimeAdapter;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.media.Schema.AccessMode;
@@ -53,12 +58,18 @@ public class TimeSeries extends CwmsDTOPaginated {
     @Schema(description = "The requested end time of the data, in ISO-8601 format with offset and timezone ('" + ZONED_DATE_TIME_FORMAT + "')")
     ZonedDateTime end;
 
-    @XmlElementWrapper
-    @XmlElement(name="record")
+    // <values><record>...</record></values>, written from the columns, see ValuesAdapter
+    @XmlElement(name="values")
+    @XmlJavaTypeAdapter(ValuesAdapter.class)
     // Use the array shape to optimize data transfer to client
     @JsonFormat(shape=JsonFormat.Shape.ARRAY)
     @Schema(implementation = Record.class, description = "List of retrieved time-series values")
-    List<Record> values;
+    // Always a TimeSeriesValues, declared as a List so JAXB and Jackson treat it as a plain collection
+    List<Record> values = new TimeSeriesValues();
+
+    // Values still sitting in an open database cursor, see setPendingValues
+    @JsonIgnore
+    private transient Stream<Record> pendingValues;
 
     @SuppressWarnings("unused") // required so JAXB can initialize and marshal
     private TimeSeries() {}
@@ -71,7 +82,6 @@ public class TimeSeries extends CwmsDTOPaginated {
         this.end = end;
         this.interval = interval;
         this.units = units;
-        values = new ArrayList<Record>();
     }
 
     public String getName() {
@@ -105,9 +115,81 @@ public class TimeSeries extends CwmsDTOPaginated {
     }
 
     public List<Record> getValues() {
+        loadPendingValues();
         return values;
     }
 
+    /**
+     * @return the values in their columnar form, for formatters that want to avoid creating Records
+     */
+    public TimeSeriesValues valueColumns() {
+        loadPendingValues();
+        return (TimeSeriesValues) values;
+    }
+
+    /**
+     * Attach values that will be read lazily, e.g. from an open jOOQ cursor.
+     * Nothing is read until the values are requested; page and nextPage are only
+     * known once the values have been consumed.
+     * @param values stream of records in time order; closed once consumed
+     */
+    public void setPendingValues(Stream<Record> values) {
+        this.pendingValues = values;
+    }
+
+    /**
+     * Replace the pending values with a view of them, e.g. a reduced version for plotting.
+     * Does nothing if there are no pending values.
+     */
+    public void transformPendingValues(UnaryOperator<Stream<Record>> transform) {
+        if(pendingValues != null) {
+            pendingValues = transform.apply(pendingValues);
+        }
+    }
+
+    /**
+     * For values whose total is only known once they were read, e.g. a window read in chunks
+     * and downsampled. Formatters that stream pending values write it after them.
+     */
+    public void setTotal(Integer total) {
+        this.total = total;
+    }
+
+    public boolean hasPendingValues() {
+        return pendingValues != null;
+    }
+
+    /**
+     * Hands each pending value to the action without keeping it, applying the
+     * same paging rules as addValue. The pending stream is closed afterwards.
+     * @param action receives each record on the current page
+     */
+    public void forEachPendingValue(Consumer<Record> action) {
+        if(pendingValues == null) {
+            return;
+        }
+        try(Stream<Record> pending = pendingValues) {
+            pendingValues = null;
+            int count = values.size();
+            Iterator<Record> it = pending.iterator();
+            while(it.hasNext()) {
+                Record rec = it.next();
+                if(!claimPageSlot(rec.dateTime.getTime(), count)) {
+                    break;
+                }
+                action.accept(rec);
+                count++;
+            }
+        }
+    }
+
+    /**
+     * Reads any pending values into this object.
+     */
+    public void loadPendingValues() {
+        forEachPendingValue(values::add);
+    }
+
     @XmlElementWrapper(name="valueColumns")
     @XmlElement(name="column")
     @JsonIgnore
@@ -123,16 +205,36 @@ public class TimeSeries extends CwmsDTOPaginated {
     }
 
     public boolean addValue(Timestamp dateTime, Double value, int qualityCode) {
+        return addValue(dateTime.getTime(), value, qualityCode);
+    }
+
+    /**
+     * @param dateTime milliseconds since the Unix epoch
+     * @return false if the value belongs on the next page and was not added
+     */
+    public boolean addValue(long dateTime, Double value, int qualityCode) {
+        if(claimPageSlot(dateTime, values.size())) {
+            ((TimeSeriesValues) values).add(dateTime, value, qualityCode);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Paging bookkeeping for the value that would become number count on this page.
+     * @return false if the value belongs on the next page
+     */
+    private boolean claimPageSlot(long dateTime, int count) {
         // Set the current page, if not set
-        if((page == null || page.isEmpty()) && values.size() == 0) {
-            page = encodeCursor(String.format("%d", dateTime.getTime()), pageSize, total);
+        if((page == null || page.isEmpty()) && count == 0) {
+            page = encodeCursor(String.format("%d", dateTime), pageSize, total);
         }
-        if(pageSize > 0 && values.size() == pageSize) {
-            nextPage = encodeCursor(String.format("%d", dateTime.toInstant().toEpochMilli()), pageSize, total);
+        if(pageSize > 0 && count == pageSize) {
+            nextPage = encodeCursor(String.format("%d", dateTime), pageSize, total);
             return false;
-        } else {
-            return values.add(new Record(dateTime, value, qualityCode));
         }
+        return true;
     }
 
     private List<Column> getColumnDescriptor(String format) {
@@ -190,7 +292,7 @@ public class TimeSeries extends CwmsDTOPaginated {
         @SuppressWarnings("unused") // required so JAXB can initialize and marshal
         private Record() {}
 
-        protected Record(Timestamp dateTime, Double value, int qualityCode) {
+        public Record(Timestamp dateTime, Double value, int qualityCode) {
             this.dateTime = dateTime;
             this.value = value;
             this.qualityCode = qualityCode;
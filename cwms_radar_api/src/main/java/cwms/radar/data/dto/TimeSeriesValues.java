@@ -0,0 +1,147 @@
+package cwms.radar.data.dto;
+
+import java.sql.Timestamp;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Column oriented storage for time series values.
+ *
+ * Each value costs 20 bytes (epoch millis, double and quality code) plus one bit
+ * to mark nulls, instead of a Record holding a Timestamp, a Double and an int.
+ * The arrays grow geometrically as values are added.
+ *
+ * The List view creates a Record on each get() so JAXB, Jackson and other callers
+ * work unchanged; performance sensitive code should use the column accessors.
+ */
+public final class TimeSeriesValues extends AbstractList<TimeSeries.Record> implements RandomAccess {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] dateTimes = new long[INITIAL_CAPACITY];
+    private double[] values = new double[INITIAL_CAPACITY];
+    private int[] qualityCodes = new int[INITIAL_CAPACITY];
+    // one bit per value, set when the value is null
+    private long[] nulls = new long[1];
+    private int size = 0;
+
+    public void add(long dateTime, Double value, int qualityCode) {
+        ensureCapacity(size + 1);
+        dateTimes[size] = dateTime;
+        qualityCodes[size] = qualityCode;
+        if(value == null) {
+            values[size] = Double.NaN;
+            nulls[size >>> 6] |= 1L << size;
+        } else {
+            values[size] = value;
+            nulls[size >>> 6] &= ~(1L << size);
+        }
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public boolean add(TimeSeries.Record rec) {
+        add(rec.getDateTime().getTime(), rec.getValue(), rec.getQualityCode());
+        return true;
+    }
+
+    @Override
+    public TimeSeries.Record get(int index) {
+        checkIndex(index);
+        return new TimeSeries.Record(new Timestamp(dateTimes[index]), isNull(index) ? null : values[index], qualityCodes[index]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        Arrays.fill(nulls, 0L);
+        modCount++;
+    }
+
+    /**
+     * @return date time of the value at index, in milliseconds since the Unix epoch
+     */
+    public long getDateTime(int index) {
+        checkIndex(index);
+        return dateTimes[index];
+    }
+
+    public boolean isNull(int index) {
+        checkIndex(index);
+        return (nulls[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * @return the value at index, NaN if the value is null; check isNull to tell them apart
+     */
+    public double getValue(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    public int getQualityCode(int index) {
+        checkIndex(index);
+        return qualityCodes[index];
+    }
+
+    /**
+     * A view that hands out one Record, overwritten by every get, so reading it creates no Record
+     * or Timestamp per value. Only for a caller that is done with each record before it asks for
+     * the next, e.g. JAXB writing them out one after the other.
+     */
+    public List<TimeSeries.Record> reusingView() {
+        TimeSeries.Record shared = new TimeSeries.Record(new Timestamp(0), null, 0);
+        return new AbstractList<TimeSeries.Record>() {
+            @Override
+            public TimeSeries.Record get(int index) {
+                checkIndex(index);
+                shared.dateTime.setTime(dateTimes[index]);
+                shared.value = isNull(index) ? null : values[index];
+                shared.qualityCode = qualityCodes[index];
+                return shared;
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * @return a 64 bit FNV-1a hash of every date time, value, null flag and quality code, equal
+     *         for equal values and different, short of a collision, when any of them changed
+     */
+    public long fingerprint() {
+        long hash = 0xcbf29ce484222325L;
+        for(int i = 0; i < size; i++) {
+            hash = (hash ^ dateTimes[i]) * 0x100000001b3L;
+            hash = (hash ^ (isNull(i) ? 1L : Double.doubleToLongBits(values[i]))) * 0x100000001b3L;
+            hash = (hash ^ qualityCodes[i]) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if(capacity > dateTimes.length) {
+            int newCapacity = Math.max(capacity, dateTimes.length * 2);
+            dateTimes = Arrays.copyOf(dateTimes, newCapacity);
+            values = Arrays.copyOf(values, newCapacity);
+            qualityCodes = Arrays.copyOf(qualityCodes, newCapacity);
+            nulls = Arrays.copyOf(nulls, (newCapacity + 63) >>> 6);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
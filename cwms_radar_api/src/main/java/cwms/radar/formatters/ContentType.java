@@ -1,64 +1,89 @@
 package cwms.radar.formatters;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
+/**
+ * An immutable media type with its parameters.
+ *
+ * The quality ("q") parameter only affects ordering, it is ignored by equals, hashCode and toString.
+ */
 public class ContentType implements Comparable<ContentType> {
-    private String contentType;
-    private Map<String,String> parameters;
+    private final String contentType;
+    private final Map<String,String> parameters;
+    // parameters without q, for equals and hashCode
+    private final Map<String,String> identity;
+    private final float priority;
+    private final String text;
+    private final int hash;
 
     public ContentType(String contentTypeHeader){
-        parameters = new HashMap<>();
+        Map<String,String> params = new LinkedHashMap<>();
         String parts[] = contentTypeHeader.split(";");
-        contentType = parts[0];
-        if( parts.length > 1){
-            for( int i = 1; i < parts.length; i++){
-                String key_val[] = parts[i].split("=");
-                parameters.put(key_val[0],key_val[1]);
+        contentType = parts[0].trim();
+        for( int i = 1; i < parts.length; i++){
+            String key_val[] = parts[i].split("=",2);
+            if( key_val.length == 2 ){
+                params.put(key_val[0].trim(),key_val[1].trim());
             }
         }
+        parameters = Collections.unmodifiableMap(params);
+        priority = parsePriority(parameters.get("q"));
+        identity = new HashMap<>(parameters);
+        identity.remove("q");
 
+        StringBuilder builder = new StringBuilder(contentType);
+        for( Map.Entry<String,String> param: parameters.entrySet()){
+            if( param.getKey().equals("q")) continue;
+            builder.append(";").append(param.getKey()).append("=").append(param.getValue());
+        }
+        text = builder.toString();
+        hash = 31 * contentType.hashCode() + identity.hashCode();
+    }
+
+    private static float parsePriority(String q){
+        if( q == null ) return 1.0f;
+        try {
+            return Float.parseFloat(q);
+        } catch( NumberFormatException err ){
+            return 1.0f;
+        }
     }
 
     public String getType(){ return contentType; }
+
+    /**
+     * @return the parameters, read only
+     */
     public Map<String,String> getParameters() {
-        return new HashMap<>(parameters);
+        return parameters;
     }
 
     @Override
     public boolean equals(Object other){
-        System.out.println("Checking + " + this.toString() + " vs " + other.toString());
+        if( this == other ) return true;
         if(!(other instanceof ContentType) ) return false;
         ContentType o = (ContentType)other;
-        if(!(contentType.equals(o.contentType))) return false;
-        for( String key: parameters.keySet() ){
-            if( key.equals("q")) continue; // we don't care about q for equals
-            if( !parameters.get(key).equals(o.parameters.get(key))) return false;
-        }
-        return true;
+        return hash == o.hash && contentType.equals(o.contentType) && identity.equals(o.identity);
     }
 
     @Override
     public int hashCode(){
-        return this.toString().hashCode();
+        return hash;
     }
 
+    /**
+     * Orders by the quality parameter, lowest first.
+     */
     @Override
     public int compareTo(ContentType o) {
-        float myPriority = Float.parseFloat(parameters.getOrDefault("q", "1"));
-        float otherPriority = Float.parseFloat(parameters.getOrDefault("q", "1"));
-        if( myPriority == otherPriority) return 0;
-        else if( myPriority > otherPriority ) return 1;
-        else return -1;
+        return Float.compare(priority, o.priority);
     }
 
     @Override
     public String toString(){
-        StringBuilder builder = new StringBuilder(contentType);
-        for( String key: parameters.keySet()){
-            if( key.equals("q")) continue;
-            builder.append(";").append(key).append("=").append(parameters.get(key));
-        }
-        return builder.toString();
+        return text;
     }
 }
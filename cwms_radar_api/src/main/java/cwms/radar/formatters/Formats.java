@@ -4,6 +4,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -12,6 +13,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -31,36 +34,43 @@ public class Formats {
     public static final String TAB = "text/tab-separated-values";
     public static final String CSV = "text/csv";
     public static final String GEOJSON = "application/geo+json";
+    public static final String CWMS_TS = "application/x-cwms-ts";
 
 
-    private static ArrayList<ContentType> contentTypeList = new ArrayList<>();
-    static {
-        contentTypeList.addAll(
-            Arrays.asList(JSON,XML,WML2,JSONV2,TAB,CSV, GEOJSON)
+    // Media types content negotiation can settle on
+    private static final List<ContentType> contentTypeList = Collections.unmodifiableList(
+            Arrays.asList(JSON,XML,WML2,JSONV2,XMLV2,TAB,CSV,GEOJSON,CWMS_TS)
             .stream().map( ct -> new ContentType(ct)).collect(Collectors.toList()));
-    }
-    private static HashMap<String,String> type_map =new HashMap<>();
+    private static final ContentType DEFAULT_TYPE = new ContentType(Formats.JSON);
+
+    private static final Map<String,ContentType> type_map;
     static{
-        type_map.put("json",Formats.JSON);
-        type_map.put("xml",Formats.XML);
-        type_map.put("wml2",Formats.WML2);
-        type_map.put("tab",Formats.TAB);
-        type_map.put("csv",Formats.CSV);
-        type_map.put("geojson",Formats.GEOJSON);
+        Map<String,ContentType> tmp = new HashMap<>();
+        tmp.put("json",new ContentType(Formats.JSON));
+        tmp.put("xml",new ContentType(Formats.XML));
+        tmp.put("wml2",new ContentType(Formats.WML2));
+        tmp.put("tab",new ContentType(Formats.TAB));
+        tmp.put("csv",new ContentType(Formats.CSV));
+        tmp.put("geojson",new ContentType(Formats.GEOJSON));
+        tmp.put("cwms-ts",new ContentType(Formats.CWMS_TS));
+        type_map = Collections.unmodifiableMap(tmp);
     };
 
+    // Results of content negotiation per Accept header. Clients send a handful of distinct
+    // headers, the limit only guards against someone sending a new one with every request.
+    private static final int MAX_NEGOTIATED = Integer.parseInt(System.getProperty("RADAR_ACCEPT_CACHE_SIZE","256"));
+    private static final ConcurrentHashMap<String,ContentType> negotiated = new ConcurrentHashMap<>();
 
-    private Map<ContentType, Map<Class<CwmsDTO>,OutputFormatter> > formatters = null;
-
-    private static Formats formats = null;
+    // content-type -> dto class -> formatter, built once and read only afterwards
+    private final Map<ContentType, Map<Class<?>,OutputFormatter>> formatters;
 
     private Formats() throws IOException{
-        formatters = new HashMap<>();
+        Map<ContentType, Map<Class<?>,OutputFormatter>> tmpFormatters = new HashMap<>();
         InputStream formatList = ResourceHelper.getResourceAsStream("/formats.list", this.getClass());
         BufferedReader br = new BufferedReader(new InputStreamReader(formatList));
         while( br.ready() ){
             String line = br.readLine();
-            logger.info(line);
+            logger.fine(line);
             String type_formatter_classes[] = line.split(":");
 
             ContentType type = new ContentType(type_formatter_classes[0]);
@@ -70,15 +80,14 @@ public class Formats {
                 OutputFormatter formatterInstance;
 
 				formatterInstance = formatter.getDeclaredConstructor().newInstance();
-                Map<Class<CwmsDTO>,OutputFormatter> tmp = new HashMap<>();
+                Map<Class<?>,OutputFormatter> tmp = new HashMap<>();
 
                 for(String clazz: type_formatter_classes[2].split(";") ){
-                    @SuppressWarnings("unchecked")
-                    Class<CwmsDTO> formatForClass = (Class<CwmsDTO>)Class.forName(clazz);
+                    Class<?> formatForClass = Class.forName(clazz);
                     tmp.put( formatForClass, formatterInstance);
                 }
 
-                formatters.put(type,tmp);
+                tmpFormatters.put(type,Collections.unmodifiableMap(tmp));
 			} catch (InstantiationException | IllegalAccessException | IllegalArgumentException
 					| InvocationTargetException | NoSuchMethodException | SecurityException e) {
 				throw new IOException("Failed to load format list, formatter for " + type_formatter_classes[0] + " point to a class with an invalid constructor",e);
@@ -86,58 +95,94 @@ public class Formats {
 				throw new IOException("Failed to find class referenced for formatter " + type_formatter_classes[0],e );
 			}
         }
-
+        formatters = Collections.unmodifiableMap(tmpFormatters);
     }
 
+    private OutputFormatter getFormatter(ContentType type, Class<?> klass) throws FormattingException{
+        Map<Class<?>, OutputFormatter> contentFormatters = formatters.get(type);
+        OutputFormatter formatter = contentFormatters != null ? contentFormatters.get(klass) : null;
+        if( formatter == null ){
+            throw new FormattingException("No Format for this content-type and data-type : (" + type.toString() + ", " + klass.getName() + ")");
+        }
+        return formatter;
+    }
 
     private String getFormatted(ContentType type, CwmsDTO toFormat) throws FormattingException{
         Objects.requireNonNull(toFormat,"Object to be formatted should not be null");
-        for(ContentType key: formatters.keySet()){
-            logger.info(key.toString());
-        }
-        Map<Class<CwmsDTO>, OutputFormatter> contentFormatters = (Map<Class<CwmsDTO>, OutputFormatter>) formatters.get(type);
-        if( contentFormatters != null ){
-            return contentFormatters.get(toFormat.getClass()).format(toFormat);
-        } else {
-            throw new FormattingException("No Format for this content-type and data-type : (" + type.toString() + ", " + toFormat.getClass().getName() + ")");
-        }
+        return getFormatter(type,toFormat.getClass()).format(toFormat);
+    }
 
+    private void getFormatted(ContentType type, CwmsDTO toFormat, OutputStream out) throws FormattingException{
+        Objects.requireNonNull(toFormat,"Object to be formatted should not be null");
+        getFormatter(type,toFormat.getClass()).format(toFormat, out);
     }
 
     private String getFormatted(ContentType type, List<? extends CwmsDTO> toFormat) throws FormattingException{
-        for(ContentType key: formatters.keySet()){
-            logger.info(key.toString());
-        }
-        Map<Class<CwmsDTO>, OutputFormatter> contentFormatters = (Map<Class<CwmsDTO>, OutputFormatter>) formatters.get(type);
-        if( contentFormatters != null ){
-            return contentFormatters.get(toFormat.get(0).getClass()).format(toFormat);
-        } else {
-            throw new FormattingException("No Format for this content-type and data type : (" + type.toString() + ", " + toFormat.getClass().getName() + ")");
-        }
-
+        return getFormatter(type,toFormat.get(0).getClass()).format(toFormat);
     }
 
-    private static void init(){
+    private static volatile Formats instance;
+
+    /**
+     * Loads the formatters the first time any of them is needed, once, however many requests
+     * ask at the same time. A failed load is not kept, the next call tries again.
+     */
+    private static Formats instance() throws FormattingException{
+        Formats formats = instance;
         if( formats == null ){
-            logger.info("creating instance");
-            try {
-                formats = new Formats();
-            } catch( IOException err){
-                throw new FormattingException("Failed to load format map", err);
+            synchronized(Formats.class){
+                formats = instance;
+                if( formats == null ){
+                    try {
+                        formats = new Formats();
+                    } catch( IOException err ){
+                        logger.log(Level.SEVERE, "Failed to load format map", err);
+                        throw new FormattingException("Failed to load format map", err);
+                    }
+                    instance = formats;
+                }
             }
         }
+        return formats;
+    }
+
+    /**
+     * Loads every formatter and lets each one build its serializers for the types it handles,
+     * so the first requests after startup don't pay for it.
+     * Problems are logged, the affected formatter will just be slower on first use.
+     */
+    public static void warmUp() throws FormattingException{
+        long start = System.currentTimeMillis();
+        Formats formats = instance();
+        for( Map.Entry<ContentType, Map<Class<?>,OutputFormatter>> entry: formats.formatters.entrySet() ){
+            for( Map.Entry<Class<?>,OutputFormatter> formatter: entry.getValue().entrySet() ){
+                try {
+                    formatter.getValue().warmUp(formatter.getKey());
+                } catch( RuntimeException err ){
+                    logger.log(Level.WARNING, "Unable to warm up " + entry.getKey() + " formatter for " + formatter.getKey().getName(), err);
+                }
+            }
+        }
+        logger.info("Formatters ready in " + (System.currentTimeMillis() - start) + "ms");
     }
 
     public static String format(ContentType type, CwmsDTO toFormat) throws FormattingException{
-        logger.info("formats");
-        init();
-        return formats.getFormatted(type,toFormat);
+        return instance().getFormatted(type,toFormat);
+    }
+
+    /**
+     * Format the data straight onto the given stream instead of building a String.
+     * @param type negotiated content type
+     * @param toFormat data to format
+     * @param out destination stream, flushed but not closed
+     * @throws FormattingException if no formatter exists or the output could not be written
+     */
+    public static void format(ContentType type, CwmsDTO toFormat, OutputStream out) throws FormattingException{
+        instance().getFormatted(type,toFormat,out);
     }
 
     public static String format(ContentType type, List<? extends CwmsDTO> toFormat) throws FormattingException{
-        logger.info("format list");
-        init();
-        return formats.getFormatted(type,toFormat);
+        return instance().getFormatted(type,toFormat);
     }
 
 
@@ -149,34 +194,42 @@ public class Formats {
      */
     public static ContentType parseHeaderAndQueryParm(String header, String queryParam){
         if( queryParam != null && !queryParam.isEmpty() ){
-            String val = type_map.get(queryParam);
+            ContentType val = type_map.get(queryParam);
             if( val != null ){
-                return new ContentType(val);
+                return val;
             } else {
                 throw new FormattingException("content-type " + queryParam + " is not implemented");
             }
         } else if( header == null ){
             throw new FormattingException("no content type or format specified");
         } else {
-            String all[] = header.split(",");
-            ArrayList<ContentType> contentTypes = new ArrayList<>();
-            logger.info("Finding handlers " + all.length);
-            for( String ct: all){
-                logger.info(ct);
-                contentTypes.add(new ContentType(ct));
-            }
-            Collections.sort(contentTypes);
-            logger.info("have " + contentTypes.size());
-            for( ContentType ct: contentTypes ){
-                logger.info("checking " + ct.toString());
-                if( contentTypeList.contains(ct)){
-                    return ct;
+            ContentType ct = negotiated.get(header);
+            if( ct == null ){
+                ct = negotiate(header);
+                if( negotiated.size() < MAX_NEGOTIATED ){
+                    negotiated.putIfAbsent(header, ct);
                 }
             }
-            for( ContentType ct: contentTypes ){
-                if( ct.getType().equals("*/*")){
-                    return new ContentType(Formats.JSON);
-                }
+            return ct;
+        }
+    }
+
+    private static ContentType negotiate(String header){
+        String all[] = header.split(",");
+        ArrayList<ContentType> contentTypes = new ArrayList<>(all.length);
+        for( String ct: all){
+            contentTypes.add(new ContentType(ct));
+        }
+        // highest quality first, the sort is stable so equal qualities keep the client's order
+        contentTypes.sort(Collections.reverseOrder());
+        for( ContentType ct: contentTypes ){
+            if( contentTypeList.contains(ct)){
+                return ct;
+            }
+        }
+        for( ContentType ct: contentTypes ){
+            if( ct.getType().equals("*/*")){
+                return DEFAULT_TYPE;
             }
         }
         throw new FormattingException("Content-Type " + header + " is not available");
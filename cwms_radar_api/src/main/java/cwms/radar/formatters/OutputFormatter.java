@@ -1,5 +1,8 @@
 package cwms.radar.formatters;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import cwms.radar.data.dto.CwmsDTO;
@@ -8,4 +11,30 @@ public interface OutputFormatter {
     public String getContentType();
     public String format(CwmsDTO dto);
     public String format(List<? extends CwmsDTO> dtoList);
+
+    /**
+     * Write the formatted representation of the dto directly to the given stream.
+     * Formatters that can render incrementally should override this so large
+     * results never need to exist as a single String.
+     * The stream is flushed but not closed.
+     * @param dto the data to format
+     * @param out destination, typically the servlet response stream
+     */
+    public default void format(CwmsDTO dto, OutputStream out) {
+        try {
+            out.write(format(dto).getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch( IOException err ){
+            throw new FormattingException("Could not write formatted output", err);
+        }
+    }
+
+    /**
+     * Build anything expensive that would otherwise be created on first use, such as
+     * serializers, for the given data type. Called once at startup when warm-up is enabled.
+     * @param dataType one of the types this formatter is registered for
+     */
+    public default void warmUp(Class<?> dataType) {
+        // nothing to prepare by default
+    }
 }
@@ -0,0 +1,257 @@
+package cwms.radar.formatters.binary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import cwms.radar.data.dto.CwmsDTO;
+import cwms.radar.data.dto.TimeSeries;
+import cwms.radar.data.dto.TimeSeriesValues;
+import cwms.radar.formatters.Formats;
+import cwms.radar.formatters.FormattingException;
+import cwms.radar.formatters.OutputFormatter;
+import service.annotations.FormatService;
+
+/**
+ * Compact binary time series, application/x-cwms-ts.
+ *
+ * All numbers are big-endian. A varint is an unsigned LEB128 number, 7 bits per byte with the
+ * high bit set on every byte but the last; signed numbers are zigzag encoded first
+ * ((n &lt;&lt; 1) ^ (n &gt;&gt; 63)). A string is a varint byte length followed by UTF-8, empty
+ * if the value is unknown.
+ * <pre>
+ * header   "CWTS", version byte (1), name, office, units (strings),
+ *          interval minutes (signed varint), begin and end epoch millis (signed varints),
+ *          time zone id (string)
+ * blocks   any number of, each holding at most 4096 values:
+ *            count (varint, never 0)
+ *            date times: first epoch millis, then the difference to the previous one (signed varints)
+ *            values: count IEEE 754 doubles, NaN where the value is null
+ *            null bitmap: (count + 7) / 8 bytes, bit i % 8 of byte i / 8 set if value i is null
+ *            quality codes: number of runs (varint), then code (signed varint) and length (varint) per run
+ * end      count 0
+ * trailer  page, next page (strings), total (signed varint, -1 if unknown), page size (signed varint)
+ * </pre>
+ * The paging fields are at the end so values still pending in a database cursor can be written as
+ * they are read.
+ */
+@FormatService(contentType = Formats.CWMS_TS, dataTypes = {TimeSeries.class})
+public class CwmsTsV1 implements OutputFormatter {
+    static final int VERSION = 1;
+    // magic number and format version
+    private static final byte[] SIGNATURE = {'C', 'W', 'T', 'S', VERSION};
+    static final int BLOCK_SIZE = 4096;
+
+    @Override
+    public String getContentType() {
+        return Formats.CWMS_TS;
+    }
+
+    @Override
+    public String format(CwmsDTO dto) {
+        throw new FormattingException(Formats.CWMS_TS + " is binary and can only be written to a stream");
+    }
+
+    @Override
+    public String format(List<? extends CwmsDTO> dtoList) {
+        throw new FormattingException(Formats.CWMS_TS + " is binary and can only be written to a stream");
+    }
+
+    @Override
+    public void format(CwmsDTO dto, OutputStream out) {
+        if( !(dto instanceof TimeSeries) ){
+            throw new FormattingException(Formats.CWMS_TS + " can not format " + dto.getClass().getName());
+        }
+        TimeSeries ts = (TimeSeries) dto;
+        try {
+            Encoder encoder = new Encoder(out);
+            writeHeader(encoder, ts);
+            Block block = new Block(encoder);
+            if( ts.hasPendingValues() ){
+                try {
+                    ts.forEachPendingValue(rec -> {
+                        try {
+                            Double value = rec.getValue();
+                            block.add(rec.getDateTime().getTime(), value == null, value == null ? Double.NaN : value, rec.getQualityCode());
+                        } catch( IOException err ){
+                            throw new UncheckedIOException(err);
+                        }
+                    });
+                } catch( UncheckedIOException err ){
+                    throw err.getCause();
+                }
+            } else {
+                // straight from the primitive columns, no Record objects needed
+                TimeSeriesValues columns = ts.valueColumns();
+                for( int i = 0; i < columns.size(); i++ ){
+                    block.add(columns.getDateTime(i), columns.isNull(i), columns.getValue(i), columns.getQualityCode(i));
+                }
+            }
+            block.flush();
+            encoder.ensure(1);
+            encoder.varint(0);
+            encoder.string(ts.getPage());
+            encoder.string(ts.getNextPage());
+            encoder.ensure(20);
+            encoder.signed(ts.getTotal() == null ? -1 : ts.getTotal());
+            encoder.signed(ts.getPageSize());
+            encoder.flush();
+        } catch( IOException err ){
+            throw new FormattingException("Could not format :" + dto, err);
+        }
+    }
+
+    private static void writeHeader(Encoder encoder, TimeSeries ts) throws IOException {
+        encoder.bytes(SIGNATURE);
+        encoder.string(ts.getName());
+        encoder.string(ts.getOfficeId());
+        encoder.string(ts.getUnits());
+        encoder.ensure(30);
+        encoder.signed(ts.getIntervalMinutes());
+        encoder.signed(ts.getBegin() == null ? 0 : ts.getBegin().toInstant().toEpochMilli());
+        encoder.signed(ts.getEnd() == null ? 0 : ts.getEnd().toInstant().toEpochMilli());
+        encoder.string(ts.getBegin() == null ? null : ts.getBegin().getZone().getId());
+    }
+
+    /**
+     * Encodes into a private buffer that is handed to the stream in large writes.
+     */
+    private static final class Encoder {
+        // fits a whole block in the worst case, see Block
+        private static final int CAPACITY = BLOCK_SIZE * 28 + 64;
+        private final OutputStream out;
+        private final byte[] buffer = new byte[CAPACITY];
+        private int position = 0;
+
+        Encoder(OutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * Makes room for length bytes, varint, signed and putDouble write without checking.
+         */
+        void ensure(int length) throws IOException {
+            if( position + length > buffer.length ){
+                out.write(buffer, 0, position);
+                position = 0;
+            }
+        }
+
+        void varint(long value) {
+            while( (value & ~0x7FL) != 0 ){
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void signed(long value) {
+            varint((value << 1) ^ (value >> 63));
+        }
+
+        void putDouble(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            for( int shift = 56; shift >= 0; shift -= 8 ){
+                buffer[position++] = (byte) (bits >>> shift);
+            }
+        }
+
+        void bytes(byte[] bytes) throws IOException {
+            bytes(bytes, bytes.length);
+        }
+
+        void bytes(byte[] bytes, int length) throws IOException {
+            if( length > buffer.length ){
+                ensure(buffer.length);
+                out.write(bytes, 0, length);
+            } else {
+                ensure(length);
+                System.arraycopy(bytes, 0, buffer, position, length);
+                position += length;
+            }
+        }
+
+        void string(String value) throws IOException {
+            byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+            ensure(10);
+            varint(bytes.length);
+            bytes(bytes);
+        }
+
+        void flush() throws IOException {
+            out.write(buffer, 0, position);
+            position = 0;
+            out.flush();
+        }
+    }
+
+    /**
+     * Collects values column by column and encodes them every BLOCK_SIZE values.
+     */
+    private static final class Block {
+        private final Encoder encoder;
+        private final long[] dateTimes = new long[BLOCK_SIZE];
+        private final double[] values = new double[BLOCK_SIZE];
+        private final int[] qualityCodes = new int[BLOCK_SIZE];
+        private final byte[] nulls = new byte[BLOCK_SIZE / 8];
+        private int size = 0;
+
+        Block(Encoder encoder) {
+            this.encoder = encoder;
+        }
+
+        void add(long dateTime, boolean isNull, double value, int qualityCode) throws IOException {
+            dateTimes[size] = dateTime;
+            values[size] = isNull ? Double.NaN : value;
+            qualityCodes[size] = qualityCode;
+            if( isNull ){
+                nulls[size >>> 3] |= 1 << (size & 7);
+            }
+            size++;
+            if( size == BLOCK_SIZE ){
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            if( size == 0 ){
+                return;
+            }
+            // at most 10 bytes per date time, 8 per value, 1/8 for the nulls and 10 per quality run
+            encoder.ensure(size * 28 + 32);
+            encoder.varint(size);
+            long previous = 0;
+            for( int i = 0; i < size; i++ ){
+                encoder.signed(dateTimes[i] - previous);
+                previous = dateTimes[i];
+            }
+            for( int i = 0; i < size; i++ ){
+                encoder.putDouble(values[i]);
+            }
+            int nullBytes = (size + 7) >>> 3;
+            encoder.bytes(nulls, nullBytes);
+
+            int runs = 1;
+            for( int i = 1; i < size; i++ ){
+                if( qualityCodes[i] != qualityCodes[i - 1] ){
+                    runs++;
+                }
+            }
+            encoder.varint(runs);
+            int start = 0;
+            for( int i = 1; i <= size; i++ ){
+                if( i == size || qualityCodes[i] != qualityCodes[start] ){
+                    encoder.signed(qualityCodes[start]);
+                    encoder.varint(i - start);
+                    start = i;
+                }
+            }
+
+            Arrays.fill(nulls, 0, nullBytes, (byte) 0);
+            size = 0;
+        }
+    }
+}
@@ -42,6 +42,13 @@ public class JsonV1 implements OutputFormatter{
 		this.om.setSerializationInclusion(JsonInclude.Include.NON_NULL);
 	}
 
+	@Override
+	public void warmUp(Class<?> dataType)
+	{
+		// finds and caches the serializers for the type and everything it references
+		om.canSerialize(dataType);
+	}
+
 	@Override
 	public String getContentType() {
 		return Formats.JSON;
@@ -1,11 +1,20 @@
 package cwms.radar.formatters.json;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import cwms.radar.data.dto.Catalog;
 import cwms.radar.data.dto.Clob;
@@ -14,6 +23,7 @@ import cwms.radar.data.dto.CwmsDTO;
 import cwms.radar.data.dto.Location;
 import cwms.radar.data.dto.Office;
 import cwms.radar.data.dto.TimeSeries;
+import cwms.radar.data.dto.TimeSeriesValues;
 import cwms.radar.formatters.Formats;
 import cwms.radar.formatters.FormattingException;
 import cwms.radar.formatters.OutputFormatter;
@@ -33,6 +43,8 @@ import service.annotations.FormatService;
 public class JsonV2 implements OutputFormatter {
 
 	private final ObjectMapper om;
+	// Same configuration as om, but leaves the (potentially huge) values out so they can be streamed.
+	private final ObjectMapper headerMapper;
 
 	public JsonV2()
 	{
@@ -45,6 +57,21 @@ public class JsonV2 implements OutputFormatter {
 		this.om.setPropertyNamingStrategy(PropertyNamingStrategies.KEBAB_CASE);
 		this.om.setSerializationInclusion(JsonInclude.Include.NON_NULL);
 		this.om.registerModule(new JavaTimeModule());
+		this.om.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+
+		this.headerMapper = this.om.copy();
+		this.headerMapper.addMixIn(TimeSeries.class, TimeSeriesHeader.class);
+	}
+
+	@Override
+	public void warmUp(Class<?> dataType)
+	{
+		// finds and caches the serializers for the type and everything it references
+		om.canSerialize(dataType);
+		if(dataType == TimeSeries.class)
+		{
+			headerMapper.canSerialize(dataType);
+		}
 	}
 
 	@Override
@@ -54,6 +81,11 @@ public class JsonV2 implements OutputFormatter {
 
 	@Override
 	public String format(CwmsDTO dto) {
+		if(dto instanceof TimeSeries)
+		{
+			// paging fields are only correct once the values have been read
+			((TimeSeries) dto).loadPendingValues();
+		}
 		try
 		{
 			return om.writeValueAsString(dto);
@@ -69,4 +101,136 @@ public class JsonV2 implements OutputFormatter {
 		return JavalinJson.toJson(dtoList);
 	}
 
+	@Override
+	public void format(CwmsDTO dto, OutputStream out) {
+		try(JsonGenerator gen = om.getFactory().createGenerator(out))
+		{
+			if(dto instanceof TimeSeries)
+			{
+				writeTimeSeries(gen, (TimeSeries) dto);
+			}
+			else
+			{
+				om.writeValue(gen, dto);
+			}
+			gen.flush();
+		}
+		catch(IOException e)
+		{
+			throw new FormattingException("Could not format :" + dto, e);
+		}
+	}
+
+	/**
+	 * Writes the time series metadata through the regular bean serializer, then the
+	 * values one record at a time so the output never has to be held in memory.
+	 * The result is identical to {@link #format(CwmsDTO)}, except that values still
+	 * pending in a database cursor are written as they are read, which moves the
+	 * page and next-page fields after the values, and the total too if it is only
+	 * known once they were read.
+	 */
+	private void writeTimeSeries(JsonGenerator gen, TimeSeries ts) throws IOException
+	{
+		boolean pending = ts.hasPendingValues();
+		boolean totalLater = pending && ts.getTotal() == null;
+		ObjectNode header = headerMapper.valueToTree(ts);
+		if(pending)
+		{
+			// Not known until the cursor has been read
+			header.remove("page");
+			header.remove("next-page");
+		}
+
+		gen.writeStartObject();
+		Iterator<Map.Entry<String, JsonNode>> fields = header.fields();
+		while(fields.hasNext())
+		{
+			Map.Entry<String, JsonNode> field = fields.next();
+			gen.writeFieldName(field.getKey());
+			gen.writeTree(field.getValue());
+		}
+
+		gen.writeArrayFieldStart("values");
+		if(pending)
+		{
+			try
+			{
+				ts.forEachPendingValue(rec -> {
+					try
+					{
+						writeRecord(gen, rec);
+					}
+					catch(IOException e)
+					{
+						throw new UncheckedIOException(e);
+					}
+				});
+			}
+			catch(UncheckedIOException e)
+			{
+				throw e.getCause();
+			}
+		}
+		else
+		{
+			// Straight from the primitive columns, no Record objects needed
+			TimeSeriesValues columns = ts.valueColumns();
+			for(int i = 0; i < columns.size(); i++)
+			{
+				gen.writeStartArray();
+				gen.writeNumber(columns.getDateTime(i));
+				if(columns.isNull(i))
+				{
+					gen.writeNull();
+				}
+				else
+				{
+					gen.writeNumber(columns.getValue(i));
+				}
+				gen.writeNumber(columns.getQualityCode(i));
+				gen.writeEndArray();
+			}
+		}
+		gen.writeEndArray();
+
+		if(pending)
+		{
+			if(ts.getPage() != null)
+			{
+				gen.writeStringField("page", ts.getPage());
+			}
+			if(ts.getNextPage() != null)
+			{
+				gen.writeStringField("next-page", ts.getNextPage());
+			}
+			if(totalLater && ts.getTotal() != null)
+			{
+				gen.writeNumberField("total", ts.getTotal());
+			}
+		}
+		gen.writeEndObject();
+	}
+
+	private static void writeRecord(JsonGenerator gen, TimeSeries.Record rec) throws IOException
+	{
+		// Array shape, matching the @JsonFormat on TimeSeries.values
+		gen.writeStartArray();
+		gen.writeNumber(rec.getDateTime().getTime());
+		if(rec.getValue() == null)
+		{
+			gen.writeNull();
+		}
+		else
+		{
+			gen.writeNumber(rec.getValue());
+		}
+		gen.writeNumber(rec.getQualityCode());
+		gen.writeEndArray();
+	}
+
+	@JsonIgnoreProperties({"values"})
+	private static abstract class TimeSeriesHeader
+	{
+	}
+
 }
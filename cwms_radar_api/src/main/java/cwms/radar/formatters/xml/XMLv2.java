@@ -1,8 +1,11 @@
 package cwms.radar.formatters.xml;
 
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -14,6 +17,7 @@ import cwms.radar.data.dto.Clobs;
 import cwms.radar.data.dto.CwmsDTO;
 import cwms.radar.data.dto.TimeSeries;
 import cwms.radar.formatters.Formats;
+import cwms.radar.formatters.FormattingException;
 import cwms.radar.formatters.OutputFormatter;
 import io.javalin.http.InternalServerErrorResponse;
 import service.annotations.FormatService;
@@ -21,19 +25,42 @@ import service.annotations.FormatService;
 @FormatService(contentType = Formats.XMLV2, dataTypes = {TimeSeries.class, Clobs.class})
 public class XMLv2 implements OutputFormatter {
     private static Logger logger = Logger.getLogger(XMLv2.class.getName());
-    private JAXBContext context = null;
-    private Marshaller mar = null;
+    // marshallers kept for reuse, more than this are created when busy and dropped afterwards
+    private static final int IDLE_MARSHALLERS = 8;
+    // JAXBContext is thread safe, Marshaller is not so each call borrows its own. A pool rather than
+    // a ThreadLocal, which would leave marshallers on the container's threads and keep this webapp's
+    // classes loaded after a redeploy.
+    private final JAXBContext context;
+    private final BlockingQueue<Marshaller> marshallers = new ArrayBlockingQueue<>(IDLE_MARSHALLERS);
 
     public XMLv2() throws InternalServerErrorResponse{
         try {
-            context = JAXBContext.newInstance(TimeSeries.class);
-            mar = context.createMarshaller();
-            mar.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT,Boolean.TRUE);
+            // One context for every type this formatter is registered for
+            context = JAXBContext.newInstance(XMLv2.class.getAnnotation(FormatService.class).dataTypes());
+            // build one now so configuration problems show up at startup
+            marshallers.offer(createMarshaller());
         } catch( JAXBException jaxb ){
             logger.log(Level.SEVERE, "Unable to build XML Marshaller", jaxb);
             throw new InternalServerErrorResponse("Internal error");
         }
+    }
+
+    private Marshaller createMarshaller() throws JAXBException {
+        Marshaller mar = context.createMarshaller();
+        mar.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT,Boolean.TRUE);
+        return mar;
+    }
+
+    private Marshaller borrow() throws JAXBException {
+        Marshaller mar = marshallers.poll();
+        return mar != null ? mar : createMarshaller();
+    }
 
+    /**
+     * Only for marshallers that finished without an error, a failed one may be left half way.
+     */
+    private void release(Marshaller mar) {
+        marshallers.offer(mar);
     }
 
     @Override
@@ -43,18 +70,31 @@ public class XMLv2 implements OutputFormatter {
 
     @Override
     public String format(CwmsDTO dto) {
+        prepare(dto);
         try{
             StringWriter sw = new StringWriter();
-            PrintWriter pw = new PrintWriter(sw);
-            mar.marshal(dto,pw);
+            Marshaller mar = borrow();
+            mar.marshal(dto,sw);
+            release(mar);
             return sw.toString();
         } catch( JAXBException jaxb ){
-            String msg = dto != null ?
-                    "Error rendering '" + dto.toString() + "' to XML"
-                    :
-                    "Null element passed to formatter";
-            logger.log(Level.WARNING, msg, jaxb);
-            throw new InternalServerErrorResponse("Invalid Parameters");
+            throw renderingError(dto, jaxb);
+        }
+    }
+
+    @Override
+    public void format(CwmsDTO dto, OutputStream out) {
+        prepare(dto);
+        try{
+            // JAXB writes UTF-8, the same encoding the XML declaration states
+            Marshaller mar = borrow();
+            mar.marshal(dto,out);
+            release(mar);
+            out.flush();
+        } catch( JAXBException jaxb ){
+            throw renderingError(dto, jaxb);
+        } catch( IOException err ){
+            throw new FormattingException("Could not write XML output", err);
         }
     }
 
@@ -63,4 +103,20 @@ public class XMLv2 implements OutputFormatter {
         throw new UnsupportedOperationException("Unable to process your request");
     }
 
+    private static void prepare(CwmsDTO dto) {
+        if( dto instanceof TimeSeries ){
+            // JAXB reads the fields directly, make sure lazily fetched values are there
+            ((TimeSeries)dto).loadPendingValues();
+        }
+    }
+
+    private static InternalServerErrorResponse renderingError(CwmsDTO dto, JAXBException err) {
+        String msg = dto != null ?
+                "Error rendering '" + dto.toString() + "' to XML"
+                :
+                "Null element passed to formatter";
+        logger.log(Level.WARNING, msg, err);
+        return new InternalServerErrorResponse("Invalid Parameters");
+    }
+
 }
@@ -16,6 +16,6 @@ public class TimestampAdapter extends XmlAdapter<String, Timestamp> {
 
     @Override
     public String marshal(Timestamp v) throws Exception {
-        return String.format("%d", v.getTime());
+        return Long.toString(v.getTime());
     }
 }
@@ -0,0 +1,42 @@
+package cwms.radar.formatters.xml.adapters;
+
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.adapters.XmlAdapter;
+
+import cwms.radar.data.dto.TimeSeries;
+import cwms.radar.data.dto.TimeSeriesValues;
+
+/**
+ * Marshals time series values as a values element holding one record element per value.
+ *
+ * Adapts the whole list rather than each record, so JAXB reads the columns through
+ * {@link TimeSeriesValues#reusingView()} instead of a new Record per value.
+ */
+public class ValuesAdapter extends XmlAdapter<ValuesAdapter.Values, List<TimeSeries.Record>> {
+
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static class Values {
+        @XmlElement(name = "record")
+        List<TimeSeries.Record> records;
+    }
+
+    @Override
+    public List<TimeSeries.Record> unmarshal(Values v) throws Exception {
+        TimeSeriesValues values = new TimeSeriesValues();
+        if( v.records != null ){
+            values.addAll(v.records);
+        }
+        return values;
+    }
+
+    @Override
+    public Values marshal(List<TimeSeries.Record> v) throws Exception {
+        Values values = new Values();
+        values.records = v instanceof TimeSeriesValues ? ((TimeSeriesValues) v).reusingView() : v;
+        return values;
+    }
+}
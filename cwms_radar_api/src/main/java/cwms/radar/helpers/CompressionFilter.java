@@ -0,0 +1,613 @@
+package cwms.radar.helpers;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Compresses responses with gzip or deflate, whichever the client prefers in Accept-Encoding.
+ *
+ * The response is compressed as it is written, nothing beyond the first RADAR_COMPRESSION_MIN_SIZE
+ * bytes is held back, so streamed formatters keep streaming. Responses that end before reaching
+ * that size are sent as is, so do responses that already set a Content-Encoding or have a type
+ * that is already compressed.
+ *
+ * A strong ETag has to differ between content codings (RFC 7232 section 2.3.3), so compressed
+ * responses get the coding appended to it, "tag--gzip", the way Apache httpd does it. The suffix is
+ * taken off If-None-Match again before the request reaches the handler, which only knows the plain tag.
+ *
+ * Configuration:
+ * <ul>
+ * <li>RADAR_COMPRESSION, false to turn compression off (default true)</li>
+ * <li>RADAR_COMPRESSION_MIN_SIZE, smallest response in bytes worth compressing (default 1024)</li>
+ * <li>RADAR_COMPRESSION_LEVEL, 1 (fastest) to 9 (smallest) (default 6)</li>
+ * </ul>
+ */
+public class CompressionFilter implements Filter {
+    // Where MetricsServlet.ContextListener puts the registry
+    static final String METRICS_REGISTRY_ATTRIBUTE = "com.codahale.metrics.servlets.MetricsServlet.registry";
+    private static final int BUFFER_SIZE = 8192;
+    private static final Pattern CODED_ETAG = Pattern.compile("--(gzip|deflate)\"");
+
+    private final boolean enabled = Boolean.parseBoolean(System.getProperty("RADAR_COMPRESSION", "true"));
+    private final int minSize = Integer.parseInt(System.getProperty("RADAR_COMPRESSION_MIN_SIZE", "1024"));
+    private final int level = Integer.parseInt(System.getProperty("RADAR_COMPRESSION_LEVEL", "6"));
+
+    private MetricRegistry metrics;
+    private Meter bytesIn;
+    private Meter bytesOut;
+    private Meter skipped;
+
+    /**
+     * Takes the registry from the servlet context on init.
+     */
+    public CompressionFilter() {
+        this(null);
+    }
+
+    public CompressionFilter(MetricRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+        if( metrics == null ){
+            ServletContext context = config.getServletContext();
+            Object registry = context != null ? context.getAttribute(METRICS_REGISTRY_ATTRIBUTE) : null;
+            metrics = registry instanceof MetricRegistry ? (MetricRegistry) registry : new MetricRegistry();
+        }
+        registerMetrics();
+    }
+
+    private synchronized void registerMetrics() {
+        if( bytesIn == null ){
+            if( metrics == null ){
+                metrics = new MetricRegistry();
+            }
+            bytesIn = metrics.meter(name(CompressionFilter.class, "bytes", "uncompressed"));
+            bytesOut = metrics.meter(name(CompressionFilter.class, "bytes", "compressed"));
+            skipped = metrics.meter(name(CompressionFilter.class, "responses", "uncompressed"));
+        }
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if( !enabled || !(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse) ){
+            chain.doFilter(request, response);
+            return;
+        }
+        registerMetrics();
+        HttpServletRequest req = (HttpServletRequest) request;
+        HttpServletResponse res = (HttpServletResponse) response;
+        res.addHeader("Vary", "Accept-Encoding");
+
+        String encoding = negotiate(req.getHeader("Accept-Encoding"));
+        if( encoding == null || "HEAD".equalsIgnoreCase(req.getMethod()) || req.getHeader("Range") != null ){
+            chain.doFilter(request, response);
+            return;
+        }
+
+        CompressingResponse compressing = new CompressingResponse(res, encoding, req.getHeader("If-None-Match"));
+        CompressingRequest wrapped = new CompressingRequest(req, compressing);
+        try {
+            chain.doFilter(wrapped, compressing);
+        } finally {
+            // async responses are finished when the AsyncContext completes
+            if( !wrapped.isAsyncStarted() ){
+                compressing.finish();
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        // nothing to release
+    }
+
+    /**
+     * @param acceptEncoding Accept-Encoding request header
+     * @return "gzip", "deflate", or null to send the response as is
+     */
+    static String negotiate(String acceptEncoding) {
+        if( acceptEncoding == null || acceptEncoding.isEmpty() ){
+            return null;
+        }
+        float gzip = -1;
+        float deflate = -1;
+        float any = -1;
+        for( String part: acceptEncoding.split(",") ){
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase(Locale.ROOT);
+            float q = 1.0f;
+            for( int i = 1; i < params.length; i++ ){
+                String[] keyVal = params[i].split("=", 2);
+                if( keyVal.length == 2 && keyVal[0].trim().equalsIgnoreCase("q") ){
+                    try {
+                        q = Float.parseFloat(keyVal[1].trim());
+                    } catch( NumberFormatException err ){
+                        q = 0;
+                    }
+                }
+            }
+            if( coding.equals("gzip") || coding.equals("x-gzip") ){
+                gzip = Math.max(gzip, q);
+            } else if( coding.equals("deflate") ){
+                deflate = Math.max(deflate, q);
+            } else if( coding.equals("*") ){
+                any = q;
+            }
+        }
+        // codings not named explicitly take the quality of "*"
+        if( gzip < 0 ) gzip = Math.max(any, 0);
+        if( deflate < 0 ) deflate = Math.max(any, 0);
+        if( gzip > 0 && gzip >= deflate ){
+            return "gzip";
+        } else if( deflate > 0 ){
+            return "deflate";
+        }
+        return null;
+    }
+
+    /**
+     * @return false for content that is already compressed
+     */
+    static boolean compressible(String contentType) {
+        if( contentType == null ){
+            return true;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        if( type.startsWith("image/") ){
+            return type.startsWith("image/svg");
+        }
+        return !(type.startsWith("audio/") || type.startsWith("video/")
+                || type.startsWith("application/zip") || type.startsWith("application/gzip")
+                || type.startsWith("application/x-gzip") || type.startsWith("font/woff"));
+    }
+
+    /**
+     * @param etag a strong entity tag
+     * @return the tag of the same response compressed with encoding
+     */
+    static String coded(String etag, String encoding) {
+        return etag.substring(0, etag.length() - 1) + "--" + encoding + "\"";
+    }
+
+    /**
+     * @return If-None-Match with the tags of compressed responses turned back into the plain tags
+     */
+    static String uncoded(String ifNoneMatch) {
+        return CODED_ETAG.matcher(ifNoneMatch).replaceAll("\"");
+    }
+
+    /**
+     * Makes sure an asynchronous response is finished before the container completes it, and
+     * hands If-None-Match to the handler without the coding suffixes.
+     */
+    private static final class CompressingRequest extends HttpServletRequestWrapper {
+        private final CompressingResponse response;
+
+        CompressingRequest(HttpServletRequest request, CompressingResponse response) {
+            super(request);
+            this.response = response;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            String value = super.getHeader(name);
+            return value != null && "If-None-Match".equalsIgnoreCase(name) ? uncoded(value) : value;
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            Enumeration<String> values = super.getHeaders(name);
+            if( values == null || !"If-None-Match".equalsIgnoreCase(name) ){
+                return values;
+            }
+            List<String> plain = new ArrayList<>();
+            while( values.hasMoreElements() ){
+                plain.add(uncoded(values.nextElement()));
+            }
+            return Collections.enumeration(plain);
+        }
+
+        @Override
+        public AsyncContext startAsync() {
+            return new FinishingAsyncContext(super.startAsync(this, response), response);
+        }
+
+        @Override
+        public AsyncContext startAsync(ServletRequest request, ServletResponse response) {
+            return new FinishingAsyncContext(super.startAsync(request, response), this.response);
+        }
+    }
+
+    private static final class FinishingAsyncContext implements AsyncContext {
+        private final AsyncContext context;
+        private final CompressingResponse response;
+
+        FinishingAsyncContext(AsyncContext context, CompressingResponse response) {
+            this.context = context;
+            this.response = response;
+        }
+
+        @Override
+        public void complete() {
+            try {
+                response.finish();
+            } catch( IOException err ){
+                // the client went away, there is nobody left to tell
+            }
+            context.complete();
+        }
+
+        @Override public ServletRequest getRequest() { return context.getRequest(); }
+        @Override public ServletResponse getResponse() { return context.getResponse(); }
+        @Override public boolean hasOriginalRequestAndResponse() { return context.hasOriginalRequestAndResponse(); }
+        @Override public void dispatch() { context.dispatch(); }
+        @Override public void dispatch(String path) { context.dispatch(path); }
+        @Override public void dispatch(ServletContext servletContext, String path) { context.dispatch(servletContext, path); }
+        @Override public void start(Runnable run) { context.start(run); }
+        @Override public void addListener(AsyncListener listener) { context.addListener(listener); }
+        @Override public void addListener(AsyncListener listener, ServletRequest request, ServletResponse response) { context.addListener(listener, request, response); }
+        @Override public <T extends AsyncListener> T createListener(Class<T> clazz) throws ServletException { return context.createListener(clazz); }
+        @Override public void setTimeout(long timeout) { context.setTimeout(timeout); }
+        @Override public long getTimeout() { return context.getTimeout(); }
+    }
+
+    /**
+     * Holds on to the Content-Length, since it no longer applies once compressed.
+     */
+    private final class CompressingResponse extends HttpServletResponseWrapper {
+        private final String encoding;
+        private final String ifNoneMatch;
+        private CompressingStream stream;
+        private PrintWriter writer;
+        private long contentLength = -1;
+
+        CompressingResponse(HttpServletResponse response, String encoding, String ifNoneMatch) {
+            super(response);
+            this.encoding = encoding;
+            this.ifNoneMatch = ifNoneMatch;
+        }
+
+        private HttpServletResponse response() {
+            return (HttpServletResponse) getResponse();
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if( writer != null ){
+                throw new IllegalStateException("getWriter() has already been called");
+            }
+            if( stream == null ){
+                stream = new CompressingStream(this);
+            }
+            return stream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if( writer == null ){
+                if( stream != null ){
+                    throw new IllegalStateException("getOutputStream() has already been called");
+                }
+                stream = new CompressingStream(this);
+                writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            contentLength = len;
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+            contentLength = len;
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if( "Content-Length".equalsIgnoreCase(name) ){
+                contentLength = value == null ? -1 : Long.parseLong(value.trim());
+            } else {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if( "Content-Length".equalsIgnoreCase(name) ){
+                setHeader(name, value);
+            } else {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            if( "Content-Length".equalsIgnoreCase(name) ){
+                contentLength = value;
+            } else {
+                super.setIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            if( "Content-Length".equalsIgnoreCase(name) ){
+                contentLength = value;
+            } else {
+                super.addIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if( writer != null ){
+                writer.flush();
+            }
+            if( stream != null ){
+                stream.flush();
+            } else {
+                super.flushBuffer();
+            }
+        }
+
+        /**
+         * Once the compressor has seen part of the body it can't be taken back, even if none of it
+         * left the container's buffer yet.
+         */
+        @Override
+        public boolean isCommitted() {
+            return super.isCommitted() || compressing();
+        }
+
+        private boolean compressing() {
+            return stream != null && stream.compressor != null;
+        }
+
+        @Override
+        public void resetBuffer() {
+            if( compressing() ){
+                throw new IllegalStateException("Compressed output has already started");
+            }
+            super.resetBuffer();
+            if( stream != null ){
+                stream.discardBuffered();
+            }
+        }
+
+        @Override
+        public void reset() {
+            if( compressing() ){
+                throw new IllegalStateException("Compressed output has already started");
+            }
+            super.reset();
+            contentLength = -1;
+            if( stream != null ){
+                stream.discardBuffered();
+            }
+        }
+
+        /**
+         * Gives a strong ETag the coding suffix if the body is compressed. A 304 has no body, it
+         * gets the form the client sent, since that is the one the client has.
+         */
+        void tagCoding(boolean compressed) {
+            HttpServletResponse res = response();
+            String etag = res.getHeader("ETag");
+            // weak tags only promise an equivalent response, which the compressed one is
+            if( etag == null || !etag.startsWith("\"") ){
+                return;
+            }
+            String coded = coded(etag, encoding);
+            if( compressed || (res.getStatus() == HttpServletResponse.SC_NOT_MODIFIED
+                    && ifNoneMatch != null && ifNoneMatch.contains(coded)) ){
+                res.setHeader("ETag", coded);
+            }
+        }
+
+        /**
+         * Writes out anything still held back and ends the compressed stream.
+         */
+        void finish() throws IOException {
+            if( getStatus() == HttpServletResponse.SC_NOT_MODIFIED ){
+                tagCoding(false);
+            }
+            if( writer != null ){
+                writer.flush();
+            }
+            if( stream != null ){
+                stream.finish();
+            } else if( contentLength >= 0 ){
+                response().setContentLengthLong(contentLength);
+            }
+        }
+    }
+
+    private final class CompressingStream extends ServletOutputStream {
+        private final CompressingResponse response;
+        private byte[] buffer;
+        private int buffered = 0;
+        private OutputStream target;
+        private CountingOutputStream compressedCount;
+        private DeflaterOutputStream compressor;
+        private Deflater deflater;
+        private long written = 0;
+        private boolean finished = false;
+
+        CompressingStream(CompressingResponse response) {
+            this.response = response;
+            this.buffer = new byte[Math.max(minSize, 1)];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if( finished ){
+                throw new IOException("Response already finished");
+            }
+            written += len;
+            if( target == null ){
+                if( buffered + len < buffer.length ){
+                    System.arraycopy(b, off, buffer, buffered, len);
+                    buffered += len;
+                    return;
+                }
+                start(true);
+            }
+            target.write(b, off, len);
+        }
+
+        /**
+         * Picks where the bytes go once enough is known about the response.
+         * @param large whether the response reached the minimum size
+         */
+        private void start(boolean large) throws IOException {
+            HttpServletResponse res = response.response();
+            if( large && res.getHeader("Content-Encoding") == null
+                    && res.getStatus() != HttpServletResponse.SC_NO_CONTENT
+                    && res.getStatus() != HttpServletResponse.SC_NOT_MODIFIED
+                    && compressible(res.getContentType()) ){
+                res.setHeader("Content-Encoding", response.encoding);
+                response.tagCoding(true);
+                compressedCount = new CountingOutputStream(res.getOutputStream());
+                if( "gzip".equals(response.encoding) ){
+                    compressor = new LeveledGzipOutputStream(compressedCount, level);
+                } else {
+                    deflater = new Deflater(level);
+                    compressor = new DeflaterOutputStream(compressedCount, deflater, BUFFER_SIZE, true);
+                }
+                target = compressor;
+            } else {
+                if( !large ){
+                    res.setContentLength(buffered);
+                } else if( response.contentLength >= 0 ){
+                    res.setContentLengthLong(response.contentLength);
+                }
+                skipped.mark();
+                target = res.getOutputStream();
+            }
+            if( buffered > 0 ){
+                target.write(buffer, 0, buffered);
+            }
+            buffer = null;
+            buffered = 0;
+        }
+
+        void discardBuffered() {
+            if( target == null ){
+                written -= buffered;
+                buffered = 0;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // small responses are held until they are finished or large enough
+            if( target != null ){
+                target.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+        }
+
+        void finish() throws IOException {
+            if( finished ){
+                return;
+            }
+            finished = true;
+            if( target == null ){
+                start(false);
+            }
+            if( compressor != null ){
+                try {
+                    compressor.finish();
+                    compressor.flush();
+                } finally {
+                    if( deflater != null ){
+                        deflater.end();
+                    } else {
+                        ((LeveledGzipOutputStream) compressor).end();
+                    }
+                }
+                bytesIn.mark(written);
+                bytesOut.mark(compressedCount.getCount());
+            } else {
+                target.flush();
+            }
+        }
+
+        @Override
+        public boolean isReady() {
+            try {
+                return response.response().getOutputStream().isReady();
+            } catch( IOException err ){
+                return false;
+            }
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            try {
+                response.response().getOutputStream().setWriteListener(listener);
+            } catch( IOException err ){
+                throw new IllegalStateException(err);
+            }
+        }
+    }
+
+    /**
+     * GZIPOutputStream with a chosen compression level, flushing what it has on flush().
+     */
+    private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+        LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, BUFFER_SIZE, true);
+            def.setLevel(level);
+        }
+
+        void end() {
+            def.end();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package cwms.radar.helpers;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes everything through to the wrapped stream and keeps track of how many bytes went by.
+ * Used where the response is streamed and the size is only known after the fact.
+ */
+public class CountingOutputStream extends FilterOutputStream {
+    private long count = 0;
+
+    public CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        count += len;
+    }
+
+    /**
+     * @return number of bytes written so far
+     */
+    public long getCount() {
+        return count;
+    }
+}
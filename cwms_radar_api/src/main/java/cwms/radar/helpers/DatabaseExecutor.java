@@ -0,0 +1,125 @@
+package cwms.radar.helpers;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Runs request handlers that wait on the database off the container's threads, so a slow
+ * database doesn't take the HTTP threads, and with them static files and health checks, down too.
+ *
+ * There should be about as many threads as the connection pool has connections, more would only
+ * wait for a connection inside the pool instead of in the queue here. Work is turned away with
+ * {@link Overloaded} when the queue is full, or when it waited longer than the limit by the time a
+ * thread picks it up; the client is better off retrying later than waiting for an answer it may
+ * have given up on.
+ *
+ * Configuration:
+ * <ul>
+ * <li>RADAR_DB_QUEUE, most requests waiting for a thread (default 200)</li>
+ * <li>RADAR_DB_MAX_QUEUE_WAIT_MS, longest a request may wait for a thread (default 5000)</li>
+ * <li>RADAR_DB_RETRY_AFTER, seconds sent in Retry-After when a request is turned away (default 5)</li>
+ * </ul>
+ */
+public final class DatabaseExecutor {
+    private static final int QUEUE_SIZE = Integer.parseInt(System.getProperty("RADAR_DB_QUEUE", "200"));
+    private static final long MAX_WAIT_MILLIS = Long.parseLong(System.getProperty("RADAR_DB_MAX_QUEUE_WAIT_MS", "5000"));
+    private static final int RETRY_AFTER_SECONDS = Integer.parseInt(System.getProperty("RADAR_DB_RETRY_AFTER", "5"));
+
+    private final ThreadPoolExecutor pool;
+    private final long maxWaitNanos;
+    private final int retryAfterSeconds;
+    private final Timer waitTime;
+    private final Meter rejected;
+
+    /**
+     * Thrown, or used to complete the future, when work is turned away.
+     */
+    public static final class Overloaded extends RejectedExecutionException {
+        private static final long serialVersionUID = 1L;
+        private final int retryAfterSeconds;
+
+        Overloaded(String message, int retryAfterSeconds) {
+            super(message);
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        /**
+         * @return seconds the client should wait before trying again
+         */
+        public int getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+
+    /**
+     * @param threads requests worked on at once, usually the size of the connection pool
+     */
+    public DatabaseExecutor(String name, int threads, MetricRegistry metrics) {
+        this(name, threads, QUEUE_SIZE, MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS, RETRY_AFTER_SECONDS, metrics);
+    }
+
+    DatabaseExecutor(String name, int threads, int queueSize, long maxWait, TimeUnit unit, int retryAfterSeconds, MetricRegistry metrics) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), factory);
+        this.pool.allowCoreThreadTimeOut(true);
+        this.maxWaitNanos = unit.toNanos(maxWait);
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.waitTime = metrics.timer(name(DatabaseExecutor.class, name, "wait"));
+        this.rejected = metrics.meter(name(DatabaseExecutor.class, name, "rejected"));
+        metrics.gauge(name(DatabaseExecutor.class, name, "queue"), () -> (Gauge<Integer>) () -> pool.getQueue().size());
+        metrics.gauge(name(DatabaseExecutor.class, name, "active"), () -> (Gauge<Integer>) pool::getActiveCount);
+    }
+
+    /**
+     * @return completes with what work returned or threw, or with {@link Overloaded} if it never ran
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> work) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long queued = System.nanoTime();
+        try {
+            pool.execute(() -> {
+                long waited = System.nanoTime() - queued;
+                waitTime.update(waited, TimeUnit.NANOSECONDS);
+                if( waited > maxWaitNanos ){
+                    rejected.mark();
+                    result.completeExceptionally(new Overloaded("Waited " + TimeUnit.NANOSECONDS.toMillis(waited) + " ms for a database thread", retryAfterSeconds));
+                    return;
+                }
+                try {
+                    result.complete(work.call());
+                } catch( Throwable err ){
+                    result.completeExceptionally(err);
+                }
+            });
+        } catch( RejectedExecutionException err ){
+            rejected.mark();
+            result.completeExceptionally(new Overloaded("Too many requests waiting for a database thread", retryAfterSeconds));
+        }
+        return result;
+    }
+
+    /**
+     * Stops taking work, what is queued still runs.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,34 @@
+package cwms.radar.helpers;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * For handlers that write the body as it is produced and can fail part way through.
+ *
+ * Until the response is committed an error can still replace what was written; once the status
+ * line is on its way the only thing left to do is stop writing. The client then gets a body that
+ * ends early, which a parser notices, instead of a 200 with an error message stuck to the end.
+ */
+public final class ErrorResponse {
+
+    private ErrorResponse() {
+    }
+
+    /**
+     * Discards whatever is buffered but not sent yet, so an error status and message can follow.
+     *
+     * @return false if part of the response was already sent and nothing more should be written
+     */
+    public static boolean canSend(HttpServletResponse res) {
+        if( res.isCommitted() ){
+            return false;
+        }
+        try {
+            res.resetBuffer();
+        } catch( IllegalStateException err ){
+            // committed between the check and the reset
+            return false;
+        }
+        return true;
+    }
+}
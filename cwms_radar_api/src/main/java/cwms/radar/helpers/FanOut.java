@@ -0,0 +1,205 @@
+package cwms.radar.helpers;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the same piece of work for many inputs on a shared executor, a bounded number at a
+ * time, and hands each result back to the calling thread as soon as it is done.
+ *
+ * With {@link #forEachCompleted} a failure of one input is reported for that input only, the
+ * others carry on. {@link #ordered} keeps the input order instead.
+ */
+public final class FanOut {
+
+    @FunctionalInterface
+    public interface Work<K,V> {
+        V apply(K input) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface Sink<K,V> {
+        /**
+         * @param value the result, null if the work failed
+         * @param error why the work failed, null if it succeeded
+         */
+        void accept(K input, V value, Exception error) throws IOException;
+    }
+
+    private FanOut() {
+    }
+
+    /**
+     * A fixed size pool of daemon threads that stop when idle.
+     * @param name prefix of the thread names
+     */
+    public static ExecutorService newExecutor(String name, int threads) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), factory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Applies work to every input, never more than concurrency at once, and calls sink on this
+     * thread in the order the work completes. If sink throws, or this thread is interrupted,
+     * work not yet done is cancelled.
+     */
+    public static <K,V> void forEachCompleted(Iterable<K> inputs, Work<K,V> work, Executor executor, int concurrency, Sink<K,V> sink)
+            throws IOException, InterruptedException {
+        CompletionService<Outcome<K,V>> completion = new ExecutorCompletionService<>(executor);
+        List<Future<Outcome<K,V>>> running = new ArrayList<>();
+        Iterator<K> pending = inputs.iterator();
+        int inFlight = 0;
+        try {
+            while( inFlight < Math.max(1, concurrency) && pending.hasNext() ){
+                running.add(submit(completion, pending.next(), work));
+                inFlight++;
+            }
+            while( inFlight > 0 ){
+                Future<Outcome<K,V>> done = completion.take();
+                running.remove(done);
+                inFlight--;
+                if( pending.hasNext() ){
+                    running.add(submit(completion, pending.next(), work));
+                    inFlight++;
+                }
+                Outcome<K,V> outcome;
+                try {
+                    outcome = done.get();
+                } catch( ExecutionException err ){
+                    // work failures are caught in the task, this is an Error
+                    throw new IllegalStateException(err.getCause());
+                }
+                sink.accept(outcome.input, outcome.value, outcome.error);
+            }
+        } finally {
+            for( Future<Outcome<K,V>> future: running ){
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Applies work to the inputs on the executor and hands back the results in input order.
+     * At most window inputs are being worked on or waiting to be taken at any time, so a slow
+     * reader holds back the work instead of letting finished results pile up. The first failure
+     * is thrown from {@link Ordered#next()}, closing it cancels the outstanding work.
+     */
+    public static <K,V> Ordered<K,V> ordered(Iterator<K> inputs, Work<K,V> work, Executor executor, int window) {
+        Ordered<K,V> ordered = new Ordered<>(inputs, work, executor, Math.max(1, window));
+        ordered.fill();
+        return ordered;
+    }
+
+    public static final class Ordered<K,V> implements Iterator<V>, AutoCloseable {
+        private final Iterator<K> inputs;
+        private final Work<K,V> work;
+        private final Executor executor;
+        private final int window;
+        private final ArrayDeque<FutureTask<V>> queue = new ArrayDeque<>();
+        private boolean closed = false;
+
+        private Ordered(Iterator<K> inputs, Work<K,V> work, Executor executor, int window) {
+            this.inputs = inputs;
+            this.work = work;
+            this.executor = executor;
+            this.window = window;
+        }
+
+        private void fill() {
+            while( !closed && queue.size() < window && inputs.hasNext() ){
+                K input = inputs.next();
+                FutureTask<V> task = new FutureTask<>(() -> work.apply(input));
+                queue.add(task);
+                executor.execute(task);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        /**
+         * Waits for the next result in input order.
+         */
+        @Override
+        public V next() {
+            FutureTask<V> head = queue.poll();
+            if( head == null ){
+                throw new NoSuchElementException();
+            }
+            try {
+                V value = head.get();
+                fill();
+                return value;
+            } catch( InterruptedException err ){
+                Thread.currentThread().interrupt();
+                close();
+                throw new IllegalStateException("Interrupted while waiting for results", err);
+            } catch( ExecutionException err ){
+                close();
+                Throwable cause = err.getCause();
+                if( cause instanceof RuntimeException ){
+                    throw (RuntimeException) cause;
+                } else if( cause instanceof Error ){
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            for( FutureTask<V> task: queue ){
+                task.cancel(true);
+            }
+            queue.clear();
+        }
+    }
+
+    private static <K,V> Future<Outcome<K,V>> submit(CompletionService<Outcome<K,V>> completion, K input, Work<K,V> work) {
+        return completion.submit(() -> {
+            try {
+                return new Outcome<>(input, work.apply(input), null);
+            } catch( Exception err ){
+                return new Outcome<>(input, null, err);
+            }
+        });
+    }
+
+    private static final class Outcome<K,V> {
+        final K input;
+        final V value;
+        final Exception error;
+
+        Outcome(K input, V value, Exception error) {
+            this.input = input;
+            this.value = value;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package cwms.radar.helpers;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Keeps whole rendered responses of endpoints whose output hardly ever changes, like the units
+ * or time zone lists, so they can be sent again without going to the database.
+ *
+ * Entries are keyed by endpoint, office and content type, see {@link #key}, and hold the encoded
+ * body along with a gzip copy made once when it was stored. Clients accepting gzip get that copy
+ * with Content-Encoding set, which CompressionFilter leaves alone; everyone else gets the plain
+ * bytes, which the filter may still compress with deflate. Two requests missing at the same time
+ * both render, the later one wins.
+ *
+ * Every cache is registered by name so they can be cleared from outside, e.g. after reference
+ * data was changed in the database, see {@link #invalidateEverything()}.
+ *
+ * Configuration:
+ * <ul>
+ * <li>RADAR_RESPONSE_CACHE_SECONDS, how long a response is kept, 0 turns caching off (default 3600)</li>
+ * <li>RADAR_RESPONSE_CACHE_ENTRIES, most responses kept per endpoint (default 256)</li>
+ * </ul>
+ */
+public final class ResponseCache {
+    static final long TTL_SECONDS = Long.parseLong(System.getProperty("RADAR_RESPONSE_CACHE_SECONDS", "3600"));
+    static final int MAX_ENTRIES = Integer.parseInt(System.getProperty("RADAR_RESPONSE_CACHE_ENTRIES", "256"));
+
+    private static final boolean COMPRESS = Boolean.parseBoolean(System.getProperty("RADAR_COMPRESSION", "true"));
+    private static final int MIN_COMPRESS_SIZE = Integer.parseInt(System.getProperty("RADAR_COMPRESSION_MIN_SIZE", "1024"));
+    private static final int COMPRESSION_LEVEL = Integer.parseInt(System.getProperty("RADAR_COMPRESSION_LEVEL", "6"));
+
+    private static final Map<String,ResponseCache> caches = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final TtlCache<String,Rendered> entries;
+    private final Meter hits;
+    private final Meter misses;
+
+    /**
+     * Writes the body of a response.
+     */
+    @FunctionalInterface
+    public interface Renderer {
+        void render(OutputStream out) throws Exception;
+    }
+
+    /**
+     * @param name of the endpoint, used for the metrics and {@link #invalidate(String)}
+     */
+    public ResponseCache(String name, MetricRegistry metrics) {
+        this(name, metrics, TTL_SECONDS, TimeUnit.SECONDS, System::nanoTime);
+    }
+
+    ResponseCache(String name, MetricRegistry metrics, long ttl, TimeUnit unit, LongSupplier clock) {
+        this.name = name;
+        this.entries = new TtlCache<>(ttl, unit, MAX_ENTRIES, clock);
+        this.hits = metrics.meter(name(ResponseCache.class, name, "hits"));
+        this.misses = metrics.meter(name(ResponseCache.class, name, "misses"));
+        metrics.gauge(name(ResponseCache.class, name, "size"), () -> (Gauge<Integer>) () -> entries.size());
+        caches.put(name, this);
+    }
+
+    /**
+     * @param endpoint name of the endpoint
+     * @param office session office, may be null
+     * @param contentType the negotiated content type
+     */
+    public static String key(String endpoint, String office, String contentType) {
+        return endpoint + "|" + (office == null ? "" : office) + "|" + contentType;
+    }
+
+    /**
+     * Sends the response stored under key, rendering and storing it first if there isn't one.
+     *
+     * @param contentType sent as the Content-Type of a newly rendered response
+     * @param renderer writes the body of the response, only called on a miss
+     * @return size of the body before compression
+     * @throws IOException if rendering failed, with whatever the renderer threw as the cause
+     */
+    public long send(HttpServletRequest req, HttpServletResponse res, String key, String contentType, Renderer renderer) throws IOException {
+        Rendered rendered = entries.get(key);
+        if( rendered == null ){
+            misses.mark();
+            rendered = render(contentType, renderer);
+            entries.put(key, rendered);
+        } else {
+            hits.mark();
+        }
+        return write(req, res, rendered);
+    }
+
+    /**
+     * Sends the response stored under key, if there is one. Lets a handler answer a hit before it
+     * waits for a thread or a connection.
+     *
+     * @return size of the body before compression, -1 if nothing is stored under key
+     */
+    public long sendCached(HttpServletRequest req, HttpServletResponse res, String key) throws IOException {
+        Rendered rendered = entries.get(key);
+        if( rendered == null ){
+            return -1;
+        }
+        hits.mark();
+        return write(req, res, rendered);
+    }
+
+    private static long write(HttpServletRequest req, HttpServletResponse res, Rendered rendered) throws IOException {
+        res.setStatus(HttpServletResponse.SC_OK);
+        res.setContentType(rendered.contentType);
+        byte[] body = rendered.body;
+        if( rendered.gzip != null ){
+            res.setHeader("Vary", "Accept-Encoding");
+            if( "gzip".equals(CompressionFilter.negotiate(req.getHeader("Accept-Encoding"))) && req.getHeader("Range") == null ){
+                res.setHeader("Content-Encoding", "gzip");
+                body = rendered.gzip;
+            }
+        }
+        res.setContentLength(body.length);
+        res.getOutputStream().write(body);
+        return rendered.body.length;
+    }
+
+    static Rendered render(String contentType, Renderer renderer) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            renderer.render(body);
+        } catch( IOException | RuntimeException err ){
+            throw err;
+        } catch( Exception err ){
+            throw new IOException("Unable to render response", err);
+        }
+        byte[] bytes = body.toByteArray();
+        byte[] gzip = null;
+        if( COMPRESS && bytes.length >= MIN_COMPRESS_SIZE && CompressionFilter.compressible(contentType) ){
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+            try( GZIPOutputStream out = new LeveledGzipOutputStream(compressed) ){
+                out.write(bytes);
+            }
+            // not worth it for content that doesn't compress
+            if( compressed.size() < bytes.length ){
+                gzip = compressed.toByteArray();
+            }
+        }
+        return new Rendered(contentType, bytes, gzip);
+    }
+
+    public void invalidateAll() {
+        entries.invalidateAll();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Clears the cache of one endpoint.
+     * @return false if there is no cache by that name
+     */
+    public static boolean invalidate(String name) {
+        ResponseCache cache = caches.get(name);
+        if( cache == null ){
+            return false;
+        }
+        cache.invalidateAll();
+        return true;
+    }
+
+    /**
+     * Clears the caches of all endpoints.
+     */
+    public static void invalidateEverything() {
+        caches.values().forEach(ResponseCache::invalidateAll);
+    }
+
+    /**
+     * @return the registered caches by name
+     */
+    public static Map<String,ResponseCache> caches() {
+        return Collections.unmodifiableMap(caches);
+    }
+
+    static final class Rendered {
+        final String contentType;
+        final byte[] body;
+        // null when the body is too small or doesn't compress
+        final byte[] gzip;
+
+        Rendered(String contentType, byte[] body, byte[] gzip) {
+            this.contentType = contentType;
+            this.body = body;
+            this.gzip = gzip;
+        }
+    }
+
+    private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+        LeveledGzipOutputStream(OutputStream out) throws IOException {
+            super(out);
+            def.setLevel(COMPRESSION_LEVEL);
+        }
+    }
+}
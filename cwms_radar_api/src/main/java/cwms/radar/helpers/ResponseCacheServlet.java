@@ -0,0 +1,87 @@
+package cwms.radar.helpers;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Admin view of the cached reference responses, mapped under /status next to the metrics.
+ *
+ * GET lists the caches and how many responses each holds. POST clears all of them, or only the one
+ * named by the "name" parameter, e.g. after units or parameters were changed in the database.
+ *
+ * In Tomcat web.xml limits POSTs to it to the radar-admin role. The standalone server has no users, so
+ * there POST is off unless RADAR_RESPONSE_CACHE_TOKEN is set, and then needs that token in the
+ * X-Radar-Cache-Token header. Where a request comes from proves nothing: behind a reverse proxy on
+ * the same host every request comes from the loopback address.
+ */
+public class ResponseCacheServlet extends HttpServlet {
+    private static final Logger logger = Logger.getLogger(ResponseCacheServlet.class.getName());
+    private static final long serialVersionUID = 1L;
+    static final String TOKEN_HEADER = "X-Radar-Cache-Token";
+
+    private final boolean containerProtected;
+    // what a POST has to send when the container doesn't check, null if POST is off
+    private final byte[] token;
+
+    /**
+     * For a container that restricts who may reach it.
+     */
+    public ResponseCacheServlet() {
+        this.containerProtected = true;
+        this.token = null;
+    }
+
+    /**
+     * For a server that lets anyone reach it.
+     * @param token POSTs have to send it in the X-Radar-Cache-Token header, null or empty turns POST off
+     */
+    public ResponseCacheServlet(String token) {
+        this.containerProtected = false;
+        this.token = token == null || token.isEmpty() ? null : token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("text/plain");
+        resp.setHeader("Cache-Control", "must-revalidate,no-cache,no-store");
+        PrintWriter out = resp.getWriter();
+        for( Map.Entry<String,ResponseCache> cache: ResponseCache.caches().entrySet() ){
+            out.println(cache.getKey() + ": " + cache.getValue().size());
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        if( !containerProtected ){
+            if( token == null ){
+                resp.sendError(HttpServletResponse.SC_FORBIDDEN, "Clearing response caches is turned off");
+                return;
+            }
+            String sent = req.getHeader(TOKEN_HEADER);
+            // constant time, so the token can't be guessed a byte at a time
+            if( sent == null || !MessageDigest.isEqual(token, sent.getBytes(StandardCharsets.UTF_8)) ){
+                resp.sendError(HttpServletResponse.SC_FORBIDDEN, "Response caches can only be cleared with the cache token");
+                return;
+            }
+        }
+        String name = req.getParameter("name");
+        if( name == null ){
+            ResponseCache.invalidateEverything();
+            logger.info("Cleared all response caches");
+        } else if( ResponseCache.invalidate(name) ){
+            logger.info("Cleared response cache " + name);
+        } else {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "No response cache named " + name);
+            return;
+        }
+        resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+}
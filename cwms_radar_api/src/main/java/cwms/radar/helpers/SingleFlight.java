@@ -0,0 +1,135 @@
+package cwms.radar.helpers;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Collapses identical requests that arrive while one of them is already being worked on.
+ *
+ * The first caller for a key runs the work on its own thread, with its own connection; callers
+ * arriving with the same key before it finishes wait for that result instead of running the same
+ * query again. Nothing is kept once the work is done, the next caller for the key starts over, so
+ * a failure is only seen by the callers that were already waiting for it. If the first caller was
+ * interrupted, e.g. its client went away, the waiters don't take that as their answer and one of
+ * them runs the work itself.
+ *
+ * Results are handed to every waiter as is, so they must not be changed by whoever reads them.
+ *
+ * Configuration:
+ * <ul>
+ * <li>RADAR_COALESCE_TIMEOUT_MS, longest a request waits for an identical one, 0 turns coalescing off (default 30000)</li>
+ * </ul>
+ *
+ * @param <K> key type, equal keys must mean the same result
+ * @param <V> result type
+ */
+public final class SingleFlight<K,V> {
+    public static final long TIMEOUT_MILLIS = Long.parseLong(System.getProperty("RADAR_COALESCE_TIMEOUT_MS", "30000"));
+
+    private final ConcurrentHashMap<K,CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final long timeoutNanos;
+    private final Meter executions;
+    private final Meter shared;
+    private final Meter timeouts;
+
+    /**
+     * Work to be done for a key, typically a DAO call.
+     */
+    @FunctionalInterface
+    public interface Call<V,E extends Exception> {
+        V call() throws E;
+    }
+
+    /**
+     * @param name used in the metrics
+     * @param timeout longest a caller waits for someone else's result, 0 or less runs every call on its own
+     */
+    public SingleFlight(String name, MetricRegistry metrics, long timeout, TimeUnit unit) {
+        this.timeoutNanos = unit.toNanos(timeout);
+        this.executions = metrics.meter(name(SingleFlight.class, name, "executions"));
+        this.shared = metrics.meter(name(SingleFlight.class, name, "shared"));
+        this.timeouts = metrics.meter(name(SingleFlight.class, name, "timeouts"));
+    }
+
+    /**
+     * Runs the work, or waits for the same work already running for key.
+     *
+     * @return the result of the work, possibly the one computed for another caller
+     * @throws E what the work threw, possibly for another caller
+     * @throws TimeoutException if the result for key didn't arrive within the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public <E extends Exception> V execute(K key, Call<? extends V,E> work) throws E, TimeoutException, InterruptedException {
+        if( timeoutNanos <= 0 ){
+            executions.mark();
+            return work.call();
+        }
+        long deadline = System.nanoTime() + timeoutNanos;
+        while( true ){
+            CompletableFuture<V> mine = new CompletableFuture<>();
+            CompletableFuture<V> running = inFlight.putIfAbsent(key, mine);
+            if( running == null ){
+                return lead(key, mine, work);
+            }
+            shared.mark();
+            try {
+                return running.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch( TimeoutException err ){
+                timeouts.mark();
+                throw new TimeoutException("Gave up waiting for " + key);
+            } catch( ExecutionException err ){
+                throw SingleFlight.<E>rethrow(err.getCause());
+            } catch( CancellationException err ){
+                // the caller doing the work was interrupted, try again
+            }
+        }
+    }
+
+    private <E extends Exception> V lead(K key, CompletableFuture<V> future, Call<? extends V,E> work) throws E {
+        executions.mark();
+        V value;
+        try {
+            value = work.call();
+        } catch( Throwable err ){
+            // out of the map first, so later callers start over instead of seeing this failure
+            inFlight.remove(key, future);
+            if( err instanceof InterruptedException || Thread.currentThread().isInterrupted() ){
+                future.cancel(false);
+            } else {
+                future.completeExceptionally(err);
+            }
+            throw err;
+        }
+        inFlight.remove(key, future);
+        future.complete(value);
+        return value;
+    }
+
+    /**
+     * @return number of keys being worked on
+     */
+    public int size() {
+        return inFlight.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E extends Exception> E rethrow(Throwable err) throws E {
+        if( err instanceof RuntimeException ){
+            throw (RuntimeException) err;
+        }
+        if( err instanceof Error ){
+            throw (Error) err;
+        }
+        // the same kind of work ran for the same key, so it threw the same kind of exception
+        throw (E) err;
+    }
+}
@@ -0,0 +1,101 @@
+package cwms.radar.helpers;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A small thread safe cache whose entries expire a fixed time after they were stored.
+ *
+ * Meant for values that are expensive to compute and fine to be slightly stale, like row counts.
+ * The loader runs outside of any lock, so two threads missing at the same time may both load.
+ * Once maxSize entries are held, expired entries are dropped; if it is still full new values
+ * are returned but not stored.
+ *
+ * @param <K> key type
+ * @param <V> value type, null values are not cached
+ */
+public final class TtlCache<K,V> {
+    private final ConcurrentHashMap<K,Entry<V>> entries = new ConcurrentHashMap<>();
+    private final long ttlNanos;
+    private final int maxSize;
+    private final LongSupplier clock;
+
+    public TtlCache(long ttl, TimeUnit unit, int maxSize) {
+        this(ttl, unit, maxSize, System::nanoTime);
+    }
+
+    TtlCache(long ttl, TimeUnit unit, int maxSize, LongSupplier clock) {
+        this.ttlNanos = unit.toNanos(ttl);
+        this.maxSize = maxSize;
+        this.clock = clock;
+    }
+
+    /**
+     * @return the cached value for key, or null if there isn't one or it expired
+     */
+    public V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if( entry == null ){
+            return null;
+        }
+        if( entry.expires - clock.getAsLong() <= 0 ){
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * @return the cached value for key, loading and storing it if absent or expired
+     */
+    public V get(K key, Supplier<? extends V> loader) {
+        V value = get(key);
+        if( value == null ){
+            value = loader.get();
+            put(key, value);
+        }
+        return value;
+    }
+
+    public void put(K key, V value) {
+        if( value == null || ttlNanos <= 0 ){
+            return;
+        }
+        if( entries.size() >= maxSize && !entries.containsKey(key) ){
+            removeExpired();
+            if( entries.size() >= maxSize ){
+                return;
+            }
+        }
+        entries.put(key, new Entry<>(value, clock.getAsLong() + ttlNanos));
+    }
+
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void removeExpired() {
+        long now = clock.getAsLong();
+        entries.values().removeIf( e -> e.expires - now <= 0 );
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long expires;
+
+        Entry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package cwms.radar.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+
+public class ConditionalRequestTest {
+
+    @Test
+    public void EtagDependsOnEveryPart() {
+        String etag = ConditionalRequest.etag("application/json;version=2", "name=a", "1|2|3");
+        assertEquals(etag, ConditionalRequest.etag("application/json;version=2", "name=a", "1|2|3"));
+        assertNotEquals(etag, ConditionalRequest.etag("application/json;version=2", "name=a", "1|2|4"));
+        // parts are delimited, moving text between them is a different tag
+        assertNotEquals(ConditionalRequest.etag("ab", "c"), ConditionalRequest.etag("a", "bc"));
+        assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+    }
+
+    @Test
+    public void IfNoneMatch() {
+        String etag = ConditionalRequest.etag("x");
+        assertTrue(ConditionalRequest.matches(etag, etag));
+        assertTrue(ConditionalRequest.matches("\"other\", W/" + etag, etag));
+        assertTrue(ConditionalRequest.matches("*", etag));
+        assertFalse(ConditionalRequest.matches("\"other\"", etag));
+    }
+
+    @Test
+    public void IfModifiedSince() {
+        Instant modified = Instant.parse("2021-06-10T13:00:00.250Z");
+        assertTrue(ConditionalRequest.notModifiedSince("Thu, 10 Jun 2021 13:00:00 GMT", modified));
+        assertTrue(ConditionalRequest.notModifiedSince("Thu, 10 Jun 2021 14:00:00 GMT", modified));
+        assertFalse(ConditionalRequest.notModifiedSince("Thu, 10 Jun 2021 12:59:59 GMT", modified));
+        assertFalse(ConditionalRequest.notModifiedSince("yesterday", modified));
+        assertFalse(ConditionalRequest.notModifiedSince("Thu, 10 Jun 2021 13:00:00 GMT", null));
+    }
+}
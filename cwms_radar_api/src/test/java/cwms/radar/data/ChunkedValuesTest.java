@@ -0,0 +1,127 @@
+package cwms.radar.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import cwms.radar.data.dto.TimeSeries;
+import cwms.radar.data.dto.TimeSeriesValues;
+import cwms.radar.helpers.FanOut;
+
+public class ChunkedValuesTest {
+    private static final long HOUR = 3_600_000L;
+
+    private final ExecutorService executor = FanOut.newExecutor("chunked-values-test", 8);
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static TimeSeriesValues hourly(long from, long to) {
+        TimeSeriesValues values = new TimeSeriesValues();
+        for( long t = (from + HOUR - 1) / HOUR * HOUR; t <= to; t += HOUR ){
+            values.add(t, (double) (t / HOUR), 0);
+        }
+        return values;
+    }
+
+    @Test
+    public void ChunksAreAlignedAndCoverTheWindow() {
+        long span = 100 * HOUR;
+        long from = 250 * HOUR + 17;
+        long to = 730 * HOUR;
+        List<long[]> chunks = ChunkedValues.split(from, to, span);
+        assertEquals(6, chunks.size());
+        assertEquals(from, chunks.get(0)[0]);
+        assertEquals(to, chunks.get(chunks.size() - 1)[1]);
+        for( int i = 1; i < chunks.size(); i++ ){
+            assertEquals(chunks.get(i - 1)[1] + 1, chunks.get(i)[0]);
+            assertEquals(0, chunks.get(i)[0] % span);
+        }
+        assertEquals(1, ChunkedValues.split(from, to, 0).size());
+        assertEquals(1, ChunkedValues.split(from, from, span).size());
+        assertEquals(60 * 60_000L * 1000, ChunkedValues.span(60, 1000, 5));
+        assertEquals(5, ChunkedValues.span(0, 1000, 5));
+    }
+
+    @Test
+    public void ValuesComeBackInTimeOrder() {
+        long from = 0;
+        long to = 1000 * HOUR;
+        List<long[]> chunks = ChunkedValues.split(from, to, 64 * HOUR);
+        AtomicInteger fetches = new AtomicInteger();
+        List<TimeSeries.Record> records;
+        try( Stream<TimeSeries.Record> values = ChunkedValues.stream(chunks, (f, t) -> {
+            // earlier chunks take longest
+            Thread.sleep(Math.max(0, 40 - fetches.getAndIncrement() * 10));
+            return hourly(f, t);
+        }, executor, 4) ){
+            records = values.collect(Collectors.toList());
+        }
+        TimeSeriesValues expected = hourly(from, to);
+        assertEquals(expected.size(), records.size());
+        for( int i = 0; i < records.size(); i++ ){
+            assertEquals(expected.getDateTime(i), records.get(i).getDateTime().getTime());
+            assertEquals(expected.getValue(i), records.get(i).getValue());
+        }
+        assertEquals(chunks.size(), fetches.get());
+    }
+
+    @Test
+    public void ReadsOnlyAFewChunksAhead() {
+        List<long[]> chunks = ChunkedValues.split(0, 100 * HOUR, 10 * HOUR);
+        AtomicInteger fetches = new AtomicInteger();
+        try( Stream<TimeSeries.Record> values = ChunkedValues.stream(chunks, (f, t) -> {
+            fetches.incrementAndGet();
+            return hourly(f, t);
+        }, executor, 3) ){
+            Iterator<TimeSeries.Record> it = values.iterator();
+            // the whole first chunk
+            for( int i = 0; i < 10; i++ ){
+                it.next();
+            }
+            assertTrue(fetches.get() <= 4, fetches.get() + " chunks read");
+        }
+    }
+
+    @Test
+    public void FailureEndsTheStreamAndCloseCancels() throws Exception {
+        List<long[]> chunks = ChunkedValues.split(0, 100 * HOUR, 10 * HOUR);
+        CountDownLatch sleeping = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Stream<TimeSeries.Record> values = ChunkedValues.stream(chunks, (f, t) -> {
+            if( f == 0 ){
+                return hourly(f, t);
+            }
+            if( f == 10 * HOUR ){
+                // fail while a later chunk is being read
+                sleeping.await(5, TimeUnit.SECONDS);
+                throw new IllegalStateException("connection lost");
+            }
+            try {
+                sleeping.countDown();
+                Thread.sleep(10_000);
+            } catch( InterruptedException err ){
+                interrupted.countDown();
+                throw err;
+            }
+            return hourly(f, t);
+        }, executor, 3);
+        assertThrows(IllegalStateException.class, () -> values.forEach(r -> { }));
+        values.close();
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS), "running reads were not cancelled");
+    }
+}
@@ -0,0 +1,117 @@
+package cwms.radar.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import com.codahale.metrics.MetricRegistry;
+
+import org.jooq.exception.DataAccessException;
+import org.junit.jupiter.api.Test;
+
+public class ClobCallTest {
+
+    @Test
+    public void CallsTheFunctionWithItsArguments() {
+        assertEquals("begin ? := CWMS_20.CWMS_CAT.RETRIEVE_UNITS_F(?); end;", ClobCall.sql("CWMS_20.CWMS_CAT.RETRIEVE_UNITS_F", 1));
+        assertEquals("begin ? := F(?, ?, ?); end;", ClobCall.sql("F", 3));
+    }
+
+    @Test
+    public void CopiesTheWholeClob() throws Exception {
+        StringBuilder document = new StringBuilder();
+        while( document.length() < ClobCall.BUFFER_SIZE * 3 + 17 ){
+            document.append("<value>ü").append(document.length()).append("</value>\n");
+        }
+        Connection connection = mock(Connection.class);
+        CallableStatement call = mock(CallableStatement.class);
+        Clob clob = mock(Clob.class);
+        when(connection.prepareCall(anyString())).thenReturn(call);
+        when(call.getClob(1)).thenReturn(clob);
+        when(clob.getCharacterStream()).thenReturn(new StringReader(document.toString()));
+
+        StringWriter out = new StringWriter();
+        ClobCall.write(connection, out, "CWMS_20.CWMS_TS.RETRIEVE_TIME_SERIES_F", "name", null, "EN");
+
+        assertEquals(document.toString(), out.toString());
+        verify(connection).prepareCall("begin ? := CWMS_20.CWMS_TS.RETRIEVE_TIME_SERIES_F(?, ?, ?); end;");
+        verify(call).registerOutParameter(1, Types.CLOB);
+        verify(call).setString(2, "name");
+        verify(call).setString(3, null);
+        verify(call).setString(4, "EN");
+        verify(clob).free();
+        verify(call).close();
+    }
+
+    @Test
+    public void NothingForANullClob() throws Exception {
+        Connection connection = mock(Connection.class);
+        CallableStatement call = mock(CallableStatement.class);
+        when(connection.prepareCall(anyString())).thenReturn(call);
+
+        StringWriter out = new StringWriter();
+        ClobCall.write(connection, out, "F", "json");
+        assertEquals("", out.toString());
+        verify(call).close();
+    }
+
+    @Test
+    public void DatabaseErrorsAreDataAccessExceptions() throws Exception {
+        Connection connection = mock(Connection.class);
+        CallableStatement call = mock(CallableStatement.class);
+        when(connection.prepareCall(anyString())).thenReturn(call);
+        when(call.execute()).thenThrow(new SQLException("ORA-20001"));
+
+        assertThrows(DataAccessException.class, () -> ClobCall.write(connection, new StringWriter(), "F", "json"));
+        verify(call).close();
+    }
+
+    @Test
+    public void CallsAreTimedLikeTheOtherStatements() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        QueryMetrics.setMetricRegistry(metrics);
+        try {
+            Connection connection = mock(Connection.class);
+            CallableStatement call = mock(CallableStatement.class);
+            Clob clob = mock(Clob.class);
+            when(connection.prepareCall(anyString())).thenReturn(call);
+            when(call.getClob(1)).thenReturn(clob);
+            when(clob.getCharacterStream()).thenReturn(new StringReader("<units/>"));
+            ClobCall.write(connection, new StringWriter(), "CWMS_20.CWMS_CAT.RETRIEVE_UNITS_F", "xml");
+
+            CallableStatement failing = mock(CallableStatement.class);
+            when(connection.prepareCall(anyString())).thenReturn(failing);
+            when(failing.execute()).thenThrow(new SQLException("ORA-20001"));
+            assertThrows(DataAccessException.class, () -> ClobCall.write(connection, new StringWriter(), "CWMS_20.CWMS_CAT.RETRIEVE_UNITS_F", "xml"));
+
+            String name = "cwms.radar.data.QueryMetrics.CWMS_CAT.RETRIEVE_UNITS_F";
+            // the second call failed to execute
+            assertEquals(2, metrics.timer(name + ".prepare").getCount());
+            assertEquals(1, metrics.timer(name + ".execute").getCount());
+            assertEquals(1, metrics.timer(name + ".fetch").getCount());
+            assertEquals(2, metrics.timer(name + ".total").getCount());
+            assertEquals(1, metrics.meter(name + ".errors").getCount());
+            assertEquals(1, metrics.histogram(name + ".rows").getSnapshot().getMax());
+        } finally {
+            QueryMetrics.setMetricRegistry(new MetricRegistry());
+        }
+    }
+
+    @Test
+    public void NamedWithoutTheSchema() {
+        assertEquals("CWMS_TS.RETRIEVE_TIME_SERIES_F", ClobCall.name("CWMS_20.CWMS_TS.RETRIEVE_TIME_SERIES_F"));
+        assertEquals("CWMS_CAT.RETRIEVE_UNITS_F", ClobCall.name("CWMS_CAT.RETRIEVE_UNITS_F"));
+        assertEquals("F", ClobCall.name("F"));
+    }
+}
@@ -0,0 +1,60 @@
+package cwms.radar.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import cwms.radar.data.dto.TimeSeries;
+import cwms.radar.data.dto.TimeSeriesValues;
+
+public class CwmsDataManagerTest {
+    private static final long MINUTE = 60_000L;
+    private static final long DAY = 24 * 60 * MINUTE;
+    private static final long NOW = 1_600_000_000_000L;
+
+    /**
+     * A day of minute values served from the recent values cache, the way getRecentTimeseries does.
+     */
+    private static TimeSeries recentDay(int pageSize, long start) {
+        RecentValuesCache cache = new RecentValuesCache(7 * DAY, MINUTE, 60 * MINUTE, 15 * MINUTE, 64 << 20, () -> NOW);
+        long from = NOW - DAY;
+        TimeSeriesValues values = cache.read(BigDecimal.ONE, "ft", from, NOW, (f, t, sink) -> {
+            for( long time = f; time <= t; time += MINUTE ){
+                sink.add(time, Math.sin(time / (60.0 * MINUTE)), 0);
+            }
+        });
+        TimeSeries ts = new TimeSeries(null, pageSize, values.size(), "Test.Test.Elev.Inst.1Minute.0.RAW", "SPK",
+                ZonedDateTime.ofInstant(Instant.ofEpochMilli(from), ZoneOffset.UTC),
+                ZonedDateTime.ofInstant(Instant.ofEpochMilli(NOW), ZoneOffset.UTC), "ft", Duration.ofMinutes(1));
+        CwmsDataManager.setPendingValues(ts, values, start);
+        return ts;
+    }
+
+    @Test
+    public void DownsamplesRecentWindow() {
+        TimeSeries ts = recentDay(-1, NOW - DAY);
+        ts.transformPendingValues(values -> Downsampler.downsample(values, Downsampler.Mode.LTTB,
+                ts.getBegin().toInstant().toEpochMilli(), ts.getEnd().toInstant().toEpochMilli(), 500));
+        List<TimeSeries.Record> reduced = ts.getValues();
+        assertTrue(reduced.size() <= 500, "returned " + reduced.size());
+        assertTrue(reduced.size() > 100, "returned " + reduced.size());
+    }
+
+    @Test
+    public void PagesRecentWindowFromCursor() {
+        long start = NOW - DAY + 100 * MINUTE;
+        TimeSeries ts = recentDay(10, start);
+        List<TimeSeries.Record> page = ts.getValues();
+        assertEquals(10, page.size());
+        assertEquals(start, page.get(0).getDateTime().getTime());
+        assertEquals(Long.toString(start + 10 * MINUTE), TimeSeries.decodeCursor(ts.getNextPage())[0]);
+    }
+}
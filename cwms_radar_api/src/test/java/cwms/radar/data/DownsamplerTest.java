@@ -0,0 +1,190 @@
+package cwms.radar.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import cwms.radar.data.dto.TimeSeries;
+
+public class DownsamplerTest {
+    private static final long BEGIN = 1_600_000_000_000L;
+    private static final long STEP = 15 * 60 * 1000L;
+
+    private static List<TimeSeries.Record> values(int count, long seed) {
+        Random random = new Random(seed);
+        List<TimeSeries.Record> values = new ArrayList<>();
+        for( int i = 0; i < count; i++ ){
+            double value = 100 * Math.sin(i / 50.0) + random.nextGaussian() * 10;
+            values.add(new TimeSeries.Record(new Timestamp(BEGIN + i * STEP), value, 0));
+        }
+        return values;
+    }
+
+    private static List<TimeSeries.Record> downsample(List<TimeSeries.Record> values, Downsampler.Mode mode, int maxPoints) {
+        return Downsampler.downsample(values.stream(), mode, BEGIN, BEGIN + values.size() * STEP, maxPoints)
+                .collect(Collectors.toList());
+    }
+
+    private static void assertInTimeOrder(List<TimeSeries.Record> values) {
+        for( int i = 1; i < values.size(); i++ ){
+            assertTrue(values.get(i - 1).getDateTime().before(values.get(i).getDateTime()), "out of order at " + i);
+        }
+    }
+
+    @Test
+    public void ExtremesKeepMinimumAndMaximum() {
+        List<TimeSeries.Record> values = values(35000, 1);
+        TimeSeries.Record min = values.stream().min((a, b) -> Double.compare(a.getValue(), b.getValue())).get();
+        TimeSeries.Record max = values.stream().max((a, b) -> Double.compare(a.getValue(), b.getValue())).get();
+        for( Downsampler.Mode mode: new Downsampler.Mode[]{Downsampler.Mode.MINMAX, Downsampler.Mode.M4} ){
+            List<TimeSeries.Record> reduced = downsample(values, mode, 1000);
+            assertTrue(reduced.size() <= 1000, mode + " returned " + reduced.size());
+            assertTrue(reduced.size() > 400, mode + " returned " + reduced.size());
+            assertInTimeOrder(reduced);
+            assertTrue(reduced.contains(min));
+            assertTrue(reduced.contains(max));
+        }
+        List<TimeSeries.Record> m4 = downsample(values, Downsampler.Mode.M4, 1000);
+        assertEquals(values.get(0), m4.get(0));
+        assertEquals(values.get(values.size() - 1), m4.get(m4.size() - 1));
+    }
+
+    @Test
+    public void LttbMatchesFullAlgorithm() {
+        for( long seed = 0; seed < 5; seed++ ){
+            List<TimeSeries.Record> values = values(5000, seed);
+            List<TimeSeries.Record> reduced = downsample(values, Downsampler.Mode.LTTB, 200);
+            assertEquals(lttb(values, 200), reduced);
+            assertTrue(reduced.size() <= 200);
+            assertInTimeOrder(reduced);
+        }
+    }
+
+    @Test
+    public void FewValuesAreUnchanged() {
+        List<TimeSeries.Record> values = values(10, 2);
+        for( Downsampler.Mode mode: Downsampler.Mode.values() ){
+            assertEquals(values, downsample(values, mode, 1000), mode.name());
+        }
+    }
+
+    @Test
+    public void GapsAreKept() {
+        List<TimeSeries.Record> values = values(1000, 3);
+        for( int i = 400; i < 600; i++ ){
+            values.set(i, new TimeSeries.Record(values.get(i).getDateTime(), null, 5));
+        }
+        for( Downsampler.Mode mode: Downsampler.Mode.values() ){
+            List<TimeSeries.Record> reduced = downsample(values, mode, 100);
+            assertTrue(reduced.size() <= 100);
+            assertInTimeOrder(reduced);
+            long missing = reduced.stream().filter(r -> r.getValue() == null).count();
+            assertTrue(missing > 0, mode.name());
+            reduced.stream()
+                .filter(r -> r.getValue() == null)
+                .forEach(r -> assertTrue(values.indexOf(r) >= 400 && values.indexOf(r) < 600));
+        }
+    }
+
+    @Test
+    public void ClosingClosesSource() {
+        AtomicBoolean closed = new AtomicBoolean(false);
+        Stream<TimeSeries.Record> source = values(100, 4).stream().onClose(() -> closed.set(true));
+        Downsampler.downsample(source, Downsampler.Mode.LTTB, BEGIN, BEGIN + 100 * STEP, 10).close();
+        assertTrue(closed.get());
+    }
+
+    @Test
+    public void RejectsTooFewPoints() {
+        assertThrows(IllegalArgumentException.class, () -> downsample(values(10, 5), Downsampler.Mode.M4, 3));
+        assertThrows(IllegalArgumentException.class, () -> Downsampler.Mode.of("median"));
+        assertEquals(Downsampler.Mode.LTTB, Downsampler.Mode.of("lttb"));
+    }
+
+    @Test
+    public void ReportsValuesRead() {
+        AtomicInteger read = new AtomicInteger(-1);
+        List<TimeSeries.Record> values = values(5000, 6);
+        Stream<TimeSeries.Record> reduced = Downsampler.downsample(values.stream(), Downsampler.Mode.LTTB,
+                BEGIN, BEGIN + values.size() * STEP, 100, read::set);
+        Iterator<TimeSeries.Record> it = reduced.iterator();
+        it.next();
+        // only once everything was read
+        assertEquals(-1, read.get());
+        it.forEachRemaining(r -> { });
+        assertEquals(5000, read.get());
+    }
+
+    @Test
+    public void EmptyInput() {
+        assertEquals(0, downsample(new ArrayList<>(), Downsampler.Mode.LTTB, 10).size());
+        assertNull(Downsampler.downsample(Stream.empty(), Downsampler.Mode.M4, BEGIN, BEGIN, 10).findFirst().orElse(null));
+    }
+
+    /**
+     * Textbook LTTB over the same time buckets, looking at every value.
+     */
+    private static List<TimeSeries.Record> lttb(List<TimeSeries.Record> values, int maxPoints) {
+        int count = maxPoints - 2;
+        double width = Math.max(1.0, (values.size() * STEP) / (double) count);
+        List<List<TimeSeries.Record>> buckets = new ArrayList<>();
+        for( int i = 0; i < count; i++ ){
+            buckets.add(new ArrayList<>());
+        }
+        for( TimeSeries.Record rec: values ){
+            int index = (int) Math.max(0, Math.min(count - 1, (long) Math.floor((rec.getDateTime().getTime() - BEGIN) / width)));
+            buckets.get(index).add(rec);
+        }
+        buckets.removeIf(List::isEmpty);
+
+        TimeSeries.Record first = values.get(0);
+        TimeSeries.Record last = values.get(values.size() - 1);
+        List<TimeSeries.Record> result = new ArrayList<>();
+        result.add(first);
+        TimeSeries.Record previous = first;
+        for( int b = 0; b < buckets.size(); b++ ){
+            double cx;
+            double cy;
+            if( b + 1 < buckets.size() ){
+                cx = buckets.get(b + 1).stream().mapToDouble(r -> r.getDateTime().getTime()).average().getAsDouble();
+                cy = buckets.get(b + 1).stream().mapToDouble(TimeSeries.Record::getValue).average().getAsDouble();
+            } else {
+                cx = last.getDateTime().getTime();
+                cy = last.getValue();
+            }
+            double ax = previous.getDateTime().getTime();
+            double ay = previous.getValue();
+            TimeSeries.Record best = null;
+            double bestArea = -1;
+            for( TimeSeries.Record rec: buckets.get(b) ){
+                if( rec == first || rec == last ){
+                    continue;
+                }
+                double area = Math.abs((ax - cx) * (rec.getValue() - ay) - (ax - rec.getDateTime().getTime()) * (cy - ay));
+                if( area > bestArea ){
+                    bestArea = area;
+                    best = rec;
+                }
+            }
+            if( best != null ){
+                result.add(best);
+                previous = best;
+            }
+        }
+        result.add(last);
+        return result;
+    }
+}
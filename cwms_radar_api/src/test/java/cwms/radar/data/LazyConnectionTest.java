@@ -0,0 +1,94 @@
+package cwms.radar.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.Test;
+
+public class LazyConnectionTest {
+
+    private final AtomicInteger checkouts = new AtomicInteger();
+    private final AtomicInteger closes = new AtomicInteger();
+
+    private DataSource pool() {
+        return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{DataSource.class},
+            (proxy, method, args) -> {
+                if( method.getName().equals("getConnection") ){
+                    checkouts.incrementAndGet();
+                    return pooledConnection();
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+    }
+
+    private Connection pooledConnection() {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+            (proxy, method, args) -> {
+                switch(method.getName()) {
+                    case "close": closes.incrementAndGet(); return null;
+                    case "isClosed": return false;
+                    case "getSchema": return "CWMS_20";
+                    default: return null;
+                }
+            });
+    }
+
+    @Test
+    public void UnusedConnectionIsNeverCheckedOut() throws Exception {
+        Connection conn = LazyConnection.of(pool());
+        assertTrue(LazyConnection.isLazy(conn));
+        assertFalse(LazyConnection.isAcquired(conn));
+        conn.close();
+        assertEquals(0, checkouts.get());
+        assertEquals(0, closes.get());
+        assertTrue(conn.isClosed());
+    }
+
+    @Test
+    public void FirstUseChecksOutOnce() throws Exception {
+        Connection conn = LazyConnection.of(pool());
+        assertEquals("CWMS_20", conn.getSchema());
+        assertEquals("CWMS_20", conn.getSchema());
+        assertTrue(LazyConnection.isAcquired(conn));
+        assertEquals(1, checkouts.get());
+        conn.close();
+        assertEquals(1, closes.get());
+        assertThrows(SQLException.class, conn::getSchema);
+    }
+
+    @Test
+    public void SetupRunsWhenAcquired() throws Exception {
+        List<String> ran = new ArrayList<>();
+        try(Connection conn = LazyConnection.of(pool())) {
+            LazyConnection.whenAcquired(conn, c -> ran.add("office"));
+            assertTrue(ran.isEmpty());
+            conn.getSchema();
+            assertEquals(1, ran.size());
+            LazyConnection.whenAcquired(conn, c -> ran.add("later"));
+            assertEquals(2, ran.size());
+        }
+    }
+
+    @Test
+    public void FailedSetupReturnsConnection() {
+        Connection conn = LazyConnection.of(pool());
+        assertThrows(SQLException.class, () -> {
+            LazyConnection.whenAcquired(conn, c -> { throw new SQLException("no office"); });
+            conn.getSchema();
+        });
+        assertEquals(1, checkouts.get());
+        assertEquals(1, closes.get());
+        assertFalse(LazyConnection.isAcquired(conn));
+    }
+}
@@ -0,0 +1,81 @@
+package cwms.radar.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.codahale.metrics.MetricRegistry;
+
+import org.jooq.Cursor;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record1;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class QueryMetricsTest {
+    private static final Field<Integer> VALUE = DSL.field(DSL.name("VALUE"), Integer.class);
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private DSLContext dsl;
+
+    @BeforeEach
+    public void setup() {
+        QueryMetrics.setMetricRegistry(metrics);
+        MockConnection connection = new MockConnection(ctx -> {
+            DSLContext create = DSL.using(SQLDialect.DEFAULT);
+            Result<Record1<Integer>> result = create.newResult(VALUE);
+            for( int i = 0; i < 3; i++ ){
+                result.add(create.newRecord(VALUE).values(i));
+            }
+            return new MockResult[]{ new MockResult(result.size(), result) };
+        });
+        dsl = DSL.using(new DefaultConfiguration()
+            .set(connection)
+            .set(SQLDialect.DEFAULT)
+            .set(QueryMetrics.provider()));
+    }
+
+    private static String metric(String statement, String what) {
+        return MetricRegistry.name(QueryMetrics.class, statement, what);
+    }
+
+    @Test
+    public void StatementsAreNamedAfterWhatTheyRead() {
+        assertEquals("CWMS_TS.RETRIEVE_TS_OUT_TAB", QueryMetrics.statementName(
+            "select \"CWMS_20\".\"CWMS_ROUNDING\".\"ROUND_DD_F\"(VALUE, '5567899996', 'T') VALUE "
+            + "from table(\"CWMS_20\".\"CWMS_TS\".\"RETRIEVE_TS_OUT_TAB\"(?, ?, ?)) where DATE_TIME >= ?"));
+        assertEquals("AV_TSV", QueryMetrics.statementName(
+            "select max(\"DATA_ENTRY_DATE\"), count(*) from \"CWMS_20\".\"AV_TSV\" "
+            + "where \"DATE_TIME\" between \"CWMS_20\".\"CWMS_UTIL\".\"TO_TIMESTAMP\"(?) and ?"));
+        assertEquals("CWMS_UTIL.GET_DB_OFFICE_ID", QueryMetrics.statementName(
+            "select \"CWMS_20\".\"CWMS_UTIL\".\"GET_DB_OFFICE_ID\"(?) \"OFFICE_ID\" from dual"));
+        assertEquals("update", QueryMetrics.statementName("update something set a = 1"));
+    }
+
+    @Test
+    public void PhasesAndRowsAreRecorded() {
+        assertEquals(3, dsl.select(VALUE).from(DSL.table(DSL.name("CWMS_20", "AV_TSV"))).fetch().size());
+
+        assertEquals(1, metrics.timer(metric("AV_TSV", "prepare")).getCount());
+        assertEquals(1, metrics.timer(metric("AV_TSV", "execute")).getCount());
+        assertEquals(1, metrics.timer(metric("AV_TSV", "fetch")).getCount());
+        assertEquals(1, metrics.timer(metric("AV_TSV", "total")).getCount());
+        assertEquals(3, metrics.histogram(metric("AV_TSV", "rows")).getSnapshot().getMax());
+    }
+
+    @Test
+    public void LazyResultsAreTimedUntilClosed() {
+        try( Cursor<Record1<Integer>> cursor = dsl.select(VALUE).from(DSL.table(DSL.name("AV_LOC"))).fetchLazy() ){
+            cursor.fetchNext();
+            assertEquals(0, metrics.timer(metric("AV_LOC", "total")).getCount());
+            cursor.fetchNext();
+        }
+        assertEquals(1, metrics.timer(metric("AV_LOC", "total")).getCount());
+        assertEquals(2, metrics.histogram(metric("AV_LOC", "rows")).getSnapshot().getMax());
+    }
+}
@@ -0,0 +1,121 @@
+package cwms.radar.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.jupiter.api.Test;
+
+public class QuotaDataSourceTest {
+    private static final String PREFIX = "cwms.radar.data.QuotaDataSource.test.";
+
+    private final AtomicInteger checkouts = new AtomicInteger();
+    private final AtomicInteger closes = new AtomicInteger();
+    private final MetricRegistry metrics = new MetricRegistry();
+    private boolean poolFails = false;
+
+    private DataSource pool() {
+        return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{DataSource.class},
+            (proxy, method, args) -> {
+                if( method.getName().equals("getConnection") ){
+                    if( poolFails ){
+                        throw new SQLException("ORA-12519");
+                    }
+                    checkouts.incrementAndGet();
+                    return pooledConnection();
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+    }
+
+    private Connection pooledConnection() {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+            (proxy, method, args) -> {
+                switch(method.getName()) {
+                    case "close": closes.incrementAndGet(); return null;
+                    case "getSchema": return "CWMS_20";
+                    case "commit": throw new SQLException("ORA-02091");
+                    default: return null;
+                }
+            });
+    }
+
+    private QuotaDataSource quota(int connections) {
+        return new QuotaDataSource(pool(), "test", connections, 20, TimeUnit.MILLISECONDS, metrics);
+    }
+
+    @Test
+    public void NoMoreThanTheQuotaAtOnce() throws Exception {
+        QuotaDataSource ds = quota(2);
+        Connection first = ds.getConnection();
+        Connection second = ds.getConnection();
+        assertEquals(2, metrics.getGauges().get(PREFIX + "in-use").getValue());
+
+        assertThrows(SQLTransientConnectionException.class, ds::getConnection);
+        assertEquals(1, metrics.meter(PREFIX + "exhausted").getCount());
+        assertEquals(2, checkouts.get());
+
+        first.close();
+        Connection third = ds.getConnection();
+        assertEquals(3, checkouts.get());
+        second.close();
+        third.close();
+        assertEquals(0, ds.inUse());
+        assertEquals(3, closes.get());
+    }
+
+    @Test
+    public void ClosingTwiceGivesBackOnePermit() throws Exception {
+        QuotaDataSource ds = quota(1);
+        Connection conn = ds.getConnection();
+        conn.close();
+        conn.close();
+        assertEquals(0, ds.inUse());
+        assertEquals(1, closes.get());
+        ds.getConnection();
+        assertThrows(SQLTransientConnectionException.class, ds::getConnection);
+    }
+
+    @Test
+    public void CallsAndErrorsPassThrough() throws Exception {
+        QuotaDataSource ds = quota(1);
+        try(Connection conn = ds.getConnection()) {
+            assertEquals("CWMS_20", conn.getSchema());
+            SQLException err = assertThrows(SQLException.class, conn::commit);
+            assertEquals("ORA-02091", err.getMessage());
+        }
+        assertEquals(0, ds.inUse());
+    }
+
+    @Test
+    public void FailedCheckoutDoesNotUseTheQuota() throws Exception {
+        QuotaDataSource ds = quota(1);
+        poolFails = true;
+        assertThrows(SQLException.class, ds::getConnection);
+        assertEquals(0, ds.inUse());
+        poolFails = false;
+        ds.getConnection().close();
+        assertEquals(1, checkouts.get());
+    }
+
+    @Test
+    public void LazyConnectionOnlyCountsOnceUsed() throws Exception {
+        QuotaDataSource ds = quota(1);
+        Connection lazy = LazyConnection.of(ds);
+        assertEquals(0, ds.inUse());
+        lazy.getSchema();
+        assertEquals(1, ds.inUse());
+        lazy.close();
+        assertEquals(0, ds.inUse());
+    }
+}
@@ -0,0 +1,185 @@
+package cwms.radar.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import cwms.radar.data.dto.TimeSeriesValues;
+
+public class RecentValuesCacheTest {
+    private static final long MINUTE = 60_000L;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+    private static final long START = 1_600_000_000_000L;
+
+    private final AtomicLong now = new AtomicLong(START);
+
+    private RecentValuesCache cache(long budget) {
+        return new RecentValuesCache(7 * DAY, MINUTE, HOUR, 15 * MINUTE, budget, now::get);
+    }
+
+    /**
+     * Stand in for the database: hourly values, remembers what it was asked for.
+     */
+    private static final class Database implements RecentValuesCache.Fetcher {
+        final TreeMap<Long,Double> values = new TreeMap<>();
+        final List<long[]> fetches = new ArrayList<>();
+
+        Database(long from, long to) {
+            for( long t = from; t <= to; t += HOUR ){
+                values.put(t, (double) t / HOUR);
+            }
+        }
+
+        @Override
+        public void fetch(long from, long to, RecentValuesCache.ValueSink sink) {
+            fetches.add(new long[]{from, to});
+            values.subMap(from, true, to, true).forEach((t, v) -> sink.add(t, v, v == null ? 5 : 0));
+        }
+    }
+
+    private static void assertMatches(Database db, long from, long to, TimeSeriesValues values) {
+        List<Long> expected = new ArrayList<>(db.values.subMap(from, true, to, true).keySet());
+        assertEquals(expected.size(), values.size());
+        for( int i = 0; i < values.size(); i++ ){
+            long t = expected.get(i);
+            assertEquals(t, values.getDateTime(i));
+            Double value = db.values.get(t);
+            assertEquals(value == null, values.isNull(i));
+            if( value != null ){
+                assertEquals(value, values.getValue(i));
+            }
+        }
+    }
+
+    @Test
+    public void ServesRecentWindowsOnly() {
+        RecentValuesCache cache = cache(1 << 20);
+        assertTrue(cache.serves(START - DAY, START));
+        assertTrue(cache.serves(START - 7 * DAY, START - DAY));
+        assertFalse(cache.serves(START - 8 * DAY, START));
+        assertFalse(cache.serves(START - DAY, START + MINUTE));
+        assertFalse(cache.serves(START, START - DAY));
+        assertFalse(cache(0).serves(START - DAY, START));
+    }
+
+    @Test
+    public void RepeatedRequestsStayInMemory() {
+        RecentValuesCache cache = cache(1 << 20);
+        Database db = new Database(START - 10 * DAY, START);
+        BigDecimal code = BigDecimal.ONE;
+
+        assertMatches(db, START - DAY, START, cache.read(code, "ft", START - DAY, START, db));
+        assertEquals(1, db.fetches.size());
+        now.addAndGet(30_000);
+        assertMatches(db, START - 12 * HOUR, START, cache.read(code, "ft", START - 12 * HOUR, START + 30_000, db));
+        assertEquals(1, db.fetches.size());
+
+        // other units are separate
+        cache.read(code, "m", START - DAY, START, db);
+        assertEquals(2, db.fetches.size());
+    }
+
+    @Test
+    public void RefreshReadsOnlyNewValues() {
+        RecentValuesCache cache = cache(1 << 20);
+        Database db = new Database(START - 10 * DAY, START);
+        BigDecimal code = BigDecimal.ONE;
+        cache.read(code, "ft", START - DAY, START, db);
+
+        now.addAndGet(10 * MINUTE);
+        db.values.put(START + 5 * MINUTE, 1.5);
+        db.values.put(START + 10 * MINUTE, null);
+        // a late revision inside the overlap
+        db.values.put(START - 30 * MINUTE, 7.0);
+        TimeSeriesValues values = cache.read(code, "ft", START - DAY + 10 * MINUTE, now.get(), db);
+        assertEquals(2, db.fetches.size());
+        assertEquals(START - HOUR, db.fetches.get(1)[0]);
+        assertEquals(now.get(), db.fetches.get(1)[1]);
+        assertMatches(db, START - DAY + 10 * MINUTE, now.get(), values);
+    }
+
+    @Test
+    public void ReloadsWhenNeeded() {
+        RecentValuesCache cache = cache(1 << 20);
+        Database db = new Database(START - 10 * DAY, START);
+        BigDecimal code = BigDecimal.ONE;
+        cache.read(code, "ft", START - DAY, START, db);
+
+        // further back than what is held
+        assertMatches(db, START - 3 * DAY, START, cache.read(code, "ft", START - 3 * DAY, START, db));
+        assertEquals(START - 3 * DAY, db.fetches.get(1)[0]);
+
+        // a revision older than the overlap shows up after the reload interval
+        db.values.put(START - 2 * DAY, -1.0);
+        now.addAndGet(15 * MINUTE);
+        assertMatches(db, START - 3 * DAY, START, cache.read(code, "ft", START - 3 * DAY, START, db));
+        assertEquals(START - 3 * DAY, db.fetches.get(2)[0]);
+    }
+
+    @Test
+    public void OldValuesAreDropped() {
+        // never reloaded, so only refreshes keep it current
+        RecentValuesCache cache = new RecentValuesCache(7 * DAY, MINUTE, HOUR, 100 * DAY, 1 << 20, now::get);
+        Database db = new Database(START - 10 * DAY, START + 10 * DAY);
+        BigDecimal code = BigDecimal.ONE;
+        cache.read(code, "ft", START - 7 * DAY, START, db);
+        long full = cache.usedBytes();
+
+        for( int day = 1; day <= 6; day++ ){
+            now.addAndGet(DAY);
+            assertMatches(db, now.get() - 7 * DAY, now.get(), cache.read(code, "ft", now.get() - 7 * DAY, now.get(), db));
+        }
+        assertEquals(7, db.fetches.size());
+        // the ring holds the last 7 days, no more memory than at first
+        assertTrue(cache.usedBytes() <= full, cache.usedBytes() + " > " + full);
+    }
+
+    @Test
+    public void LeastRecentlyUsedIsEvicted() {
+        Database db = new Database(START - 10 * DAY, START);
+        RecentValuesCache probe = cache(Long.MAX_VALUE);
+        probe.read(BigDecimal.ONE, "ft", START - DAY, START, db);
+        long one = probe.usedBytes();
+
+        RecentValuesCache cache = cache(2 * one);
+        cache.read(BigDecimal.valueOf(1), "ft", START - DAY, START, db);
+        cache.read(BigDecimal.valueOf(2), "ft", START - DAY, START, db);
+        cache.read(BigDecimal.valueOf(1), "ft", START - DAY, START, db);
+        cache.read(BigDecimal.valueOf(3), "ft", START - DAY, START, db);
+        assertEquals(2, cache.size());
+        assertTrue(cache.usedBytes() <= 2 * one);
+
+        int fetches = db.fetches.size();
+        cache.read(BigDecimal.valueOf(1), "ft", START - DAY, START, db);
+        assertEquals(fetches, db.fetches.size());
+        cache.read(BigDecimal.valueOf(2), "ft", START - DAY, START, db);
+        assertEquals(fetches + 1, db.fetches.size());
+    }
+
+    @Test
+    public void FailuresAreNotCached() {
+        RecentValuesCache cache = cache(1 << 20);
+        Database db = new Database(START - 10 * DAY, START);
+        assertThrows(IllegalStateException.class, () -> cache.read(BigDecimal.ONE, "ft", START - DAY, START, (from, to, sink) -> {
+            sink.add(START - DAY, 1.0, 0);
+            throw new IllegalStateException("connection lost");
+        }));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.usedBytes());
+        assertMatches(db, START - DAY, START, cache.read(BigDecimal.ONE, "ft", START - DAY, START, db));
+
+        cache.invalidate(BigDecimal.ONE);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.usedBytes());
+    }
+}
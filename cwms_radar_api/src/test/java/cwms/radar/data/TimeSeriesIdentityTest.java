@@ -0,0 +1,39 @@
+package cwms.radar.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.Test;
+
+public class TimeSeriesIdentityTest {
+
+    private final TimeSeriesIdentity identity = new TimeSeriesIdentity("SPK", "Alpha.Flow.Inst.1Hour.0.raw",
+            BigDecimal.ONE, 60, "cms", "cfs");
+
+    @Test
+    public void UnitSystemsResolveToDefaults() {
+        assertEquals("cms", identity.unitsFor("SI"));
+        assertEquals("cfs", identity.unitsFor("en"));
+        assertEquals("kcfs", identity.unitsFor("kcfs"));
+    }
+
+    @Test
+    public void CachedByOfficeAndCaseInsensitiveName() {
+        String key = TimeSeriesIdentity.key("spk", "ALPHA.flow.Inst.1Hour.0.raw");
+        TimeSeriesIdentity.store(key, identity);
+        assertSame(identity, TimeSeriesIdentity.cached(TimeSeriesIdentity.key("SPK", "alpha.flow.inst.1hour.0.RAW")));
+
+        TimeSeriesIdentity.invalidate("SPK", "Alpha.Flow.Inst.1Hour.0.raw");
+        assertNull(TimeSeriesIdentity.cached(key));
+    }
+
+    @Test
+    public void UnknownOfficeIsNotCached() {
+        assertNull(TimeSeriesIdentity.key(null, "Alpha.Flow.Inst.1Hour.0.raw"));
+        TimeSeriesIdentity.store(null, identity);
+        assertNull(TimeSeriesIdentity.cached(null));
+    }
+}
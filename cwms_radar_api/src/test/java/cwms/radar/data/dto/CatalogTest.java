@@ -0,0 +1,29 @@
+package cwms.radar.data.dto;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import cwms.radar.data.dto.catalog.TimeseriesCatalogEntry;
+
+public class CatalogTest {
+
+    @Test
+    public void nextPageCursorCanBeDecoded() {
+        Catalog cat = new Catalog(null, 20, 1,
+                Arrays.asList(new TimeseriesCatalogEntry("SPK", "Loc.Stage.Inst.1Hour.0.raw", "ft")));
+        String[] parts = Catalog.decodeCursor(cat.getNextPage(), "|||");
+        assertArrayEquals(new String[]{"SPK/LOC.STAGE.INST.1HOUR.0.RAW;UNITS=FT", "20"}, parts);
+    }
+
+    @Test
+    public void lastPageHasNoCursor() {
+        Catalog cat = new Catalog(null, 0, 10, Collections.emptyList(), null);
+        assertNull(cat.getNextPage());
+        assertNull(cat.getPage());
+    }
+}
@@ -0,0 +1,75 @@
+package cwms.radar.data.dto;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class TimeSeriesValuesTest {
+
+    @Test
+    public void valuesSurviveGrowth() {
+        TimeSeriesValues values = new TimeSeriesValues();
+        int count = 1000;
+        for(int i = 0; i < count; i++) {
+            values.add(i * 60000L, i % 3 == 0 ? null : i * 0.5, i % 7);
+        }
+
+        assertEquals(count, values.size());
+        for(int i = 0; i < count; i++) {
+            assertEquals(i * 60000L, values.getDateTime(i));
+            assertEquals(i % 3 == 0, values.isNull(i));
+            assertEquals(i % 7, values.getQualityCode(i));
+            if(i % 3 != 0) {
+                assertEquals(i * 0.5, values.getValue(i));
+            }
+        }
+    }
+
+    @Test
+    public void listViewMatchesColumns() {
+        TimeSeriesValues values = new TimeSeriesValues();
+        values.add(1000L, null, 5);
+        values.add(2000L, 1.25, 0);
+
+        TimeSeries.Record first = values.get(0);
+        assertEquals(1000L, first.getDateTime().getTime());
+        assertNull(first.getValue());
+        assertEquals(5, first.getQualityCode());
+        assertEquals(1.25, values.get(1).getValue());
+
+        values.clear();
+        values.add(3000L, 2.0, 0);
+        assertEquals(1, values.size());
+        assertFalse(values.isNull(0));
+        assertTrue(values.add(first));
+        assertTrue(values.isNull(1));
+    }
+
+    private static TimeSeriesValues sample(Double third, int quality) {
+        TimeSeriesValues values = new TimeSeriesValues();
+        values.add(1000L, 1.0, 0);
+        values.add(2000L, 2.0, 0);
+        values.add(3000L, third, quality);
+        return values;
+    }
+
+    @Test
+    public void fingerprintFollowsEveryColumn() {
+        long fingerprint = sample(3.0, 0).fingerprint();
+        assertEquals(fingerprint, sample(3.0, 0).fingerprint());
+        assertNotEquals(fingerprint, sample(3.5, 0).fingerprint());
+        assertNotEquals(fingerprint, sample(3.0, 3).fingerprint());
+        assertNotEquals(fingerprint, sample(null, 0).fingerprint());
+        TimeSeriesValues moved = sample(3.0, 0);
+        moved.clear();
+        moved.add(1000L, 1.0, 0);
+        moved.add(2000L, 2.0, 0);
+        moved.add(4000L, 3.0, 0);
+        assertNotEquals(fingerprint, moved.fingerprint());
+        assertNotEquals(fingerprint, new TimeSeriesValues().fingerprint());
+    }
+}
@@ -0,0 +1,237 @@
+package cwms.radar.formatters;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import cwms.radar.data.dto.TimeSeries;
+import cwms.radar.formatters.binary.CwmsTsV1;
+import cwms.radar.formatters.json.JsonV2;
+
+public class CwmsTsV1Test {
+    private static final ZonedDateTime BEGIN = ZonedDateTime.parse("2021-06-21T08:00:00-07:00[PST8PDT]");
+    // size of the formatter's write buffer, BLOCK_SIZE * 28 + 64
+    private static final int BUFFER_SIZE = 4096 * 28 + 64;
+
+    private static List<TimeSeries.Record> records(int count) {
+        List<TimeSeries.Record> records = new ArrayList<>();
+        for( int i = 0; i < count; i++ ){
+            Double value = i % 7 == 3 ? null : i * 0.25 - 100;
+            // mostly regular with the odd gap, quality changes in runs
+            long time = BEGIN.toInstant().toEpochMilli() + i * 900_000L + (i > 5000 ? 3_600_000L : 0);
+            records.add(new TimeSeries.Record(new Timestamp(time), value, i < 6000 ? 0 : (i < 6100 ? -2147483647 : 3)));
+        }
+        return records;
+    }
+
+    private static TimeSeries timeSeries(int pageSize, int total) {
+        return new TimeSeries(null, pageSize, total, "Test.Test.Elev.Inst.15Minutes.0.RAW", "SPK", BEGIN, BEGIN.plusDays(100), "ft", Duration.ofMinutes(15));
+    }
+
+    private static byte[] format(TimeSeries ts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CwmsTsV1().format(ts, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void LoadedValuesRoundTrip() throws IOException {
+        List<TimeSeries.Record> records = records(10000);
+        TimeSeries ts = timeSeries(-1, records.size());
+        records.forEach(r -> ts.addValue(r.getDateTime(), r.getValue(), r.getQualityCode()));
+
+        Decoded decoded = decode(format(ts));
+        assertEquals("Test.Test.Elev.Inst.15Minutes.0.RAW", decoded.name);
+        assertEquals("SPK", decoded.office);
+        assertEquals("ft", decoded.units);
+        assertEquals(15, decoded.intervalMinutes);
+        assertEquals(BEGIN.toInstant().toEpochMilli(), decoded.begin);
+        assertEquals(BEGIN.plusDays(100).toInstant().toEpochMilli(), decoded.end);
+        assertEquals("PST8PDT", decoded.zone);
+        assertSameValues(records, decoded.values);
+        assertEquals(10000, decoded.total);
+        assertEquals("", decoded.nextPage);
+        // 3 blocks, each with a single quality run apart from the one the changes fall in
+        assertEquals(3, decoded.blocks);
+        assertEquals(5, decoded.runs);
+    }
+
+    @Test
+    public void PendingValuesMatchLoadedValues() throws IOException {
+        List<TimeSeries.Record> records = records(5000);
+        TimeSeries loaded = timeSeries(3000, records.size());
+        for( TimeSeries.Record r: records ){
+            if( !loaded.addValue(r.getDateTime(), r.getValue(), r.getQualityCode()) ){
+                break;
+            }
+        }
+        TimeSeries lazy = timeSeries(3000, records.size());
+        lazy.setPendingValues(records.stream());
+
+        byte[] pending = format(lazy);
+        assertFalse(lazy.hasPendingValues());
+        assertArrayEquals(format(loaded), pending);
+
+        Decoded decoded = decode(pending);
+        assertSameValues(records.subList(0, 3000), decoded.values);
+        assertEquals(loaded.getNextPage(), decoded.nextPage);
+        assertEquals(3000, decoded.pageSize);
+    }
+
+    @Test
+    public void NumbersAtTheEndOfTheBuffer() throws IOException {
+        // the name fills the buffer to a little under capacity, so the numbers after it land on the boundary
+        // without values the trailer follows the header, with them it starts a new buffer after the block
+        for( int count: new int[]{0, 2} ){
+            for( int free = 0; free < 64; free++ ){
+                char[] name = new char[BUFFER_SIZE - 5 - 3 - free];
+                Arrays.fill(name, 'x');
+                TimeSeries ts = new TimeSeries(null, 10, 20, new String(name), "SPK", BEGIN, BEGIN.plusDays(1), "ft", Duration.ofMinutes(15));
+                records(count).forEach(r -> ts.addValue(r.getDateTime(), r.getValue(), r.getQualityCode()));
+
+                Decoded decoded = decode(format(ts));
+                assertEquals(name.length, decoded.name.length());
+                assertEquals(15, decoded.intervalMinutes);
+                assertSameValues(records(count), decoded.values);
+                assertEquals(20, decoded.total);
+                assertEquals(10, decoded.pageSize);
+            }
+        }
+    }
+
+    @Test
+    public void SmallerThanJson() throws IOException {
+        List<TimeSeries.Record> records = records(10000);
+        TimeSeries ts = timeSeries(-1, records.size());
+        records.forEach(r -> ts.addValue(r.getDateTime(), r.getValue(), r.getQualityCode()));
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        new JsonV2().format(ts, json);
+        assertTrue(format(ts).length * 2 < json.size(), "binary " + format(ts).length + " json " + json.size());
+    }
+
+    @Test
+    public void OnlyStreams() {
+        assertThrows(FormattingException.class, () -> new CwmsTsV1().format(timeSeries(-1, 0)));
+        assertEquals(new ContentType(Formats.CWMS_TS), Formats.parseHeaderAndQueryParm(null, "cwms-ts"));
+        assertEquals(new ContentType(Formats.CWMS_TS), Formats.parseHeaderAndQueryParm("application/x-cwms-ts, application/json;q=0.5", null));
+    }
+
+    private static void assertSameValues(List<TimeSeries.Record> expected, List<TimeSeries.Record> actual) {
+        assertEquals(expected.size(), actual.size());
+        for( int i = 0; i < expected.size(); i++ ){
+            assertEquals(expected.get(i).getDateTime(), actual.get(i).getDateTime());
+            assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+            assertEquals(expected.get(i).getQualityCode(), actual.get(i).getQualityCode());
+        }
+    }
+
+    private static final class Decoded {
+        String name;
+        String office;
+        String units;
+        long intervalMinutes;
+        long begin;
+        long end;
+        String zone;
+        final List<TimeSeries.Record> values = new ArrayList<>();
+        int blocks;
+        int runs;
+        String page;
+        String nextPage;
+        long total;
+        long pageSize;
+    }
+
+    private static Decoded decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte[] magic = new byte[4];
+        in.readFully(magic);
+        assertEquals("CWTS", new String(magic, StandardCharsets.US_ASCII));
+        assertEquals(1, in.readUnsignedByte());
+        Decoded decoded = new Decoded();
+        decoded.name = string(in);
+        decoded.office = string(in);
+        decoded.units = string(in);
+        decoded.intervalMinutes = signed(in);
+        decoded.begin = signed(in);
+        decoded.end = signed(in);
+        decoded.zone = string(in);
+        int count;
+        while( (count = (int) varint(in)) != 0 ){
+            decoded.blocks++;
+            long[] times = new long[count];
+            long time = 0;
+            for( int i = 0; i < count; i++ ){
+                time += signed(in);
+                times[i] = time;
+            }
+            double[] values = new double[count];
+            for( int i = 0; i < count; i++ ){
+                values[i] = in.readDouble();
+            }
+            byte[] nulls = new byte[(count + 7) / 8];
+            in.readFully(nulls);
+            int[] quality = new int[count];
+            int runs = (int) varint(in);
+            decoded.runs += runs;
+            int index = 0;
+            for( int r = 0; r < runs; r++ ){
+                int code = (int) signed(in);
+                long length = varint(in);
+                for( int i = 0; i < length; i++ ){
+                    quality[index++] = code;
+                }
+            }
+            assertEquals(count, index);
+            for( int i = 0; i < count; i++ ){
+                boolean isNull = (nulls[i / 8] & (1 << (i % 8))) != 0;
+                decoded.values.add(new TimeSeries.Record(new Timestamp(times[i]), isNull ? null : values[i], quality[i]));
+            }
+        }
+        decoded.page = string(in);
+        decoded.nextPage = string(in);
+        decoded.total = signed(in);
+        decoded.pageSize = signed(in);
+        assertEquals(-1, in.read());
+        return decoded;
+    }
+
+    private static long varint(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while( (b & 0x80) != 0 );
+        return value;
+    }
+
+    private static long signed(DataInputStream in) throws IOException {
+        long value = varint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static String string(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) varint(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
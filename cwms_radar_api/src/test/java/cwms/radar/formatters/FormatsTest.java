@@ -0,0 +1,69 @@
+package cwms.radar.formatters;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import cwms.radar.data.dto.Office;
+
+public class FormatsTest {
+
+    @Test
+    public void ContentTypeEqualityIgnoresQualityAndOrder() {
+        ContentType a = new ContentType("application/json;version=2;q=0.5");
+        ContentType b = new ContentType("application/json; version=2");
+        assertEquals(a, b);
+        assertEquals(b, a);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertEquals(Formats.JSONV2, a.toString());
+        // equality must be symmetric, a bare type is not the versioned one
+        assertNotEquals(new ContentType(Formats.JSON), a);
+        assertNotEquals(a, new ContentType(Formats.JSON));
+    }
+
+    @Test
+    public void HighestQualityWins() {
+        ContentType ct = Formats.parseHeaderAndQueryParm("application/json;q=0.2, application/json;version=2", null);
+        assertEquals(Formats.JSONV2, ct.toString());
+    }
+
+    @Test
+    public void ClientOrderBreaksTies() {
+        ContentType ct = Formats.parseHeaderAndQueryParm("text/html,application/xml;version=2,application/json", null);
+        assertEquals(Formats.XMLV2, ct.toString());
+    }
+
+    @Test
+    public void WildcardFallsBackToJson() {
+        ContentType ct = Formats.parseHeaderAndQueryParm("text/html,*/*;q=0.8", null);
+        assertEquals(Formats.JSON, ct.toString());
+    }
+
+    @Test
+    public void FormatParameterTakesPrecedence() {
+        assertEquals(Formats.CSV, Formats.parseHeaderAndQueryParm("application/json", "csv").toString());
+    }
+
+    @Test
+    public void NegotiatedTypesAreCached() {
+        String header = "application/xml;q=0.9,application/json";
+        assertSame(Formats.parseHeaderAndQueryParm(header, null), Formats.parseHeaderAndQueryParm(header, null));
+    }
+
+    @Test
+    public void UnavailableTypeIsRejected() {
+        assertThrows(FormattingException.class, () -> Formats.parseHeaderAndQueryParm("image/png", null));
+        assertThrows(FormattingException.class, () -> Formats.parseHeaderAndQueryParm(null, "pdf"));
+    }
+
+    @Test
+    public void WarmUpLoadsEveryFormatter() {
+        Formats.warmUp();
+        Office office = new Office("SPK", "Sacramento District", "DIS", "SPD");
+        assertTrue(Formats.format(new ContentType(Formats.JSON), office).contains("Sacramento District"));
+    }
+}
@@ -1,7 +1,25 @@
 package cwms.radar.formatters;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.jupiter.api.Test;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import cwms.radar.data.Downsampler;
+import cwms.radar.data.dto.TimeSeries;
 import cwms.radar.formatters.json.JsonV2;
 
 public class JsonV2Test extends TimeSeriesTestBase {
@@ -16,4 +34,56 @@ public class JsonV2Test extends TimeSeriesTestBase {
     public void SingleTimeseriesFormat() {
         super.SingleTimeseriesFormat();
     }
+
+    @Test
+    @Override
+    public void StreamedTimeseriesFormat() {
+        super.StreamedTimeseriesFormat();
+    }
+
+    @Test
+    public void PendingValuesMatchLoadedValues() throws IOException {
+        ZonedDateTime begin = ZonedDateTime.parse("2021-06-21T08:00:00-07:00[PST8PDT]");
+        List<TimeSeries.Record> records = new ArrayList<>();
+        for(int i = 0; i < 3; i++) {
+            records.add(new TimeSeries.Record(Timestamp.from(begin.plusHours(i).toInstant()), i == 1 ? null : i * 1.5, 0));
+        }
+
+        TimeSeries loaded = new TimeSeries(null, 2, 3, "Test.Test.Elev.0.0.RAW", "SPK", begin, begin.plusDays(1), "m", Duration.ZERO);
+        records.forEach(r -> loaded.addValue(r.getDateTime(), r.getValue(), r.getQualityCode()));
+
+        TimeSeries lazy = new TimeSeries(null, 2, 3, "Test.Test.Elev.0.0.RAW", "SPK", begin, begin.plusDays(1), "m", Duration.ZERO);
+        lazy.setPendingValues(records.stream());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        getOutputFormatter().format(lazy, out);
+        assertFalse(lazy.hasPendingValues());
+
+        ObjectMapper om = new ObjectMapper();
+        JsonNode expected = om.readTree(getOutputFormatter().format(loaded));
+        JsonNode actual = om.readTree(out.toByteArray());
+        assertNotNull(actual.get("next-page"));
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void TotalAfterValuesWhenOnlyKnownThen() throws IOException {
+        ZonedDateTime begin = ZonedDateTime.parse("2021-06-21T08:00:00-07:00[PST8PDT]");
+        List<TimeSeries.Record> records = new ArrayList<>();
+        for(int i = 0; i < 1000; i++) {
+            records.add(new TimeSeries.Record(Timestamp.from(begin.plusMinutes(i).toInstant()), Math.sin(i / 20.0), 0));
+        }
+        // like a window read in chunks and downsampled
+        TimeSeries ts = new TimeSeries(null, -1, null, "Test.Test.Elev.0.0.RAW", "SPK", begin, begin.plusMinutes(1000), "m", Duration.ZERO);
+        ts.setPendingValues(records.stream());
+        ts.transformPendingValues(values -> Downsampler.downsample(values, Downsampler.Mode.LTTB,
+                begin.toInstant().toEpochMilli(), begin.plusMinutes(1000).toInstant().toEpochMilli(), 100, ts::setTotal));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        getOutputFormatter().format(ts, out);
+
+        JsonNode actual = new ObjectMapper().readTree(out.toByteArray());
+        assertEquals(1000, actual.get("total").asInt());
+        assertTrue(actual.get("values").size() <= 100);
+    }
 }
@@ -1,8 +1,11 @@
 package cwms.radar.formatters;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.ZonedDateTime;
@@ -27,4 +30,12 @@ public abstract class TimeSeriesTestBase {
 		assertTrue(result.contains("values"));
     }
 
+    public void StreamedTimeseriesFormat() {
+        TimeSeries ts = getTimeSeries();
+        OutputFormatter v2 = getOutputFormatter();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        v2.format(ts, out);
+        assertEquals(v2.format(ts), new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
 }
@@ -1,7 +1,22 @@
 package cwms.radar.formatters;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import org.junit.jupiter.api.Test;
 
+import cwms.radar.data.dto.Clob;
+import cwms.radar.data.dto.Clobs;
+import cwms.radar.data.dto.TimeSeries;
 import cwms.radar.formatters.xml.XMLv2;
 
 public class XMLV2Test extends TimeSeriesTestBase {
@@ -16,4 +31,64 @@ public class XMLV2Test extends TimeSeriesTestBase {
     public void SingleTimeseriesFormat() {
         super.SingleTimeseriesFormat();
     }
+
+    @Test
+    @Override
+    public void StreamedTimeseriesFormat() {
+        super.StreamedTimeseriesFormat();
+    }
+
+    @Test
+    public void ClobsFormat() {
+        Clobs clobs = new Clobs.Builder(null, 10, 1)
+                .addClob(new Clob("SPK", "/TEST/CLOB", "a description", "the value"))
+                .build();
+        String result = getOutputFormatter().format(clobs);
+        assertTrue(result.contains("<id>/TEST/CLOB</id>"));
+        assertTrue(result.contains("<value>the value</value>"));
+    }
+
+    @Test
+    public void ConcurrentFormatsAreIndependent() throws Exception {
+        OutputFormatter formatter = getOutputFormatter();
+        TimeSeries ts = getTimeSeries();
+        for(int i = 1; i < 1000; i++) {
+            ts.addValue(new Timestamp(ts.getBegin().toInstant().toEpochMilli() + i * 60000L), (double) i, 0);
+        }
+        String expected = formatter.format(ts);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for(int i = 0; i < 64; i++) {
+                results.add(pool.submit(() -> formatter.format(ts)));
+            }
+            for(Future<String> result: results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void EveryRecordFromTheColumns() {
+        TimeSeries ts = getTimeSeries();
+        long begin = ts.getBegin().toInstant().toEpochMilli();
+        ts.addValue(new Timestamp(begin + 60000L), null, 3);
+        ts.addValue(new Timestamp(begin + 120000L), 2.5, 0);
+        String result = getOutputFormatter().format(ts);
+
+        List<String> records = new ArrayList<>();
+        Matcher matcher = Pattern.compile("<record>(.*?)</record>", Pattern.DOTALL).matcher(result);
+        while(matcher.find()) {
+            records.add(matcher.group(1).replaceAll("\\s", ""));
+        }
+        int count = ts.getValues().size();
+        assertEquals(count, records.size());
+        assertEquals("<dateTime>" + (begin + 60000L) + "</dateTime><qualityCode>3</qualityCode>", records.get(count - 2));
+        assertEquals("<dateTime>" + (begin + 120000L) + "</dateTime><value>2.5</value><qualityCode>0</qualityCode>", records.get(count - 1));
+        // the records handed to JAXB are reused, the time series' own are not touched
+        assertEquals(begin + 60000L, ts.getValues().get(count - 2).getDateTime().getTime());
+    }
 }
@@ -0,0 +1,243 @@
+package cwms.radar.helpers;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.jupiter.api.Test;
+
+public class CompressionFilterTest {
+
+    @Test
+    public void NegotiatesPreferredEncoding() {
+        assertEquals("gzip", CompressionFilter.negotiate("gzip, deflate, br"));
+        assertEquals("deflate", CompressionFilter.negotiate("gzip;q=0.5, deflate"));
+        assertEquals("gzip", CompressionFilter.negotiate("*"));
+        assertEquals("deflate", CompressionFilter.negotiate("gzip;q=0, *"));
+        assertNull(CompressionFilter.negotiate("br"));
+        assertNull(CompressionFilter.negotiate("identity"));
+        assertNull(CompressionFilter.negotiate(null));
+    }
+
+    @Test
+    public void SkipsCompressedTypes() {
+        assertTrue(CompressionFilter.compressible("application/json;version=2"));
+        assertTrue(CompressionFilter.compressible("image/svg+xml"));
+        assertFalse(CompressionFilter.compressible("image/png"));
+        assertFalse(CompressionFilter.compressible("application/zip"));
+    }
+
+    @Test
+    public void LargeResponsesAreCompressed() throws Exception {
+        byte[] body = body(100_000);
+        MetricRegistry metrics = new MetricRegistry();
+        FakeResponse res = run(new CompressionFilter(metrics), "gzip", (req, resp) -> {
+            resp.setContentType("application/json");
+            resp.setContentLength(body.length);
+            ServletOutputStream out = resp.getOutputStream();
+            // streamed in pieces, with a flush in between like a formatter would
+            out.write(body, 0, 10);
+            out.flush();
+            out.write(body, 10, body.length - 10);
+        });
+        assertEquals("gzip", res.headers.get("Content-Encoding"));
+        assertNull(res.headers.get("Content-Length"));
+        assertTrue(res.body.size() < body.length / 5);
+        assertArrayEquals(body, read(new GZIPInputStream(new ByteArrayInputStream(res.body.toByteArray()))));
+        assertEquals(body.length, metrics.meter(MetricRegistry.name(CompressionFilter.class, "bytes", "uncompressed")).getCount());
+        assertEquals(res.body.size(), metrics.meter(MetricRegistry.name(CompressionFilter.class, "bytes", "compressed")).getCount());
+    }
+
+    @Test
+    public void DeflateWithWriter() throws Exception {
+        String text = new String(body(50_000), StandardCharsets.UTF_8);
+        FakeResponse res = run(new CompressionFilter(new MetricRegistry()), "deflate", (req, resp) -> resp.getWriter().write(text));
+        assertEquals("deflate", res.headers.get("Content-Encoding"));
+        byte[] decoded = read(new InflaterInputStream(new ByteArrayInputStream(res.body.toByteArray())));
+        assertEquals(text, new String(decoded, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void SmallResponsesAreSentAsIs() throws Exception {
+        byte[] body = body(100);
+        FakeResponse res = run(new CompressionFilter(new MetricRegistry()), "gzip", (req, resp) -> resp.getOutputStream().write(body));
+        assertNull(res.headers.get("Content-Encoding"));
+        assertEquals("100", res.headers.get("Content-Length"));
+        assertArrayEquals(body, res.body.toByteArray());
+    }
+
+    @Test
+    public void ExistingEncodingIsKept() throws Exception {
+        byte[] body = body(100_000);
+        FakeResponse res = run(new CompressionFilter(new MetricRegistry()), "gzip", (req, resp) -> {
+            ((HttpServletResponse) resp).setHeader("Content-Encoding", "br");
+            resp.getOutputStream().write(body);
+        });
+        assertEquals("br", res.headers.get("Content-Encoding"));
+        assertArrayEquals(body, res.body.toByteArray());
+    }
+
+    @Test
+    public void NoAcceptEncoding() throws Exception {
+        byte[] body = body(100_000);
+        FakeResponse res = run(new CompressionFilter(new MetricRegistry()), null, (req, resp) -> resp.getOutputStream().write(body));
+        assertNull(res.headers.get("Content-Encoding"));
+        assertEquals("Accept-Encoding", res.headers.get("Vary"));
+        assertArrayEquals(body, res.body.toByteArray());
+    }
+
+    @Test
+    public void CompressedResponseGetsItsOwnEtag() throws Exception {
+        byte[] body = body(100_000);
+        FakeResponse res = run(new CompressionFilter(new MetricRegistry()), "gzip", (req, resp) -> {
+            ((HttpServletResponse) resp).setHeader("ETag", "\"abc\"");
+            resp.getOutputStream().write(body);
+        });
+        assertEquals("\"abc--gzip\"", res.headers.get("ETag"));
+
+        FakeResponse small = run(new CompressionFilter(new MetricRegistry()), "gzip", (req, resp) -> {
+            ((HttpServletResponse) resp).setHeader("ETag", "\"abc\"");
+            resp.getOutputStream().write(body(100));
+        });
+        assertEquals("\"abc\"", small.headers.get("ETag"));
+
+        FakeResponse weak = run(new CompressionFilter(new MetricRegistry()), "deflate", (req, resp) -> {
+            ((HttpServletResponse) resp).setHeader("ETag", "W/\"abc\"");
+            resp.getOutputStream().write(body);
+        });
+        assertEquals("W/\"abc\"", weak.headers.get("ETag"));
+    }
+
+    @Test
+    public void IfNoneMatchReachesTheHandlerWithoutCoding() throws Exception {
+        String[] seen = new String[1];
+        FakeResponse res = run(new CompressionFilter(new MetricRegistry()), "gzip", "\"other\", \"abc--gzip\"", (req, resp) -> {
+            seen[0] = ((HttpServletRequest) req).getHeader("If-None-Match");
+            HttpServletResponse http = (HttpServletResponse) resp;
+            http.setHeader("ETag", "\"abc\"");
+            http.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        });
+        assertEquals("\"other\", \"abc\"", seen[0]);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, res.status);
+        // the client has the compressed response, the 304 names that one
+        assertEquals("\"abc--gzip\"", res.headers.get("ETag"));
+
+        FakeResponse plain = run(new CompressionFilter(new MetricRegistry()), "gzip", "\"abc\"", (req, resp) -> {
+            HttpServletResponse http = (HttpServletResponse) resp;
+            http.setHeader("ETag", "\"abc\"");
+            http.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        });
+        assertEquals("\"abc\"", plain.headers.get("ETag"));
+    }
+
+    @Test
+    public void CompressedOutputCountsAsCommitted() throws Exception {
+        boolean[] canSend = new boolean[2];
+        run(new CompressionFilter(new MetricRegistry()), "gzip", (req, resp) -> {
+            HttpServletResponse http = (HttpServletResponse) resp;
+            http.getOutputStream().write(body(100));
+            // still held back, an error could replace it
+            canSend[0] = ErrorResponse.canSend(http);
+            http.getOutputStream().write(body(100_000));
+            canSend[1] = ErrorResponse.canSend(http);
+        });
+        assertTrue(canSend[0]);
+        assertFalse(canSend[1]);
+    }
+
+    private static byte[] body(int size) {
+        StringBuilder builder = new StringBuilder(size);
+        int i = 0;
+        while( builder.length() < size ){
+            builder.append("[").append(1600000000000L + i * 900000L).append(",").append(i % 97).append(".5,0],");
+            i++;
+        }
+        return builder.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while( (read = in.read(buffer)) > 0 ){
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static FakeResponse run(CompressionFilter filter, String acceptEncoding, FilterChain chain) throws Exception {
+        return run(filter, acceptEncoding, null, chain);
+    }
+
+    private static FakeResponse run(CompressionFilter filter, String acceptEncoding, String ifNoneMatch, FilterChain chain) throws Exception {
+        filter.init(null);
+        HttpServletRequest req = (HttpServletRequest) Proxy.newProxyInstance(CompressionFilterTest.class.getClassLoader(),
+            new Class<?>[]{HttpServletRequest.class}, (proxy, method, args) -> {
+                switch(method.getName()) {
+                    case "getHeader":
+                        if( "Accept-Encoding".equals(args[0]) ){
+                            return acceptEncoding;
+                        }
+                        return "If-None-Match".equals(args[0]) ? ifNoneMatch : null;
+                    case "getMethod": return "GET";
+                    case "isAsyncStarted": return false;
+                    default: return null;
+                }
+            });
+        FakeResponse res = new FakeResponse();
+        filter.doFilter(req, res.proxy(), chain);
+        return res;
+    }
+
+    private static final class FakeResponse {
+        final Map<String,String> headers = new HashMap<>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        String contentType;
+        int status = HttpServletResponse.SC_OK;
+        final ServletOutputStream out = new ServletOutputStream() {
+            @Override public void write(int b) { body.write(b); }
+            @Override public boolean isReady() { return true; }
+            @Override public void setWriteListener(WriteListener listener) { }
+        };
+
+        HttpServletResponse proxy() {
+            return (HttpServletResponse) Proxy.newProxyInstance(CompressionFilterTest.class.getClassLoader(),
+                new Class<?>[]{HttpServletResponse.class}, (proxy, method, args) -> {
+                    switch(method.getName()) {
+                        case "setHeader": case "addHeader": headers.put((String) args[0], (String) args[1]); return null;
+                        case "getHeader": return headers.get(args[0]);
+                        case "setContentLength": case "setContentLengthLong": headers.put("Content-Length", args[0].toString()); return null;
+                        case "setContentType": contentType = (String) args[0]; return null;
+                        case "getContentType": return contentType;
+                        case "getCharacterEncoding": return "UTF-8";
+                        case "setStatus": status = (Integer) args[0]; return null;
+                        case "getStatus": return status;
+                        case "isCommitted": return false;
+                        case "getOutputStream": return out;
+                        default: return null;
+                    }
+                });
+        }
+    }
+}
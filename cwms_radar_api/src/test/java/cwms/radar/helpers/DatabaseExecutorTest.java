@@ -0,0 +1,87 @@
+package cwms.radar.helpers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class DatabaseExecutorTest {
+    private static final String PREFIX = "cwms.radar.helpers.DatabaseExecutor.test.";
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private DatabaseExecutor executor;
+
+    @AfterEach
+    public void shutdown() {
+        release.countDown();
+        executor.shutdown();
+    }
+
+    private static Throwable failure(CompletableFuture<?> future) {
+        ExecutionException err = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        return err.getCause();
+    }
+
+    @Test
+    public void ResultsAndFailuresCompleteTheFuture() throws Exception {
+        executor = new DatabaseExecutor("test", 2, 10, 5, TimeUnit.SECONDS, 7, metrics);
+        assertEquals("rows", executor.submit(() -> "rows").get(5, TimeUnit.SECONDS));
+        SQLException sqlErr = new SQLException("ORA-00942");
+        assertSame(sqlErr, failure(executor.submit(() -> {
+            throw sqlErr;
+        })));
+        assertEquals(2, metrics.timer(PREFIX + "wait").getCount());
+        assertEquals(0, metrics.meter(PREFIX + "rejected").getCount());
+    }
+
+    @Test
+    public void FullQueueIsTurnedAway() throws Exception {
+        executor = new DatabaseExecutor("test", 1, 1, 5, TimeUnit.SECONDS, 7, metrics);
+        CountDownLatch running = new CountDownLatch(1);
+        executor.submit(() -> {
+            running.countDown();
+            return release.await(5, TimeUnit.SECONDS);
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> queued = executor.submit(() -> "queued");
+        assertEquals(1, metrics.getGauges().get(PREFIX + "queue").getValue());
+
+        Throwable err = failure(executor.submit(() -> "too many"));
+        assertTrue(err instanceof DatabaseExecutor.Overloaded, err.toString());
+        assertEquals(7, ((DatabaseExecutor.Overloaded) err).getRetryAfterSeconds());
+        assertEquals(1, metrics.meter(PREFIX + "rejected").getCount());
+
+        release.countDown();
+        assertEquals("queued", queued.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void WorkThatWaitedTooLongDoesNotRun() throws Exception {
+        executor = new DatabaseExecutor("test", 1, 10, 20, TimeUnit.MILLISECONDS, 7, metrics);
+        CountDownLatch running = new CountDownLatch(1);
+        executor.submit(() -> {
+            running.countDown();
+            Thread.sleep(100);
+            return null;
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        AtomicBoolean ran = new AtomicBoolean();
+        Throwable err = failure(executor.submit(() -> ran.getAndSet(true)));
+        assertTrue(err instanceof DatabaseExecutor.Overloaded, err.toString());
+        assertTrue(!ran.get());
+        assertEquals(1, metrics.meter(PREFIX + "rejected").getCount());
+    }
+}
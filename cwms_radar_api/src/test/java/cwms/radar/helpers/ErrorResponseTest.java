@@ -0,0 +1,116 @@
+package cwms.radar.helpers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.jupiter.api.Test;
+
+public class ErrorResponseTest {
+
+    /**
+     * Buffers like a container does, the status and headers go out with the first flush.
+     */
+    private static final class FakeResponse {
+        final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        int status = 200;
+        boolean committed = false;
+        final ServletOutputStream out = new ServletOutputStream() {
+            @Override public void write(int b) { buffer.write(b); }
+            @Override public void flush() throws IOException {
+                committed = true;
+                buffer.writeTo(sent);
+                buffer.reset();
+            }
+            @Override public boolean isReady() { return true; }
+            @Override public void setWriteListener(WriteListener listener) { }
+        };
+
+        HttpServletResponse proxy() {
+            return (HttpServletResponse) Proxy.newProxyInstance(ErrorResponseTest.class.getClassLoader(),
+                new Class<?>[]{HttpServletResponse.class}, (proxy, method, args) -> {
+                    switch(method.getName()) {
+                        case "isCommitted": return committed;
+                        case "resetBuffer":
+                            if( committed ){
+                                throw new IllegalStateException("committed");
+                            }
+                            buffer.reset();
+                            return null;
+                        case "setStatus": status = (Integer) args[0]; return null;
+                        case "getOutputStream": return out;
+                        default: return null;
+                    }
+                });
+        }
+    }
+
+    /**
+     * Writes a few rows and fails, the way a cursor that loses its connection does.
+     */
+    private static void stream(OutputStream out, int rows, boolean flushFirst) throws IOException {
+        out.write("{\"values\":[".getBytes(StandardCharsets.UTF_8));
+        for( int i = 0; i < rows; i++ ){
+            out.write(("[" + i + ",1.0,0],").getBytes(StandardCharsets.UTF_8));
+            if( flushFirst && i == 0 ){
+                out.flush();
+            }
+        }
+        throw new IOException("ORA-03113: end-of-file on communication channel");
+    }
+
+    private static void handle(FakeResponse fake, boolean flushFirst) throws IOException {
+        HttpServletResponse res = fake.proxy();
+        try {
+            stream(res.getOutputStream(), 10, flushFirst);
+        } catch( IOException err ){
+            if( ErrorResponse.canSend(res) ){
+                res.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                res.getOutputStream().write("Failed to process request".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        res.getOutputStream().flush();
+    }
+
+    @Test
+    public void FailureBeforeAnythingWasSentReplacesTheBody() throws Exception {
+        FakeResponse fake = new FakeResponse();
+        handle(fake, false);
+        assertEquals(500, fake.status);
+        assertEquals("Failed to process request", new String(fake.sent.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void FailureMidStreamOnlyEndsTheBody() throws Exception {
+        FakeResponse fake = new FakeResponse();
+        handle(fake, true);
+        assertEquals(200, fake.status);
+        String body = new String(fake.sent.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(body.startsWith("{\"values\":[[0,1.0,0],"), body);
+        assertTrue(body.endsWith("[9,1.0,0],"), body);
+        assertFalse(body.contains("Failed"), body);
+    }
+
+    @Test
+    public void CommittedDuringReset() {
+        HttpServletResponse res = (HttpServletResponse) Proxy.newProxyInstance(ErrorResponseTest.class.getClassLoader(),
+            new Class<?>[]{HttpServletResponse.class}, (proxy, method, args) -> {
+                if( method.getName().equals("resetBuffer") ){
+                    throw new IllegalStateException("committed");
+                }
+                return method.getName().equals("isCommitted") ? false : null;
+            });
+        assertFalse(ErrorResponse.canSend(res));
+    }
+}
@@ -0,0 +1,118 @@
+package cwms.radar.helpers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class FanOutTest {
+    private final ExecutorService executor = FanOut.newExecutor("fan-out-test", 8);
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void ResultsArriveAsTheyComplete() throws Exception {
+        // the first input is the slowest, it should be handed over last
+        List<Integer> delays = Arrays.asList(300, 10, 100);
+        List<Integer> order = new ArrayList<>();
+        FanOut.forEachCompleted(delays, d -> {
+            Thread.sleep(d);
+            return d;
+        }, executor, 3, (input, value, error) -> {
+            assertNull(error);
+            assertEquals(input, value);
+            order.add(value);
+        });
+        assertEquals(Arrays.asList(10, 100, 300), order);
+    }
+
+    @Test
+    public void ConcurrencyIsBounded() throws Exception {
+        List<Integer> inputs = new ArrayList<>();
+        for( int i = 0; i < 40; i++ ){
+            inputs.add(i);
+        }
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger most = new AtomicInteger();
+        List<Integer> seen = new ArrayList<>();
+        FanOut.forEachCompleted(inputs, i -> {
+            int now = running.incrementAndGet();
+            most.accumulateAndGet(now, Math::max);
+            Thread.sleep(5);
+            running.decrementAndGet();
+            return i;
+        }, executor, 3, (input, value, error) -> seen.add(value));
+        assertEquals(40, seen.size());
+        assertTrue(most.get() <= 3, "ran " + most.get() + " at once");
+    }
+
+    @Test
+    public void FailuresStayWithTheirInput() throws Exception {
+        List<String> failed = new ArrayList<>();
+        List<String> succeeded = new ArrayList<>();
+        FanOut.forEachCompleted(Arrays.asList("a", "bad", "c"), s -> {
+            if( s.equals("bad") ){
+                throw new IllegalArgumentException(s);
+            }
+            return s.toUpperCase();
+        }, executor, 2, (input, value, error) -> {
+            if( error != null ){
+                assertTrue(error instanceof IllegalArgumentException);
+                assertNull(value);
+                failed.add(input);
+            } else {
+                succeeded.add(value);
+            }
+        });
+        assertEquals(Arrays.asList("bad"), failed);
+        succeeded.sort(null);
+        assertEquals(Arrays.asList("A", "C"), succeeded);
+    }
+
+    @Test
+    public void SinkFailureCancelsRemainingWork() throws Exception {
+        CountDownLatch sleeping = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        AtomicInteger started = new AtomicInteger();
+        assertThrows(IOException.class, () -> FanOut.forEachCompleted(Arrays.asList(0, 1, 2, 3, 4, 5), i -> {
+            started.incrementAndGet();
+            if( i == 0 ){
+                return i;
+            }
+            try {
+                sleeping.countDown();
+                Thread.sleep(10_000);
+            } catch( InterruptedException err ){
+                interrupted.countDown();
+                throw err;
+            }
+            return i;
+        }, executor, 2, (input, value, error) -> {
+            // make sure there is running work to cancel
+            try {
+                sleeping.await(5, TimeUnit.SECONDS);
+            } catch( InterruptedException err ){
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("client went away");
+        }));
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS), "running work was not cancelled");
+        // nothing beyond the first window and the one that replaced the finished input
+        assertTrue(started.get() <= 3, started.get() + " started");
+    }
+}
@@ -0,0 +1,91 @@
+package cwms.radar.helpers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.jupiter.api.Test;
+
+public class ResponseCacheServletTest {
+
+    private static HttpServletResponse post(ResponseCacheServlet servlet, String token, String name) throws Exception {
+        HttpServletRequest req = mock(HttpServletRequest.class);
+        HttpServletResponse res = mock(HttpServletResponse.class);
+        when(req.getRemoteAddr()).thenReturn("127.0.0.1");
+        when(req.getHeader(ResponseCacheServlet.TOKEN_HEADER)).thenReturn(token);
+        when(req.getParameter("name")).thenReturn(name);
+        servlet.doPost(req, res);
+        return res;
+    }
+
+    private static ResponseCache filled(String name) throws Exception {
+        ResponseCache cache = new ResponseCache(name, new MetricRegistry(), 60, TimeUnit.SECONDS, System::nanoTime);
+        HttpServletResponse res = mock(HttpServletResponse.class);
+        when(res.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                // not needed
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener listener) {
+                // blocking only
+            }
+        });
+        cache.send(mock(HttpServletRequest.class), res, "key", "application/json", out -> out.write('1'));
+        assertEquals(1, cache.size());
+        return cache;
+    }
+
+    @Test
+    public void WithoutTokenClearingIsOff() throws Exception {
+        ResponseCache cache = filled("servlet-off");
+        // from the loopback address too, a local reverse proxy makes every request look local
+        HttpServletResponse res = post(new ResponseCacheServlet((String) null), null, "servlet-off");
+        verify(res).sendError(HttpServletResponse.SC_FORBIDDEN, "Clearing response caches is turned off");
+        res = post(new ResponseCacheServlet(""), "", "servlet-off");
+        verify(res).sendError(HttpServletResponse.SC_FORBIDDEN, "Clearing response caches is turned off");
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void TokenRequired() throws Exception {
+        ResponseCache cache = filled("servlet-token");
+        ResponseCacheServlet servlet = new ResponseCacheServlet("secret");
+        HttpServletResponse res = post(servlet, null, "servlet-token");
+        verify(res).sendError(HttpServletResponse.SC_FORBIDDEN, "Response caches can only be cleared with the cache token");
+        res = post(servlet, "guess", "servlet-token");
+        verify(res).sendError(HttpServletResponse.SC_FORBIDDEN, "Response caches can only be cleared with the cache token");
+        assertEquals(1, cache.size());
+
+        res = post(servlet, "secret", "servlet-token");
+        verify(res).setStatus(HttpServletResponse.SC_NO_CONTENT);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void ContainerProtectedServletClearsForAnyone() throws Exception {
+        ResponseCache cache = filled("servlet-container");
+        HttpServletResponse res = post(new ResponseCacheServlet(), null, "servlet-container");
+        verify(res).setStatus(HttpServletResponse.SC_NO_CONTENT);
+        assertEquals(0, cache.size());
+
+        res = post(new ResponseCacheServlet(), null, "no such cache");
+        verify(res).sendError(HttpServletResponse.SC_NOT_FOUND, "No response cache named no such cache");
+    }
+}
@@ -0,0 +1,187 @@
+package cwms.radar.helpers;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.jupiter.api.Test;
+
+public class ResponseCacheTest {
+    private static final String JSON = "application/json";
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final AtomicLong now = new AtomicLong();
+    private final AtomicInteger renders = new AtomicInteger();
+
+    private static final byte[] DOCUMENT;
+    static {
+        StringBuilder doc = new StringBuilder("[");
+        for( int i = 0; i < 500; i++ ){
+            doc.append("{\"unit\":\"ft\",\"id\":").append(i).append("},");
+        }
+        DOCUMENT = doc.append("{}]").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class Captured {
+        final HttpServletResponse res = mock(HttpServletResponse.class);
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        Captured() throws IOException {
+            when(res.getOutputStream()).thenReturn(new ServletOutputStream() {
+                @Override
+                public void write(int b) {
+                    body.write(b);
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener listener) {
+                    // blocking only
+                }
+            });
+        }
+    }
+
+    private ResponseCache cache(String name) {
+        return new ResponseCache(name, metrics, 60, TimeUnit.SECONDS, now::get);
+    }
+
+    private Captured send(ResponseCache cache, String acceptEncoding) throws IOException {
+        HttpServletRequest req = mock(HttpServletRequest.class);
+        when(req.getHeader("Accept-Encoding")).thenReturn(acceptEncoding);
+        Captured captured = new Captured();
+        long size = cache.send(req, captured.res, ResponseCache.key("units", "SWT", JSON), JSON, out -> {
+            renders.incrementAndGet();
+            out.write(DOCUMENT);
+        });
+        assertEquals(DOCUMENT.length, size);
+        return captured;
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        try( InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes)) ){
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while( (read = in.read(buffer)) != -1 ){
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    @Test
+    public void SecondRequestIsServedFromMemory() throws Exception {
+        ResponseCache cache = cache("hits");
+        Captured first = send(cache, null);
+        Captured second = send(cache, null);
+
+        assertEquals(1, renders.get());
+        assertArrayEquals(DOCUMENT, first.body.toByteArray());
+        assertArrayEquals(DOCUMENT, second.body.toByteArray());
+        verify(second.res).setContentType(JSON);
+        verify(second.res).setContentLength(DOCUMENT.length);
+        verify(second.res, never()).setHeader(eq("Content-Encoding"), anyString());
+        assertEquals(1, metrics.meter("cwms.radar.helpers.ResponseCache.hits.hits").getCount());
+        assertEquals(1, metrics.meter("cwms.radar.helpers.ResponseCache.hits.misses").getCount());
+    }
+
+    @Test
+    public void OnlyHitsAreSentWithoutARenderer() throws Exception {
+        ResponseCache cache = cache("lookup");
+        HttpServletRequest req = mock(HttpServletRequest.class);
+        String key = ResponseCache.key("units", "SWT", JSON);
+        Captured missed = new Captured();
+        assertEquals(-1, cache.sendCached(req, missed.res, key));
+        verify(missed.res, never()).getOutputStream();
+
+        send(cache, null);
+        Captured hit = new Captured();
+        assertEquals(DOCUMENT.length, cache.sendCached(req, hit.res, key));
+        assertArrayEquals(DOCUMENT, hit.body.toByteArray());
+        verify(hit.res).setContentType(JSON);
+        assertEquals(1, metrics.meter("cwms.radar.helpers.ResponseCache.lookup.hits").getCount());
+        assertEquals(1, metrics.meter("cwms.radar.helpers.ResponseCache.lookup.misses").getCount());
+    }
+
+    @Test
+    public void GzipClientsGetThePrecompressedCopy() throws Exception {
+        ResponseCache cache = cache("gzip");
+        send(cache, null);
+        Captured gzipped = send(cache, "gzip, deflate");
+
+        assertEquals(1, renders.get());
+        verify(gzipped.res).setHeader("Content-Encoding", "gzip");
+        verify(gzipped.res).setHeader("Vary", "Accept-Encoding");
+        byte[] sent = gzipped.body.toByteArray();
+        assertTrue(sent.length < DOCUMENT.length);
+        verify(gzipped.res).setContentLength(sent.length);
+        assertArrayEquals(DOCUMENT, gunzip(sent));
+
+        // deflate is left to the filter
+        Captured deflated = send(cache, "deflate");
+        verify(deflated.res, never()).setHeader(eq("Content-Encoding"), anyString());
+        assertArrayEquals(DOCUMENT, deflated.body.toByteArray());
+    }
+
+    @Test
+    public void EntriesExpireAndCanBeCleared() throws Exception {
+        ResponseCache cache = cache("expiry");
+        send(cache, null);
+        now.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        send(cache, null);
+        assertEquals(2, renders.get());
+
+        assertTrue(ResponseCache.invalidate("expiry"));
+        assertEquals(0, cache.size());
+        send(cache, null);
+        assertEquals(3, renders.get());
+
+        ResponseCache.invalidateEverything();
+        assertEquals(0, cache.size());
+        assertFalse(ResponseCache.invalidate("no such cache"));
+        assertSame(cache, ResponseCache.caches().get("expiry"));
+    }
+
+    @Test
+    public void FailedRendersAreNotCached() throws Exception {
+        ResponseCache cache = cache("failures");
+        HttpServletRequest req = mock(HttpServletRequest.class);
+        IOException err = assertThrows(IOException.class, () -> cache.send(req, new Captured().res, "key", JSON, out -> {
+            throw new SQLException("ORA-01017");
+        }));
+        assertTrue(err.getCause() instanceof SQLException);
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,133 @@
+package cwms.radar.helpers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class SingleFlightTest {
+    private final ExecutorService executor = FanOut.newExecutor("single-flight-test", 8);
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final SingleFlight<String,Object> flights = new SingleFlight<>("test", metrics, 5, TimeUnit.SECONDS);
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Waits until callers are waiting on the running work.
+     */
+    private void awaitShared(long count) throws InterruptedException {
+        long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while( metrics.meter("cwms.radar.helpers.SingleFlight.test.shared").getCount() < count && System.nanoTime() < until ){
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void ConcurrentCallersShareOneExecution() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger executions = new AtomicInteger();
+        Object result = new Object();
+        List<Future<Object>> callers = new ArrayList<>();
+        for( int i = 0; i < 6; i++ ){
+            callers.add(executor.submit(() -> flights.execute("ts", () -> {
+                executions.incrementAndGet();
+                release.await();
+                return result;
+            })));
+        }
+        awaitShared(5);
+        release.countDown();
+        for( Future<Object> caller: callers ){
+            assertSame(result, caller.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, executions.get());
+        assertEquals(0, flights.size());
+
+        // nothing is kept once it is done
+        flights.execute("ts", () -> executions.incrementAndGet());
+        assertEquals(2, executions.get());
+    }
+
+    @Test
+    public void FailureIsSharedButNotRemembered() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Object> leader = executor.submit(() -> flights.execute("ts", () -> {
+            release.await();
+            throw new SQLException("ORA-04068");
+        }));
+        // make sure the leader owns the key before the waiter arrives
+        while( flights.size() == 0 ){
+            Thread.sleep(1);
+        }
+        Future<Object> waiter = executor.submit(() -> flights.execute("ts", () -> "not run"));
+        awaitShared(1);
+        release.countDown();
+        for( Future<Object> caller: Arrays.asList(leader, waiter) ){
+            Exception err = assertThrows(Exception.class, () -> caller.get(5, TimeUnit.SECONDS));
+            assertTrue(err.getCause() instanceof SQLException, err.toString());
+        }
+        assertEquals("fine", flights.execute("ts", () -> "fine"));
+    }
+
+    @Test
+    public void WaitersGiveUpAfterTheTimeout() throws Exception {
+        SingleFlight<String,Object> quick = new SingleFlight<>("quick", metrics, 50, TimeUnit.MILLISECONDS);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch running = new CountDownLatch(1);
+        Future<Object> leader = executor.submit(() -> quick.execute("ts", () -> {
+            running.countDown();
+            release.await();
+            return "late";
+        }));
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        assertThrows(TimeoutException.class, () -> quick.execute("ts", () -> "not run"));
+        assertEquals(1, metrics.meter("cwms.radar.helpers.SingleFlight.quick.timeouts").getCount());
+        // other keys are not held up
+        assertEquals("other", quick.execute("other", () -> "other"));
+        release.countDown();
+        assertEquals("late", leader.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void InterruptedLeaderHandsTheWorkOver() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        Future<Object> leader = executor.submit(() -> flights.execute("ts", () -> {
+            running.countDown();
+            Thread.sleep(10_000);
+            return "never";
+        }));
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        Future<Object> waiter = executor.submit(() -> flights.execute("ts", () -> "mine"));
+        awaitShared(1);
+        leader.cancel(true);
+        assertEquals("mine", waiter.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void OffRunsEveryCall() throws Exception {
+        SingleFlight<String,Object> off = new SingleFlight<>("off", metrics, 0, TimeUnit.MILLISECONDS);
+        AtomicInteger executions = new AtomicInteger();
+        off.execute("ts", executions::incrementAndGet);
+        off.execute("ts", executions::incrementAndGet);
+        assertEquals(2, executions.get());
+    }
+}
@@ -0,0 +1,50 @@
+package cwms.radar.helpers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class TtlCacheTest {
+
+    @Test
+    public void entriesExpire() {
+        AtomicLong now = new AtomicLong();
+        TtlCache<String,Integer> cache = new TtlCache<>(10, TimeUnit.NANOSECONDS, 10, now::get);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals(1, cache.get("a", loads::incrementAndGet));
+        now.set(9);
+        assertEquals(1, cache.get("a", loads::incrementAndGet));
+        now.set(10);
+        assertEquals(2, cache.get("a", loads::incrementAndGet));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void fullCacheStillReturnsValues() {
+        AtomicLong now = new AtomicLong();
+        TtlCache<String,Integer> cache = new TtlCache<>(10, TimeUnit.NANOSECONDS, 1, now::get);
+        cache.put("a", 1);
+        assertEquals(2, cache.get("b", () -> 2));
+        assertNull(cache.get("b"));
+
+        // once "a" expires there is room again
+        now.set(20);
+        cache.put("b", 2);
+        assertEquals(2, cache.get("b"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void invalidateRemoves() {
+        TtlCache<String,Integer> cache = new TtlCache<>(1, TimeUnit.MINUTES, 10);
+        cache.put("a", 1);
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+    }
+}
@@ -0,0 +1,110 @@
+package cwms.radar.bench;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import cwms.radar.data.dto.AssignedLocation;
+import cwms.radar.data.dto.Catalog;
+import cwms.radar.data.dto.Clob;
+import cwms.radar.data.dto.Clobs;
+import cwms.radar.data.dto.LocationCategory;
+import cwms.radar.data.dto.LocationGroup;
+import cwms.radar.data.dto.Office;
+import cwms.radar.data.dto.TimeSeries;
+import cwms.radar.data.dto.catalog.CatalogEntry;
+import cwms.radar.data.dto.catalog.LocationAlias;
+import cwms.radar.data.dto.catalog.LocationCatalogEntry;
+import cwms.radar.data.dto.catalog.TimeseriesCatalogEntry;
+
+/**
+ * Synthetic payloads for the benchmarks.
+ *
+ * Everything is deterministic so runs before and after a change see exactly the same data.
+ * Field values are sized roughly like real CWMS data.
+ */
+public final class BenchData {
+    public static final ZonedDateTime BEGIN = ZonedDateTime.parse("2021-01-01T00:00:00-08:00[PST8PDT]");
+    private static final long HOUR = Duration.ofHours(1).toMillis();
+    private static final String OFFICE = "SPK";
+
+    private BenchData() {
+    }
+
+    /**
+     * Hourly time series with a missing value now and then.
+     */
+    public static TimeSeries timeSeries(int size) {
+        TimeSeries ts = new TimeSeries(null, -1, size, "Bench.Stage.Inst.1Hour.0.raw", OFFICE,
+                BEGIN, BEGIN.plusHours(size), "ft", Duration.ofHours(1));
+        long start = BEGIN.toInstant().toEpochMilli();
+        for(int i = 0; i < size; i++) {
+            ts.addValue(start + i * HOUR, valueAt(i), 0);
+        }
+        return ts;
+    }
+
+    public static Double valueAt(int i) {
+        return i % 100 == 99 ? null : 100.0 + Math.sin(i / 24.0);
+    }
+
+    public static Catalog timeSeriesCatalog(int size) {
+        List<CatalogEntry> entries = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) {
+            entries.add(new TimeseriesCatalogEntry(OFFICE, locationName(i) + ".Stage.Inst.1Hour.0.raw", "ft"));
+        }
+        // pageSize of size + 1 so the catalog doesn't build a next page cursor
+        return new Catalog(null, size, size + 1, entries);
+    }
+
+    public static Catalog locationCatalog(int size) {
+        List<CatalogEntry> entries = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) {
+            String name = locationName(i);
+            List<LocationAlias> aliases = Arrays.asList(
+                    new LocationAlias("NWS Handbook 5 ID", "B" + i),
+                    new LocationAlias("USGS Station Number", String.valueOf(11000000 + i)));
+            entries.add(new LocationCatalogEntry(OFFICE, name, "Sacramento", name, name + " long name",
+                    "Synthetic location " + i, "SITE", "Stream Gage", "US/Pacific",
+                    38.0 + i * 1e-6, -121.0 - i * 1e-6, 38.0, -121.0, "NAD83", 100.0 + i % 50,
+                    "ft", "NAVD88", "US", "CA", "Sacramento", OFFICE, name, true, aliases));
+        }
+        return new Catalog(null, size, size + 1, entries);
+    }
+
+    public static Clobs clobs(int size) {
+        Clobs.Builder builder = new Clobs.Builder(null, size + 1, size);
+        for(int i = 0; i < size; i++) {
+            builder.addClob(new Clob(OFFICE, "/BENCH/CLOB/" + i, "Synthetic clob " + i,
+                    "Some text stored in the database for clob number " + i));
+        }
+        return builder.build();
+    }
+
+    public static List<LocationGroup> locationGroups(int size) {
+        LocationCategory category = new LocationCategory(OFFICE, "Basin", "Basin membership");
+        List<LocationGroup> groups = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) {
+            LocationGroup group = new LocationGroup(category, OFFICE, "Group " + i, "Synthetic group " + i,
+                    "Alias" + i, locationName(i), i);
+            AssignedLocation loc = new AssignedLocation(locationName(i), locationName(i), null, null, i, i, null);
+            groups.add(new LocationGroup(group, Collections.singletonList(loc)));
+        }
+        return groups;
+    }
+
+    public static List<Office> offices(int size) {
+        List<Office> offices = new ArrayList<>(size);
+        for(int i = 0; i < size; i++) {
+            offices.add(new Office("O" + i, "Synthetic Office " + i, "DIS", "SPD"));
+        }
+        return offices;
+    }
+
+    private static String locationName(int i) {
+        return "BENCH" + i;
+    }
+}
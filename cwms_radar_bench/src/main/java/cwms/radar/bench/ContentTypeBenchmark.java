@@ -0,0 +1,46 @@
+package cwms.radar.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import cwms.radar.formatters.ContentType;
+import cwms.radar.formatters.Formats;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Content negotiation cost per request, for the Accept headers clients actually send.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContentTypeBenchmark {
+
+    @Param({
+        "application/json;version=2",
+        "application/json",
+        "text/html,application/xhtml+xml,application/xml;q=0.9,image/webp,*/*;q=0.8",
+        "*/*"
+    })
+    String accept;
+
+    @Benchmark
+    public ContentType acceptHeader() {
+        return Formats.parseHeaderAndQueryParm(accept, null);
+    }
+
+    @Benchmark
+    public ContentType formatParameter() {
+        return Formats.parseHeaderAndQueryParm(accept, "json");
+    }
+}
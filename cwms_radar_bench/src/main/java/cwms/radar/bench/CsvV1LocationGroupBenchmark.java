@@ -0,0 +1,29 @@
+package cwms.radar.bench;
+
+import java.util.List;
+
+import cwms.radar.data.dto.LocationGroup;
+import cwms.radar.formatters.csv.CsvV1LocationGroup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Setup;
+
+public class CsvV1LocationGroupBenchmark extends FormatterBenchmark {
+    private CsvV1LocationGroup formatter;
+    private List<LocationGroup> locationGroups;
+
+    @Setup
+    public void setup() {
+        formatter = new CsvV1LocationGroup();
+        locationGroups = BenchData.locationGroups(size);
+    }
+
+    @Benchmark
+    public String single() {
+        return formatter.format(locationGroups.get(0));
+    }
+
+    @Benchmark
+    public String list() {
+        return formatter.format(locationGroups);
+    }
+}
@@ -0,0 +1,25 @@
+package cwms.radar.bench;
+
+import java.io.OutputStream;
+
+import cwms.radar.data.dto.TimeSeries;
+import cwms.radar.formatters.binary.CwmsTsV1;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Setup;
+
+public class CwmsTsV1Benchmark extends FormatterBenchmark {
+    private CwmsTsV1 formatter;
+    private TimeSeries timeSeries;
+    private final OutputStream out = new DiscardOutputStream();
+
+    @Setup
+    public void setup() {
+        formatter = new CwmsTsV1();
+        timeSeries = BenchData.timeSeries(size);
+    }
+
+    @Benchmark
+    public void timeSeriesToStream() {
+        formatter.format(timeSeries, out);
+    }
+}
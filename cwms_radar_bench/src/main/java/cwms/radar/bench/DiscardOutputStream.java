@@ -0,0 +1,19 @@
+package cwms.radar.bench;
+
+import java.io.OutputStream;
+
+/**
+ * Swallows everything, so benchmarks measure formatting and not I/O.
+ */
+public final class DiscardOutputStream extends OutputStream {
+
+    @Override
+    public void write(int b) {
+        // discard
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        // discard
+    }
+}
@@ -0,0 +1,32 @@
+package cwms.radar.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Common settings for the formatter benchmarks.
+ *
+ * size is the number of elements in the payload: time series values, catalog entries,
+ * clobs, location groups or offices. Limit it from the command line for a quick run,
+ * e.g. -Pjmh="JsonV2 -p size=1000".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class FormatterBenchmark {
+
+    @Param({"10", "1000", "100000", "1000000"})
+    protected int size;
+}
@@ -0,0 +1,41 @@
+package cwms.radar.bench;
+
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cwms.radar.data.dto.Clobs;
+import cwms.radar.data.dto.LocationGroup;
+import cwms.radar.data.dto.Office;
+import cwms.radar.formatters.json.JsonV1;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Setup;
+
+public class JsonV1Benchmark extends FormatterBenchmark {
+    private JsonV1 formatter;
+    private Clobs clobs;
+    private List<LocationGroup> locationGroups;
+    private List<Office> offices;
+
+    @Setup
+    public void setup() {
+        formatter = new JsonV1(new ObjectMapper());
+        clobs = BenchData.clobs(size);
+        locationGroups = BenchData.locationGroups(size);
+        offices = BenchData.offices(size);
+    }
+
+    @Benchmark
+    public String clobs() {
+        return formatter.format(clobs);
+    }
+
+    @Benchmark
+    public String locationGroups() {
+        return formatter.format(locationGroups);
+    }
+
+    @Benchmark
+    public String offices() {
+        return formatter.format(offices);
+    }
+}
@@ -0,0 +1,54 @@
+package cwms.radar.bench;
+
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cwms.radar.data.dto.Catalog;
+import cwms.radar.data.dto.Clobs;
+import cwms.radar.data.dto.TimeSeries;
+import cwms.radar.formatters.json.JsonV2;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Setup;
+
+public class JsonV2Benchmark extends FormatterBenchmark {
+    private JsonV2 formatter;
+    private TimeSeries timeSeries;
+    private Catalog timeSeriesCatalog;
+    private Catalog locationCatalog;
+    private Clobs clobs;
+    private final OutputStream out = new DiscardOutputStream();
+
+    @Setup
+    public void setup() {
+        formatter = new JsonV2(new ObjectMapper());
+        timeSeries = BenchData.timeSeries(size);
+        timeSeriesCatalog = BenchData.timeSeriesCatalog(size);
+        locationCatalog = BenchData.locationCatalog(size);
+        clobs = BenchData.clobs(size);
+    }
+
+    @Benchmark
+    public String timeSeriesToString() {
+        return formatter.format(timeSeries);
+    }
+
+    @Benchmark
+    public void timeSeriesToStream() {
+        formatter.format(timeSeries, out);
+    }
+
+    @Benchmark
+    public String timeSeriesCatalog() {
+        return formatter.format(timeSeriesCatalog);
+    }
+
+    @Benchmark
+    public String locationCatalog() {
+        return formatter.format(locationCatalog);
+    }
+
+    @Benchmark
+    public String clobs() {
+        return formatter.format(clobs);
+    }
+}
@@ -0,0 +1,24 @@
+package cwms.radar.bench;
+
+import java.util.List;
+
+import cwms.radar.data.dto.Office;
+import cwms.radar.formatters.tab.TabV1;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Setup;
+
+public class TabV1Benchmark extends FormatterBenchmark {
+    private TabV1 formatter;
+    private List<Office> offices;
+
+    @Setup
+    public void setup() {
+        formatter = new TabV1();
+        offices = BenchData.offices(size);
+    }
+
+    @Benchmark
+    public String offices() {
+        return formatter.format(offices);
+    }
+}
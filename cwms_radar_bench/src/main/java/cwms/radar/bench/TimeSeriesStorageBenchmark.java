@@ -0,0 +1,104 @@
+package cwms.radar.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import cwms.radar.data.dto.TimeSeries;
+import cwms.radar.formatters.json.JsonV2;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the columnar TimeSeries value storage with the previous List of boxed records.
+ *
+ * The build benchmarks show the memory cost per series when run with "-prof gc"
+ * (gc.alloc.rate.norm is the bytes allocated per operation), the serialize
+ * benchmarks show the JSON v2 output cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimeSeriesStorageBenchmark {
+    private static final long HOUR = Duration.ofHours(1).toMillis();
+
+    @Param({"1000", "100000", "1000000"})
+    int size;
+
+    private TimeSeries columnar;
+    private List<BoxedRecord> boxed;
+    private JsonV2 jsonV2;
+    private ObjectWriter boxedWriter;
+    private final OutputStream out = new DiscardOutputStream();
+
+    @Setup
+    public void setup() {
+        columnar = buildColumnar();
+        boxed = buildBoxedList();
+        jsonV2 = new JsonV2(new ObjectMapper());
+        boxedWriter = new ObjectMapper().writerFor(new TypeReference<List<BoxedRecord>>() {});
+    }
+
+    @Benchmark
+    public TimeSeries buildColumnar() {
+        return BenchData.timeSeries(size);
+    }
+
+    @Benchmark
+    public List<BoxedRecord> buildBoxedList() {
+        List<BoxedRecord> list = new ArrayList<>();
+        long start = BenchData.BEGIN.toInstant().toEpochMilli();
+        for(int i = 0; i < size; i++) {
+            list.add(new BoxedRecord(new Timestamp(start + i * HOUR), BenchData.valueAt(i), 0));
+        }
+        return list;
+    }
+
+    @Benchmark
+    public void serializeColumnar() {
+        jsonV2.format(columnar, out);
+    }
+
+    @Benchmark
+    public void serializeBoxedList() throws IOException {
+        boxedWriter.writeValue(out, boxed);
+    }
+
+    /**
+     * The value layout TimeSeries used before the columnar storage.
+     */
+    @JsonFormat(shape = JsonFormat.Shape.ARRAY)
+    @JsonPropertyOrder({"dateTime", "value", "qualityCode"})
+    public static class BoxedRecord {
+        public final Timestamp dateTime;
+        public final Double value;
+        public final int qualityCode;
+
+        BoxedRecord(Timestamp dateTime, Double value, int qualityCode) {
+            this.dateTime = dateTime;
+            this.value = value;
+            this.qualityCode = qualityCode;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package cwms.radar.bench;
+
+import java.io.OutputStream;
+
+import cwms.radar.data.dto.Clobs;
+import cwms.radar.data.dto.TimeSeries;
+import cwms.radar.formatters.xml.XMLv2;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Setup;
+
+public class XMLv2Benchmark extends FormatterBenchmark {
+    private XMLv2 formatter;
+    private TimeSeries timeSeries;
+    private Clobs clobs;
+    private final OutputStream out = new DiscardOutputStream();
+
+    @Setup
+    public void setup() {
+        formatter = new XMLv2();
+        timeSeries = BenchData.timeSeries(size);
+        clobs = BenchData.clobs(size);
+    }
+
+    @Benchmark
+    public String timeSeries() {
+        return formatter.format(timeSeries);
+    }
+
+    @Benchmark
+    public void timeSeriesToStream() {
+        formatter.format(timeSeries, out);
+    }
+
+    @Benchmark
+    public String clobs() {
+        return formatter.format(clobs);
+    }
+}
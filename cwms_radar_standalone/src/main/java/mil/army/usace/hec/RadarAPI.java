@@ -1,7 +1,9 @@
 package mil.army.usace.hec;
 
+import java.util.EnumSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.servlet.DispatcherType;
 
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
@@ -9,6 +11,8 @@ import com.codahale.metrics.servlets.MetricsServlet;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategies;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import cwms.radar.api.AsyncCrud;
+import cwms.radar.api.Bulkhead;
 import cwms.radar.api.CatalogController;
 import cwms.radar.api.ClobController;
 import cwms.radar.api.LevelsController;
@@ -24,7 +28,14 @@ import cwms.radar.api.TimeSeriesGroupController;
 import cwms.radar.api.TimeZoneController;
 import cwms.radar.api.UnitsController;
 import cwms.radar.api.enums.UnitSystem;
+import cwms.radar.data.LazyConnection;
+import cwms.radar.data.QueryMetrics;
 import cwms.radar.formatters.Formats;
+import cwms.radar.formatters.FormattingException;
+import cwms.radar.helpers.CompressionFilter;
+import cwms.radar.helpers.DatabaseExecutor;
+import cwms.radar.helpers.ErrorResponse;
+import cwms.radar.helpers.ResponseCacheServlet;
 import io.javalin.Javalin;
 import io.javalin.core.plugin.Plugin;
 import io.javalin.core.validation.JavalinValidation;
@@ -34,11 +45,11 @@ import io.javalin.plugin.openapi.OpenApiPlugin;
 import io.javalin.plugin.openapi.ui.SwaggerOptions;
 import io.swagger.v3.oas.models.info.Info;
 import org.apache.tomcat.jdbc.pool.DataSource;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.owasp.html.HtmlPolicyBuilder;
 import org.owasp.html.PolicyFactory;
 
-import static io.javalin.apibuilder.ApiBuilder.crud;
 import static io.javalin.apibuilder.ApiBuilder.get;
 import static io.javalin.apibuilder.ApiBuilder.path;
 
@@ -48,6 +59,7 @@ public class RadarAPI {
     private static final MetricRegistry metrics = new MetricRegistry();
     private static final Meter total_requests = metrics.meter("radar.total_requests");
     public static void main(String[] args){
+        QueryMetrics.setMetricRegistry(metrics);
         DataSource ds = new DataSource();
         try{
             ds.setDriverClassName(getconfig("RADAR_JDBC_DRIVER","oracle.jdbc.driver.OracleDriver"));
@@ -71,6 +83,20 @@ public class RadarAPI {
         om.registerModule(new JavaTimeModule());
 
         JavalinJackson.configure(om);
+        if( Boolean.parseBoolean(System.getProperty("RADAR_FORMATTER_WARMUP","true")) ){
+            // before the port opens, so no request sees a cold formatter
+            try {
+                Formats.warmUp();
+            } catch( FormattingException err ){
+                logger.log(Level.SEVERE, "Unable to load formatters", err);
+            }
+        }
+        // handlers that wait on the database run on their own threads, each class of route with its
+        // own threads and share of the pool so bulk retrievals don't hold up the quick lookups
+        boolean async = Boolean.parseBoolean(System.getProperty("RADAR_ASYNC","true"));
+        Bulkhead reference = async ? Bulkhead.configured(Bulkhead.REFERENCE, 20, 0, ds.getMaxActive(), ds, metrics) : null;
+        Bulkhead catalog = async ? Bulkhead.configured(Bulkhead.CATALOG, 20, 0, ds.getMaxActive(), ds, metrics) : null;
+        Bulkhead bulk = async ? Bulkhead.configured(Bulkhead.BULK, 60, 40, ds.getMaxActive(), ds, metrics) : null;
         Javalin app = Javalin.create( config -> {
             config.defaultContentType = "application/json";
             config.contextPath = "/";
@@ -79,8 +105,16 @@ public class RadarAPI {
                 config.enableDevLogging();
             }
             config.requestLogger( (ctx,ms) -> logger.info(ctx.toString()));
+            // CompressionFilter handles Accept-Encoding, including for streamed responses
+            config.dynamicGzip = false;
             config.configureServletContextHandler( sch -> {
                 sch.addServlet(new ServletHolder(new MetricsServlet(metrics)),"/metrics/*");
+                // no users here, so clearing the caches is off unless a token is configured; the remote
+                // address is no check, behind a proxy on this host every request looks local
+                sch.addServlet(new ServletHolder(new ResponseCacheServlet(System.getProperty("RADAR_RESPONSE_CACHE_TOKEN"))),"/status/response-cache");
+                FilterHolder compression = new FilterHolder(new CompressionFilter(metrics));
+                compression.setAsyncSupported(true);
+                sch.addFilter(compression, "/*", EnumSet.of(DispatcherType.REQUEST));
             });
             config.addStaticFiles("/static");
         }).attribute(PolicyFactory.class,sanitizer)
@@ -89,7 +123,8 @@ public class RadarAPI {
             ctx.header("X-Content-Type-Options","nosniff");
             ctx.header("X-Frame-Options","SAMEORIGIN");
             ctx.header("X-XSS-Protection", "1; mode=block");
-            ctx.attribute("database",ds.getConnection());
+            ctx.attribute("database",LazyConnection.of(ds));
+            ctx.attribute("data_source",ds);
             /* authorization on connection setup will go here
             Connection conn = ctx.attribute("db");
             */
@@ -98,32 +133,36 @@ public class RadarAPI {
         }).after( ctx -> {
             ((java.sql.Connection)ctx.attribute("database")).close();
         })
+        .exception(DatabaseExecutor.Overloaded.class, AsyncCrud::overloaded)
         .exception(UnsupportedOperationException.class, (e,ctx) -> {
             ctx.status(501);
             ctx.json(sanitizer.sanitize(e.getMessage()));
         })
         .exception(Exception.class, (e,ctx) -> {
-            ctx.status(500);
-            ctx.json("There was an error processing your request");
             logger.log(Level.WARNING,"error on request: " + ctx.req.getRequestURI(),e);
+            // a streamed response that already started can only end early
+            if( ErrorResponse.canSend(ctx.res) ){
+                ctx.status(500);
+                ctx.json("There was an error processing your request");
+            }
         })
         .routes( () -> {
             //get("/", ctx -> { ctx.result("welcome to the CWMS REST API").contentType(Formats.PLAIN);});
-            crud("/locations/:location_code", new LocationController(metrics));
-            crud("/location/category/:category-id", new LocationCategoryController(metrics));
-            crud("/location/group/:group-id", new LocationGroupController(metrics));
-            crud("/offices/:office", new OfficeController(metrics));
-            crud("/units/:unit_name", new UnitsController(metrics));
-            crud("/parameters/:param_name", new ParametersController(metrics));
-            crud("/timezones/:zone", new TimeZoneController(metrics));
-            crud("/levels/:location", new LevelsController(metrics));
-            crud("/timeseries/:timeseries", new TimeSeriesController(metrics));
-            crud("/timeseries/category/:category-id", new TimeSeriesCategoryController(metrics));
-            crud("/timeseries/group/:group-id", new TimeSeriesGroupController(metrics));
-            crud("/ratings/:rating", new RatingController(metrics));
-            crud("/catalog/:dataSet", new CatalogController(metrics));
+            AsyncCrud.crud("/locations/:location_code", new LocationController(metrics), catalog);
+            AsyncCrud.crud("/location/category/:category-id", new LocationCategoryController(metrics), reference);
+            AsyncCrud.crud("/location/group/:group-id", new LocationGroupController(metrics), reference);
+            AsyncCrud.crud("/offices/:office", new OfficeController(metrics), reference);
+            AsyncCrud.crud("/units/:unit_name", new UnitsController(metrics), reference);
+            AsyncCrud.crud("/parameters/:param_name", new ParametersController(metrics), reference);
+            AsyncCrud.crud("/timezones/:zone", new TimeZoneController(metrics), reference);
+            AsyncCrud.crud("/levels/:location", new LevelsController(metrics), bulk);
+            AsyncCrud.crud("/timeseries/:timeseries", new TimeSeriesController(metrics), bulk);
+            AsyncCrud.crud("/timeseries/category/:category-id", new TimeSeriesCategoryController(metrics), reference);
+            AsyncCrud.crud("/timeseries/group/:group-id", new TimeSeriesGroupController(metrics), reference);
+            AsyncCrud.crud("/ratings/:rating", new RatingController(metrics), bulk);
+            AsyncCrud.crud("/catalog/:dataSet", new CatalogController(metrics), catalog);
 
-            crud("/clobs/:clob-id", new ClobController(metrics));
+            AsyncCrud.crud("/clobs/:clob-id", new ClobController(metrics), catalog);
         }).start(port);
 
     }
@@ -30,6 +30,8 @@ import com.codahale.metrics.servlets.MetricsServlet;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategies;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import cwms.radar.api.AsyncCrud;
+import cwms.radar.api.Bulkhead;
 import cwms.radar.api.CatalogController;
 import cwms.radar.api.ClobController;
 import cwms.radar.api.LevelsController;
@@ -44,7 +46,12 @@ import cwms.radar.api.TimeSeriesController;
 import cwms.radar.api.TimeSeriesGroupController;
 import cwms.radar.api.TimeZoneController;
 import cwms.radar.api.UnitsController;
+import cwms.radar.data.LazyConnection;
+import cwms.radar.data.QueryMetrics;
+import cwms.radar.helpers.DatabaseExecutor;
+import cwms.radar.helpers.ErrorResponse;
 import cwms.radar.formatters.Formats;
+import cwms.radar.formatters.FormattingException;
 import org.owasp.html.HtmlPolicyBuilder;
 import org.owasp.html.PolicyFactory;
 
@@ -70,7 +77,10 @@ import static io.javalin.apibuilder.ApiBuilder.crud;
                             "/levels/*",
                             "/clobs/*",
                             "/index*"
-})
+                          },
+            loadOnStartup = 1,  // so init, and the formatter warm-up, happens before the first request
+            asyncSupported = true
+)
 public class ApiServlet extends HttpServlet {
     public static final Logger logger = Logger.getLogger(ApiServlet.class.getName());
     private MetricRegistry metrics;
@@ -81,6 +91,10 @@ public class ApiServlet extends HttpServlet {
     private static final long serialVersionUID = 1L;
 
     static JavalinServlet javalin = null;
+    // run the handlers that wait on the database, null when RADAR_ASYNC is off
+    private Bulkhead reference;
+    private Bulkhead catalog;
+    private Bulkhead bulk;
 
     @Resource(name = "jdbc/CWMS3")
     DataSource cwms;
@@ -97,6 +111,14 @@ public class ApiServlet extends HttpServlet {
         om.setPropertyNamingStrategy(PropertyNamingStrategies.KEBAB_CASE);
         om.registerModule(new JavaTimeModule());            // Needed in Java 8 to properly format java.time classes
 
+        // each class of route gets its own threads and share of jdbc/CWMS3, set RADAR_POOL_MAX_ACTIVE to its maxActive
+        if( Boolean.parseBoolean(System.getProperty("RADAR_ASYNC","true")) ){
+            int poolSize = Integer.parseInt(System.getProperty("RADAR_POOL_MAX_ACTIVE","10"));
+            reference = Bulkhead.configured(Bulkhead.REFERENCE, 20, 0, poolSize, cwms, metrics);
+            catalog = Bulkhead.configured(Bulkhead.CATALOG, 20, 0, poolSize, cwms, metrics);
+            bulk = Bulkhead.configured(Bulkhead.BULK, 60, 40, poolSize, cwms, metrics);
+        }
+
         javalin = Javalin.createStandalone(config -> {
             config.defaultContentType = "application/json";
             config.contextPath = context;
@@ -104,6 +126,8 @@ public class ApiServlet extends HttpServlet {
             config.enableDevLogging();
             config.requestLogger( (ctx,ms) -> logger.info(ctx.toString()));
             config.addStaticFiles("/static");
+            // CompressionFilter (web.xml) handles Accept-Encoding, including for streamed responses
+            config.dynamicGzip = false;
         })
                 .attribute(PolicyFactory.class,sanitizer)
                 .before( ctx -> {
@@ -115,33 +139,48 @@ public class ApiServlet extends HttpServlet {
                     ctx.header("X-Frame-Options","SAMEORIGIN");
                     ctx.header("X-XSS-Protection", "1; mode=block");
                 })
+                .after( ctx -> {
+                    ((Connection)ctx.attribute("database")).close();
+                })
+                .exception(DatabaseExecutor.Overloaded.class, AsyncCrud::overloaded)
                 .exception(UnsupportedOperationException.class, (e,ctx) -> {
                     ctx.status(501);
                     ctx.json(e.getMessage());
                 })
                 .exception(Exception.class, (e,ctx) -> {
-                    ctx.status(500);
-                    ctx.json("Server Error");
                     e.printStackTrace(System.err);
+                    // a streamed response that already started can only end early
+                    if( ErrorResponse.canSend(ctx.res) ){
+                        ctx.status(500);
+                        ctx.json("Server Error");
+                    }
                 })
                 .routes( () -> {
                     get("/", ctx -> ctx.result("Welcome to the CWMS REST API").contentType(Formats.PLAIN));
-                    crud("/locations/:location_code", new LocationController(metrics));
-                    crud("/location/category/:category-id", new LocationCategoryController(metrics));
-                    crud("/location/group/:group-id", new LocationGroupController(metrics));
-                    crud("/offices/:office", new OfficeController(metrics));
-                    crud("/units/:unit_name", new UnitsController(metrics));
-                    crud("/parameters/:param_name", new ParametersController(metrics));
-                    crud("/timezones/:zone", new TimeZoneController(metrics));
-                    crud("/levels/:location", new LevelsController(metrics));
-                    crud("/timeseries/:timeseries", new TimeSeriesController(metrics));
-                    crud("/timeseries/category/:category-id", new TimeSeriesCategoryController(metrics));
-                    crud("/timeseries/group/:group-id", new TimeSeriesGroupController(metrics));
-                    crud("/ratings/:rating", new RatingController(metrics));
-                    crud("/catalog/:dataSet", new CatalogController(metrics));
-
-                    crud("/clobs/:clob-id", new ClobController(metrics));
+                    AsyncCrud.crud("/locations/:location_code", new LocationController(metrics), catalog);
+                    AsyncCrud.crud("/location/category/:category-id", new LocationCategoryController(metrics), reference);
+                    AsyncCrud.crud("/location/group/:group-id", new LocationGroupController(metrics), reference);
+                    AsyncCrud.crud("/offices/:office", new OfficeController(metrics), reference);
+                    AsyncCrud.crud("/units/:unit_name", new UnitsController(metrics), reference);
+                    AsyncCrud.crud("/parameters/:param_name", new ParametersController(metrics), reference);
+                    AsyncCrud.crud("/timezones/:zone", new TimeZoneController(metrics), reference);
+                    AsyncCrud.crud("/levels/:location", new LevelsController(metrics), bulk);
+                    AsyncCrud.crud("/timeseries/:timeseries", new TimeSeriesController(metrics), bulk);
+                    AsyncCrud.crud("/timeseries/category/:category-id", new TimeSeriesCategoryController(metrics), reference);
+                    AsyncCrud.crud("/timeseries/group/:group-id", new TimeSeriesGroupController(metrics), reference);
+                    AsyncCrud.crud("/ratings/:rating", new RatingController(metrics), bulk);
+                    AsyncCrud.crud("/catalog/:dataSet", new CatalogController(metrics), catalog);
+
+                    AsyncCrud.crud("/clobs/:clob-id", new ClobController(metrics), catalog);
                 }).servlet();
+
+        if( Boolean.parseBoolean(System.getProperty("RADAR_FORMATTER_WARMUP","true")) ){
+            try {
+                Formats.warmUp();
+            } catch( FormattingException err ){
+                logger.log(Level.SEVERE, "Unable to load formatters", err);
+            }
+        }
     }
 
     private OpenApiOptions getOpenApiOptions() {
@@ -156,24 +195,46 @@ public class ApiServlet extends HttpServlet {
     @Override
     protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         total_requests.mark();
-        try (Connection db = cwms.getConnection()) {
+        // only checks a connection out of the pool if a handler queries the database
+        Connection db = LazyConnection.of(cwms);
+        try {
             String office = req.getContextPath().substring(1).split("-")[0];//
             if( office.equalsIgnoreCase("cwms")){
                 office = "HQ";
             }
             req.setAttribute("office_id", office.toUpperCase());
             req.setAttribute("database", db);
+            // for work that runs off the request thread and needs connections of its own
+            req.setAttribute("data_source", cwms);
             javalin.service(req, resp);
-        } catch (SQLException ex) {
-            Logger.getLogger(ApiServlet.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            // an asynchronous request still uses it, the after handler closes it once the handler is done
+            if( !req.isAsyncStarted() ){
+                try {
+                    db.close();
+                } catch (SQLException ex) {
+                    Logger.getLogger(ApiServlet.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
         }
 
     }
 
+    @Override
+    public void destroy() {
+        for( Bulkhead bulkhead: new Bulkhead[]{reference, catalog, bulk} ){
+            if( bulkhead != null ){
+                bulkhead.shutdown();
+            }
+        }
+        super.destroy();
+    }
+
     @Override
     public void init(ServletConfig config) throws ServletException {
         metrics = (MetricRegistry)config.getServletContext().getAttribute(MetricsServlet.METRICS_REGISTRY);
         total_requests = metrics.meter("radar.total_requests");
+        QueryMetrics.setMetricRegistry(metrics);
         super.init(config);
     }
 